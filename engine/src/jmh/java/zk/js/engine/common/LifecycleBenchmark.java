@@ -0,0 +1,193 @@
+/*
+ * Copyright 2023 zoukang, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package zk.js.engine.common;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 对比基于CAS的BaseLifecycleService和原来基于synchronized的实现：
+ * jobLifecycle模拟每个任务经历一次完整的init/start/stop，
+ * contended模拟多个线程同时对同一个服务进行start/stop
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class LifecycleBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class SharedServices {
+        final CasService casService = new CasService();
+        final SynchronizedService synchronizedService = new SynchronizedService();
+    }
+
+    @Benchmark
+    public Object jobLifecycleCas() {
+        CasService service = new CasService();
+        service.init();
+        service.start();
+        service.stop();
+        return service;
+    }
+
+    @Benchmark
+    public Object jobLifecycleSynchronized() {
+        SynchronizedService service = new SynchronizedService();
+        service.init();
+        service.start();
+        service.stop();
+        return service;
+    }
+
+    @Benchmark
+    public boolean contendedCas(SharedServices services) {
+        services.casService.start();
+        services.casService.stop();
+        return services.casService.isStopped();
+    }
+
+    @Benchmark
+    public boolean contendedSynchronized(SharedServices services) {
+        services.synchronizedService.start();
+        services.synchronizedService.stop();
+        return services.synchronizedService.isStopped();
+    }
+
+    static class CasService extends BaseLifecycleService {
+    }
+
+    /**
+     * 原来的实现：每次状态转换都在同一个锁上完成，
+     * 和BaseLifecycleService一样记录trace日志、调用doLifecycleChange和doXxx，使两者的差别只在于加锁还是CAS
+     */
+    static class SynchronizedService {
+
+        private static final Logger log = LoggerFactory.getLogger(SynchronizedService.class);
+
+        private final Object lock = new Object();
+
+        private volatile byte state = BaseLifecycleService.NEW;
+
+        void init() {
+            synchronized (lock) {
+                if (state == BaseLifecycleService.NEW) {
+                    state = BaseLifecycleService.BUILDING;
+                    log.trace("Building service: {}", this);
+                    try (AutoCloseable ignored = doLifecycleChange()) {
+                        doBuild();
+                    } catch (Exception exception) {
+                        doFail(exception);
+                    }
+                    state = BaseLifecycleService.BUILT;
+                    log.trace("Built service: {}", this);
+                }
+                if (state <= BaseLifecycleService.BUILT || state >= BaseLifecycleService.STOPPED) {
+                    state = BaseLifecycleService.INITIALIZING;
+                    log.trace("Initializing service: {}", this);
+                    try (AutoCloseable ignored = doLifecycleChange()) {
+                        doInit();
+                        state = BaseLifecycleService.INITIALIZED;
+                        log.trace("Initialized service: {}", this);
+                    } catch (Exception exception) {
+                        fail(exception);
+                    }
+                }
+            }
+        }
+
+        void start() {
+            synchronized (lock) {
+                if (state == BaseLifecycleService.STARTED || state == BaseLifecycleService.STARTING) {
+                    log.trace("Service: {} already started", this);
+                    return;
+                }
+                init();
+                state = BaseLifecycleService.STARTING;
+                try (AutoCloseable ignored = doLifecycleChange()) {
+                    log.trace("Starting service: {}", this);
+                    doStart();
+                    state = BaseLifecycleService.STARTED;
+                    log.trace("Started service: {}", this);
+                } catch (Exception exception) {
+                    fail(exception);
+                }
+            }
+        }
+
+        void stop() {
+            synchronized (lock) {
+                if (state >= BaseLifecycleService.STOPPING) {
+                    log.trace("Service: {} already stopped", this);
+                    return;
+                }
+                state = BaseLifecycleService.STOPPING;
+                log.trace("Stopping service: {}", this);
+                try (AutoCloseable ignored = doLifecycleChange()) {
+                    doStop();
+                    state = BaseLifecycleService.STOPPED;
+                    log.trace("Stopped: {} service", this);
+                } catch (Exception exception) {
+                    fail(exception);
+                }
+            }
+        }
+
+        boolean isStopped() {
+            return state < BaseLifecycleService.STARTING || state >= BaseLifecycleService.STOPPED;
+        }
+
+        private void fail(Exception exception) {
+            try {
+                doFail(exception);
+            } finally {
+                state = BaseLifecycleService.FAILED;
+            }
+        }
+
+        protected void doBuild() throws Exception {
+            // noop
+        }
+
+        protected void doInit() throws Exception {
+            // noop
+        }
+
+        protected void doStart() throws Exception {
+            // noop
+        }
+
+        protected void doStop() throws Exception {
+            // noop
+        }
+
+        protected void doFail(Exception exception) {
+            // noop
+        }
+
+        protected AutoCloseable doLifecycleChange() {
+            return null;
+        }
+
+    }
+
+}
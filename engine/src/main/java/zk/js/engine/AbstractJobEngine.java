@@ -15,25 +15,62 @@
  */
 package zk.js.engine;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
-import java.util.UUID;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 
 import lombok.Getter;
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 
 import zk.js.engine.common.BaseLifecycleService;
+import zk.js.engine.common.ServiceState;
+import zk.js.engine.event.JobEvent;
+import zk.js.engine.event.JobEventBus;
+import zk.js.engine.event.JobEventListener;
+import zk.js.engine.job.AbstractStreamingJob;
 import zk.js.engine.job.Job;
 import zk.js.engine.job.JobConverter;
 import zk.js.engine.job.JobDefinition;
 import zk.js.engine.job.JobStore;
 import zk.js.engine.job.JobStoreException;
+import zk.js.engine.job.JobTimeline;
+import zk.js.engine.job.MicroBatchHandler;
+import zk.js.engine.job.MicroBatchJob;
+import zk.js.engine.job.RecoveryPolicy;
+import zk.js.engine.job.RetryPolicy;
+import zk.js.engine.job.StreamingMetrics;
+import zk.js.engine.limit.JobAdmissionController;
+import zk.js.engine.limit.Permit;
+import zk.js.engine.output.JobOutput;
+import zk.js.engine.output.JobOutputs;
+import zk.js.engine.trace.JobSpanExporter;
+import zk.js.engine.trace.TraceContext;
 
 @Slf4j
 public abstract class AbstractJobEngine extends BaseLifecycleService implements JobEngine {
@@ -44,13 +81,148 @@ public abstract class AbstractJobEngine extends BaseLifecycleService implements
 
     protected final JobStore jobStore;
 
+    /**
+     * 引擎中任务总数的上限，包括等待准入的任务，超过时直接拒绝。
+     * 同时执行的任务数可以通过admissionController设置AdaptiveLimit按排队时间自动调整
+     */
     @Getter
     protected long maxRunningJobCount;
 
+    /**
+     * 正在执行或者等待准入的任务，保存的是可以执行的Job对象和它的Future，不能像CompactJobStore那样压缩成列；
+     * 任务结束后立即移除，大量任务的内存占用主要在JobStore中，使用CompactJobStore即可
+     */
     protected final Map<String, JobAndFuture> runningJobs = new ConcurrentHashMap<>(4);
 
+    /**
+     * 被挂起的任务，挂起期间不占用运行位置
+     */
+    protected final Map<String, JobAndFuture> suspendedJobs = new ConcurrentHashMap<>(4);
+
+    /**
+     * 每个JobDefinition正在运行（包括挂起）的任务数，用于单例检查
+     */
+    private final Map<String, Integer> activeJobCounts = new ConcurrentHashMap<>(4);
+
+    /**
+     * 合并模式下每个JobDefinition待执行的任务，最多一个
+     */
+    private final Map<String, PendingRerun> pendingReruns = new ConcurrentHashMap<>(4);
+
+    /**
+     * 引擎整体挂起时被挂起的任务，引擎恢复时一起恢复
+     */
+    private final Set<String> suspendedByEngine = ConcurrentHashMap.newKeySet();
+
     private final AtomicInteger startingJobCounter = new AtomicInteger(0);
 
+    /**
+     * 取消任务后等待任务自己退出的时间，超过这个时间则中断执行任务的线程
+     */
+    @Getter
+    @Setter
+    private long cancelGraceMillis = 5000L;
+
+    protected ScheduledThreadPoolExecutor timer = createTimer();
+
+    /**
+     * 启动时是否恢复JobStore中还没有结束的任务
+     */
+    @Getter
+    @Setter
+    private boolean recoverOnStart = true;
+
+    /**
+     * 恢复任务时并行遍历JobStore的线程数，也是分区数
+     */
+    @Getter
+    @Setter
+    private int recoveryParallelism = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * doStart之后还需要恢复任务，恢复在进入STARTED状态之后进行
+     */
+    private final AtomicBoolean recoveryPending = new AtomicBoolean(false);
+
+    /**
+     * 引擎停止时等待正在运行的任务自己结束的最长时间，超时之后再停止剩余的任务，小于等于0表示立即停止所有任务
+     */
+    @Getter
+    @Setter
+    private long drainTimeoutMillis;
+
+    /**
+     * 引擎停止时并行停止任务的线程数
+     */
+    @Getter
+    @Setter
+    private int stopParallelism = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * 引擎停止剩余任务期间结束的任务，停止的最后一次性保存到JobStore，保存之前仍然留在runningJobs中
+     */
+    private volatile Queue<JobAndFuture> deferredSaves;
+
+    @Getter
+    protected final JobTypeCircuitBreaker circuitBreaker = new JobTypeCircuitBreaker();
+
+    @Getter
+    protected final JobEventBus eventBus = new JobEventBus();
+
+    @Getter
+    protected final JobOutputs jobOutputs = new JobOutputs();
+
+    @Getter
+    protected final StreamingMetrics streamingMetrics = new StreamingMetrics();
+
+    /**
+     * 任务结束或者被转交给其他节点时导出任务的span，为null表示不导出
+     */
+    @Getter
+    @Setter
+    private volatile JobSpanExporter spanExporter;
+
+    /**
+     * 集群模式下所有节点生成的任务id都不能重复
+     */
+    @Getter
+    @Setter
+    protected JobIdGenerator jobIdGenerator = new TimeOrderedJobIdGenerator();
+
+    /**
+     * 识别重复提交的任务，为null表示不检查
+     */
+    @Getter
+    @Setter
+    protected IdempotencyCache idempotencyCache = new IdempotencyCache();
+
+    @Getter
+    protected final JobAdmissionController admissionController = new JobAdmissionController();
+
+    /**
+     * 没有通过限流检查而等待执行的任务，这些任务已经在runningJobs中，可以被停止和等待
+     */
+    private final Queue<JobAndFuture> admissionQueue = new ConcurrentLinkedQueue<>();
+
+    /**
+     * 保证同一时刻只有一个线程处理等待队列，处理期间的其他请求由该线程再处理一遍
+     */
+    private final AtomicInteger admissionDrainRequests = new AtomicInteger();
+
+    private ScheduledFuture<?> admissionRetry;
+
+    /**
+     * 按任务类型注册的微批处理器工厂，没有注册的类型在微批中逐个转换成Job后执行
+     */
+    private final Map<String, Supplier<MicroBatchHandler>> microBatchHandlers = new ConcurrentHashMap<>(4);
+
+    /**
+     * 每个微批最多包含的任务数
+     */
+    @Getter
+    @Setter
+    private int maxMicroBatchSize = 1000;
+
     protected AbstractJobEngine(JobConverter jobConverter, ExecutorService executorService, JobStore jobStore) {
         this.jobConverter = jobConverter;
         this.executorService = executorService;
@@ -65,8 +237,33 @@ public abstract class AbstractJobEngine extends BaseLifecycleService implements
         this.maxRunningJobCount = number;
     }
 
+    /**
+     * 生成任务id，包含MicroBatchJob.ITEM_SEPARATOR的id会和批中任务的id混淆，因此直接拒绝
+     */
+    protected String nextJobId() {
+        String jobId = jobIdGenerator.nextId();
+        if (jobId.contains(MicroBatchJob.ITEM_SEPARATOR)) {
+            throw new IllegalStateException("Job id can not contain '" + MicroBatchJob.ITEM_SEPARATOR + "', job id = " + jobId);
+        }
+        return jobId;
+    }
+
     @Override
     public String runJob(JobDefinition jobDefinition, boolean singleton) throws Exception {
+        String jobId = nextJobId();
+        String existingJobId = registerIdempotencyKey(jobDefinition, jobId);
+        if (Objects.nonNull(existingJobId)) {
+            return existingJobId;
+        }
+        try {
+            return runJob(jobDefinition, singleton, jobId);
+        } catch (Exception exception) {
+            unregisterIdempotencyKey(jobDefinition, jobId);
+            throw exception;
+        }
+    }
+
+    private String runJob(JobDefinition jobDefinition, boolean singleton, String jobId) throws Exception {
         if (startingJobCounter.incrementAndGet() > 20) {
             log.error("There is too many run job request now, refuse to run job with definition id = {}", jobDefinition.getId());
             startingJobCounter.decrementAndGet();
@@ -81,57 +278,380 @@ public abstract class AbstractJobEngine extends BaseLifecycleService implements
                 );
                 throw new IllegalStateException("A job with same job definition id = " + jobDefinition.getId() + " is already running.");
             }
-            return doRunJob(jobDefinition, UUID.randomUUID().toString());
+            return doRunJob(jobDefinition, jobId);
         } finally {
             startingJobCounter.decrementAndGet();
         }
     }
 
+    /**
+     * 记录任务的幂等键，重复提交时返回已有的任务id，否则返回null
+     */
+    protected String registerIdempotencyKey(JobDefinition jobDefinition, String jobId) {
+        String key = jobDefinition.getIdempotencyKey();
+        if (Objects.isNull(key)) {
+            return null;
+        }
+        String existingJobId = registerIdempotencyKey(key, jobId);
+        if (Objects.nonNull(existingJobId)) {
+            log.info("Duplicate submission of job definition id = {}, return existing job id = {}", jobDefinition.getId(), existingJobId);
+        }
+        return existingJobId;
+    }
+
+    /**
+     * 任务没有启动成功，允许客户端使用相同的幂等键重新提交
+     */
+    protected void unregisterIdempotencyKey(JobDefinition jobDefinition, String jobId) {
+        String key = jobDefinition.getIdempotencyKey();
+        if (Objects.nonNull(key)) {
+            unregisterIdempotencyKey(key, jobId);
+        }
+    }
+
+    /**
+     * 在本节点的缓存中记录幂等键，集群模式下由幂等键所属的节点处理其他节点转发的请求
+     */
+    public String registerIdempotencyKey(String idempotencyKey, String jobId) {
+        IdempotencyCache cache = idempotencyCache;
+        return Objects.isNull(cache) ? null : cache.putIfAbsent(idempotencyKey, jobId);
+    }
+
+    public void unregisterIdempotencyKey(String idempotencyKey, String jobId) {
+        IdempotencyCache cache = idempotencyCache;
+        if (Objects.nonNull(cache)) {
+            cache.remove(idempotencyKey, jobId);
+        }
+    }
+
     protected String doRunJob(JobDefinition jobDefinition, String jobId) throws Exception {
+        checkRunnable(jobDefinition);
+        if (isStarted()) {
+            synchronized (lock) {
+                if (isStarted()) {
+                    return launchJob(jobDefinition, jobId, 1).getId();
+                }
+            }
+        }
+        log.warn("Can not run job with definition id = {} because current job engine state is {}", jobDefinition.getId(), getState());
+        throw new IllegalStateException("Can not run job because current job engine state is " + getState());
+    }
+
+    private void checkRunnable(JobDefinition jobDefinition) {
+        long openMillis = circuitBreaker.remainingOpenMillis(jobDefinition.getType());
+        if (openMillis > 0L) {
+            log.warn("Can not run job with job definition id = {}, circuit of job type {} is open.", jobDefinition.getId(), jobDefinition.getType());
+            throw new IllegalStateException("Circuit of job type " + jobDefinition.getType() + " is open, try after " + openMillis + " ms.");
+        }
         if (runningJobs.size() >= maxRunningJobCount) {
             log.warn("Can not run job with job definition id = {}, max job count reached.", jobDefinition.getId());
             throw new IllegalStateException("Can not run job with job definition id = " + jobDefinition.getId() + ", max job count reached.");
         }
+    }
+
+    /**
+     * 注册任务类型的微批处理器，每个微批通过factory创建一个新的处理器
+     */
+    public void registerMicroBatchHandler(String type, Supplier<MicroBatchHandler> factory) {
+        microBatchHandlers.put(type, factory);
+    }
+
+    /**
+     * 按类型分组，每组最多maxMicroBatchSize个任务作为一个MicroBatchJob执行，
+     * 批中任务的单例检查、超时、重试和幂等键都不生效；
+     * 所有批先在锁外创建好，再在一次加锁中全部启动
+     */
+    @Override
+    public List<String> runMicroBatch(Collection<JobDefinition> jobDefinitions) throws Exception {
+        List<JobDefinition> definitions = List.copyOf(jobDefinitions);
+        Map<String, List<Integer>> groups = new LinkedHashMap<>();
+        for (int i = 0; i < definitions.size(); ++i) {
+            groups.computeIfAbsent(definitions.get(i).getType(), key -> new ArrayList<>()).add(i);
+        }
+        int batchSize = Math.max(1, maxMicroBatchSize);
+        List<MicroBatchJob> batches = new ArrayList<>();
+        List<List<Integer>> chunks = new ArrayList<>();
+        for (Map.Entry<String, List<Integer>> entry : groups.entrySet()) {
+            List<Integer> indexes = entry.getValue();
+            for (int from = 0; from < indexes.size(); from += batchSize) {
+                List<Integer> chunk = indexes.subList(from, Math.min(from + batchSize, indexes.size()));
+                List<JobDefinition> items = new ArrayList<>(chunk.size());
+                for (int index : chunk) {
+                    items.add(definitions.get(index));
+                }
+                batches.add(newMicroBatchJob(entry.getKey(), items));
+                chunks.add(chunk);
+            }
+        }
+        launchMicroBatchJobs(batches);
+        String[] jobIds = new String[definitions.size()];
+        for (int i = 0; i < batches.size(); ++i) {
+            List<Integer> chunk = chunks.get(i);
+            for (int j = 0; j < chunk.size(); ++j) {
+                jobIds[chunk.get(j)] = MicroBatchJob.itemId(batches.get(i).getId(), j);
+            }
+        }
+        return Arrays.asList(jobIds);
+    }
+
+    private MicroBatchJob newMicroBatchJob(String type, List<JobDefinition> items) {
+        JobDefinition batchDefinition = MicroBatchJob.batchDefinition(type);
+        Supplier<MicroBatchHandler> factory = microBatchHandlers.get(type);
+        MicroBatchHandler handler = Objects.isNull(factory) ? MicroBatchJob.convertingHandler(getJobConverter()) : factory.get();
+        MicroBatchJob job = new MicroBatchJob(batchDefinition, items, handler);
+        job.setId(nextJobId());
+        return job;
+    }
+
+    private void launchMicroBatchJobs(List<MicroBatchJob> batches) throws Exception {
         if (isStarted()) {
             synchronized (lock) {
                 if (isStarted()) {
-                    Job job = getJobConverter().convertJobDefinition(jobDefinition);
-                    job.setId(jobId);
-                    job.init();
-                    if (!job.getState().isInitialized()) {
-                        throw new IllegalStateException("Job with id = {} init failed", job.getFailException());
-                    }
-                    JobAndFuture jobAndFuture = new JobAndFuture(job);
-                    runningJobs.put(job.getId(), jobAndFuture);
-
-                    try {
-                        jobStore.saveJob(job);
-                    } catch (JobStoreException exception) {
-                        log.error("Failed to save job status after started it, job id = {}", job.getId());
-                        runningJobs.remove(job.getId());
-                        throw exception;
+                    for (MicroBatchJob batch : batches) {
+                        checkRunnable(batch.jobDefinition());
+                        launchJob(batch, 1);
                     }
-
-                    job.getStatus().setStartTimestamp(System.currentTimeMillis());
-                    submitJob(jobAndFuture);
-                    return job.getId();
+                    return;
                 }
             }
         }
-        log.warn("Can not run job with definition id = {} because current job engine state is {}", jobDefinition.getId(), getState());
+        log.warn("Can not run micro batch because current job engine state is {}", getState());
         throw new IllegalStateException("Can not run job because current job engine state is " + getState());
     }
 
-    private void submitJob(JobAndFuture jobAndFuture) {
+    /**
+     * 转换并初始化任务，保存后提交执行
+     *
+     * @param attempt 任务的第几次执行，恢复的任务从上次的执行次数继续计数
+     */
+    private Job launchJob(JobDefinition jobDefinition, String jobId, int attempt) throws Exception {
+        long submitted = JobTimeline.now();
+        Job job = getJobConverter().convertJobDefinition(jobDefinition);
+        job.setId(jobId);
+        job.getStatus().getTimeline().mark(JobTimeline.Stage.SUBMITTED, submitted);
+        job.getStatus().getTimeline().mark(JobTimeline.Stage.CONVERTED);
+        return launchJob(job, attempt);
+    }
+
+    private Job launchJob(Job job, int attempt) throws Exception {
+        String jobId = job.getId();
+        JobDefinition jobDefinition = job.jobDefinition();
+        JobTimeline timeline = job.getStatus().getTimeline();
+        if (timeline.get(JobTimeline.Stage.SUBMITTED) == 0L) {
+            timeline.mark(JobTimeline.Stage.SUBMITTED);
+        }
+        // 提交任务的线程上有trace时任务作为它的子span，否则只有设置了spanExporter时才作为一个新trace的根，
+        // 不需要trace时不生成随机id
+        TraceContext parent = TraceContext.current();
+        if (Objects.nonNull(parent)) {
+            TraceContext context = parent.newChild();
+            timeline.setTrace(context.getTraceId(), context.getSpanId(), parent.getSpanId(), parent.isSampled());
+        } else if (Objects.nonNull(spanExporter)) {
+            TraceContext context = TraceContext.newRoot();
+            timeline.setTrace(context.getTraceId(), context.getSpanId(), null, context.isSampled());
+        }
+        job.setJobStore(jobStore);
+        job.getStatus().setAttempt(attempt);
+        job.init();
+        if (!job.getState().isInitialized()) {
+            throw new IllegalStateException("Job with id = " + jobId + " init failed", job.getFailException());
+        }
+        timeline.mark(JobTimeline.Stage.INITIALIZED);
+        // 同一个任务上次执行保留的输出不再有效
+        jobOutputs.release(jobId);
+        job.setOutput(() -> jobOutputs.getOrCreate(jobId, () -> isOutputOpen(jobId)));
+        if (job instanceof AbstractStreamingJob<?, ?> streamingJob) {
+            streamingJob.setMetrics(streamingMetrics);
+        }
+        JobAndFuture jobAndFuture = new JobAndFuture(job);
+        runningJobs.put(job.getId(), jobAndFuture);
+        indexJob(jobDefinition);
+
+        prepareJob(job);
+        try {
+            jobStore.saveJob(job);
+        } catch (JobStoreException exception) {
+            log.error("Failed to save job status after started it, job id = {}", job.getId());
+            runningJobs.remove(job.getId());
+            unindexJob(jobDefinition);
+            jobOutputs.release(job.getId());
+            throw exception;
+        }
+        timeline.mark(JobTimeline.Stage.PERSISTED);
+
+        job.getStatus().setStartTimestamp(System.currentTimeMillis());
+        publishEvent(JobEvent.Type.SUBMITTED, job);
+        admitJob(jobAndFuture, job::start);
+        return job;
+    }
+
+    private void admitJob(JobAndFuture jobAndFuture, Runnable action) {
+        admitJob(jobAndFuture, action, false);
+    }
+
+    /**
+     * 通过限流检查后提交任务，没有通过的任务进入等待队列而不是被拒绝；
+     * 失败重试和让出线程后的继续执行也要重新经过准入，和新任务一样受限流和并发上限的约束
+     */
+    private void admitJob(JobAndFuture jobAndFuture, Runnable action, boolean continuation) {
+        if (!admissionController.isEnabled() && admissionQueue.isEmpty()) {
+            if (!continuation) {
+                jobAndFuture.job.getStatus().getTimeline().mark(JobTimeline.Stage.ADMITTED);
+            }
+            submitJob(jobAndFuture, action, continuation);
+            return;
+        }
+        jobAndFuture.pendingAction = action;
+        jobAndFuture.pendingContinuation = continuation;
+        admissionQueue.offer(jobAndFuture);
+        drainAdmissionQueue();
+    }
+
+    private void drainAdmissionQueue() {
+        if (admissionDrainRequests.getAndIncrement() != 0) {
+            return;
+        }
+        int missed = 1;
+        do {
+            long wait = doDrainAdmissionQueue();
+            scheduleAdmissionRetry(wait);
+            missed = admissionDrainRequests.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    /**
+     * 按顺序尝试准入等待队列中的任务，某类任务被限流时不影响其他类型的任务
+     *
+     * @return 最近一次可以再次尝试的等待纳秒数
+     */
+    private long doDrainAdmissionQueue() {
+        long minWait = JobAdmissionController.WAIT_FOR_RELEASE;
+        Iterator<JobAndFuture> iterator = admissionQueue.iterator();
+        while (iterator.hasNext() && isRunAllowed()) {
+            JobAndFuture jobAndFuture = iterator.next();
+            Job job = jobAndFuture.job;
+            if (jobAndFuture.finished.get()) {
+                iterator.remove();
+                continue;
+            }
+            if (job.isSuspendRequested()) {
+                iterator.remove();
+                parkJob(jobAndFuture);
+                continue;
+            }
+            long wait = admissionController.tryAdmit(job.jobDefinition(), jobAndFuture.permit);
+            if (wait > 0L) {
+                minWait = Math.min(minWait, wait);
+                continue;
+            }
+            iterator.remove();
+            jobAndFuture.admittedNanos = System.nanoTime();
+            jobAndFuture.queueDelayNanos = -1L;
+            jobAndFuture.admitted.set(true);
+            boolean continuation = jobAndFuture.pendingContinuation;
+            if (!continuation) {
+                job.getStatus().getTimeline().mark(JobTimeline.Stage.ADMITTED);
+            }
+            Runnable action = jobAndFuture.pendingAction;
+            jobAndFuture.pendingAction = null;
+            submitJob(jobAndFuture, action, continuation);
+            if (jobAndFuture.finished.get()) {
+                // 准入的同时被停止了
+                releaseAdmission(jobAndFuture);
+            }
+        }
+        return minWait;
+    }
+
+    private void scheduleAdmissionRetry(long waitNanos) {
+        if (waitNanos == JobAdmissionController.WAIT_FOR_RELEASE) {
+            return;
+        }
+        ScheduledFuture<?> current = admissionRetry;
+        if (Objects.nonNull(current) && !current.isDone() && current.getDelay(TimeUnit.NANOSECONDS) <= waitNanos) {
+            return;
+        }
+        try {
+            admissionRetry = timer.schedule(this::drainAdmissionQueue, waitNanos, TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException exception) {
+            log.debug("Timer is shutdown, stop retrying admission.");
+        }
+    }
+
+    /**
+     * 任务结束、挂起或者被释放时归还占用的并发数，并让等待的任务再次尝试
+     */
+    private void releaseAdmission(JobAndFuture jobAndFuture) {
+        releaseAdmission(jobAndFuture, false);
+    }
+
+    /**
+     * 样本是任务从准入到线程池开始执行的排队时间，和任务本身的执行时间无关，不同类型的任务共用一个上限时也可以比较；
+     * 超时的时候还在线程池中排队的任务，排队时间算到超时为止
+     *
+     * @param sample 任务执行结束，排队时间作为自适应并发上限的样本，手动停止的任务除外
+     */
+    private void releaseAdmission(JobAndFuture jobAndFuture, boolean sample) {
+        if (jobAndFuture.admitted.compareAndSet(true, false)) {
+            Job.ExitType exitType = jobAndFuture.job.getStatus().getExitType();
+            boolean valid = sample && exitType != Job.ExitType.MANUAL_STOP;
+            long queueDelayNanos = jobAndFuture.queueDelayNanos;
+            if (valid && queueDelayNanos < 0L) {
+                queueDelayNanos = System.nanoTime() - jobAndFuture.admittedNanos;
+            }
+            long latencyNanos = valid ? queueDelayNanos : -1L;
+            admissionController.release(jobAndFuture.permit, latencyNanos, valid && exitType == Job.ExitType.TIMEOUT);
+            if (!admissionQueue.isEmpty()) {
+                drainAdmissionQueue();
+            }
+        }
+    }
+
+    private void submitJob(JobAndFuture jobAndFuture, Runnable action) {
+        submitJob(jobAndFuture, action, false);
+    }
+
+    /**
+     * @param continuation 是否是让出线程的任务继续执行，此时不再发布STARTED事件，超时时间也继续从第一次执行开始计算
+     */
+    private void submitJob(JobAndFuture jobAndFuture, Runnable action, boolean continuation) {
         Job job = jobAndFuture.job;
-        jobAndFuture.future = this.executorService.submit(job::start);
+        jobAndFuture.future = this.executorService.submit(() -> {
+            if (jobAndFuture.admitted.get()) {
+                jobAndFuture.queueDelayNanos = System.nanoTime() - jobAndFuture.admittedNanos;
+            }
+            if (!continuation) {
+                JobTimeline timeline = job.getStatus().getTimeline();
+                timeline.mark(JobTimeline.Stage.DEQUEUED);
+                publishEvent(JobEvent.Type.STARTED, job);
+                timeline.mark(JobTimeline.Stage.STARTED);
+            }
+            action.run();
+        });
+        long timeoutMillis = job.jobDefinition().getTimeoutMillis();
+        if (timeoutMillis > 0L && !continuation) {
+            jobAndFuture.timeout = timer.schedule(() -> cancelJob(jobAndFuture, Job.ExitType.TIMEOUT), timeoutMillis, TimeUnit.MILLISECONDS);
+        }
         this.executorService.execute(() -> {
             try {
                 jobAndFuture.future.get();
                 if (Objects.nonNull(job.getStatus().getExitType())) {
+                    // 任务被取消时已经设置了退出状态
+                    log.debug("job with id = {} exit with {}", job.getId(), job.getStatus().getExitType());
+                } else if (job.isSuspendAcknowledged() && Objects.isNull(job.getFailException())) {
+                    log.debug("job with id = {} returned for suspending.", job.getId());
+                } else if (Objects.nonNull(job.getFailException())) {
+                    log.error("job with id = {} to exception failed.", job.getId(), job.getFailException());
+                    job.getStatus().setExitType(Job.ExitType.FAILED);
+                } else if (job.getContinueDelayMillis() >= 0L) {
+                    log.trace("job with id = {} yielded.", job.getId());
+                } else {
                     // 任务自己结束的时候没有根据其内部的具体情况来设置退出状态，则这里统一设置为Job.ExitType.FINISHED
                     job.getStatus().setExitType(Job.ExitType.FINISHED);
                 }
+            } catch (CancellationException exception) {
+                // 被取消的任务在取消时已经设置了退出状态
+                log.debug("job with id = {} is cancelled.", job.getId());
             } catch (ExecutionException exception) {
                 log.error("job with id = {} to exception failed.", job.getId(), exception);
                 job.getStatus().setExitType(Job.ExitType.FAILED);
@@ -140,69 +660,639 @@ public abstract class AbstractJobEngine extends BaseLifecycleService implements
                 job.getStatus().setExitType(Job.ExitType.FAILED);
                 Thread.currentThread().interrupt();
             } finally {
-                if (job.getState().isStoppable()) {
-                    job.stop();
+                recordOutcome(job);
+                // 被释放的任务已经交给其他节点执行，不算作在本节点退出
+                if (jobAndFuture.released) {
+                    log.debug("job with id = {} is released.", job.getId());
+                } else if (isSuspending(jobAndFuture)) {
+                    parkJob(jobAndFuture);
+                } else if (!scheduleContinuation(jobAndFuture) && !scheduleRetry(jobAndFuture)) {
+                    if (job.getState().isStoppable()) {
+                        job.stop();
+                    }
+                    finishJob(jobAndFuture);
                 }
             }
         });
     }
 
+    /**
+     * 让出线程的任务先转为挂起状态，延迟之后通过resume继续执行，因此再次执行时的异常和第一次执行一样被记录为失败原因；
+     * 等待期间任务仍然占用位置，可以被停止和挂起，但是归还准入占用的并发数，继续执行时重新准入
+     *
+     * @return 是否安排了继续执行
+     */
+    private boolean scheduleContinuation(JobAndFuture jobAndFuture) {
+        Job job = jobAndFuture.job;
+        long delay = job.getContinueDelayMillis();
+        if (delay < 0L || Objects.nonNull(job.getStatus().getExitType()) || Objects.nonNull(job.getFailException())) {
+            return false;
+        }
+        if (job.getCancellationToken().isCancellationRequested() || jobAndFuture.finished.get() || !isStarted()) {
+            // 引擎正在停止，任务不会再继续执行
+            job.getStatus().setExitType(Job.ExitType.MANUAL_STOP);
+            return false;
+        }
+        job.suspend();
+        releaseAdmission(jobAndFuture, true);
+        try {
+            timer.schedule(() -> {
+                if (!jobAndFuture.finished.get() && !job.getCancellationToken().isCancellationRequested()) {
+                    admitJob(jobAndFuture, job::resume, true);
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException exception) {
+            log.warn("Can not continue job with id = {}, job engine is stopping.", job.getId());
+            job.getStatus().setExitType(Job.ExitType.MANUAL_STOP);
+            return false;
+        }
+        return true;
+    }
+
+    private void recordOutcome(Job job) {
+        Job.ExitType exitType = job.getStatus().getExitType();
+        if (exitType == Job.ExitType.FINISHED) {
+            circuitBreaker.recordSuccess(job.jobDefinition().getType());
+        } else if (exitType == Job.ExitType.FAILED) {
+            circuitBreaker.recordFailure(job.jobDefinition().getType());
+        }
+    }
+
+    /**
+     * 按照JobDefinition的重试策略在退避时间之后重新执行失败的任务，
+     * 重新执行复用同一个Job实例和任务id，不需要再次转换JobDefinition和保存任务，
+     * 退避期间任务仍然占用位置，可以被停止，但是归还准入占用的并发数，重试时重新准入
+     *
+     * @return 是否安排了重试
+     */
+    private boolean scheduleRetry(JobAndFuture jobAndFuture) {
+        Job job = jobAndFuture.job;
+        RetryPolicy retryPolicy = job.jobDefinition().getRetryPolicy();
+        if (Objects.isNull(retryPolicy) || job.getStatus().getExitType() != Job.ExitType.FAILED) {
+            return false;
+        }
+        if (job.getCancellationToken().isCancellationRequested() || jobAndFuture.finished.get() || !isStarted()) {
+            return false;
+        }
+        int attempt = job.getStatus().getAttempt();
+        if (!retryPolicy.shouldRetry(attempt, job.getFailException())) {
+            return false;
+        }
+        long delay = Math.max(retryPolicy.backoffMillis(attempt), circuitBreaker.remainingOpenMillis(job.jobDefinition().getType()));
+        if (Objects.nonNull(jobAndFuture.timeout)) {
+            jobAndFuture.timeout.cancel(false);
+        }
+        releaseAdmission(jobAndFuture, true);
+        job.getStatus().setExitType(null);
+        job.getStatus().setAttempt(attempt + 1);
+        try {
+            timer.schedule(() -> {
+                if (!jobAndFuture.finished.get() && !job.getCancellationToken().isCancellationRequested()) {
+                    admitJob(jobAndFuture, job::start);
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException exception) {
+            job.getStatus().setExitType(Job.ExitType.FAILED);
+            return false;
+        }
+        log.info("Job with id = {} failed at attempt {}, retry after {} ms.", job.getId(), attempt, delay);
+        return true;
+    }
+
+    /**
+     * 任务响应了挂起请求从run方法返回，或者还没有开始执行就被挂起
+     */
+    private boolean isSuspending(JobAndFuture jobAndFuture) {
+        Job job = jobAndFuture.job;
+        if (jobAndFuture.finished.get() || Objects.nonNull(job.getStatus().getExitType())) {
+            return false;
+        }
+        return job.isSuspendAcknowledged() || job.isSuspendRequested() && job.getState().isInitialized();
+    }
+
+    /**
+     * 把任务移到suspendedJobs中，释放运行位置
+     */
+    private void parkJob(JobAndFuture jobAndFuture) {
+        Job job = jobAndFuture.job;
+        if (Objects.nonNull(jobAndFuture.timeout)) {
+            jobAndFuture.timeout.cancel(false);
+        }
+        suspendedJobs.put(job.getId(), jobAndFuture);
+        runningJobs.remove(job.getId(), jobAndFuture);
+        releaseAdmission(jobAndFuture);
+        job.suspend();
+        job.getStatus().setServiceState(ServiceState.SUSPENDED);
+        try {
+            jobStore.saveJob(job);
+        } catch (JobStoreException exception) {
+            log.error("Failed to save job status after suspended it, job id = {}", job.getId());
+        }
+        log.info("Job with id = {} is suspended.", job.getId());
+        publishEvent(JobEvent.Type.SUSPENDED, job);
+        if (!job.isSuspendRequested()) {
+            // 挂起的过程中又被要求恢复
+            resumeJob(job.getId());
+        }
+    }
+
     @Override
-    public void stopJob(String jobId) {
-        if (!isStarted()) {
+    public boolean suspendJob(String jobId) {
+        JobAndFuture jobAndFuture = runningJobs.get(jobId);
+        if (Objects.isNull(jobAndFuture) || jobAndFuture.finished.get()) {
+            log.warn("Can not suspend job: no running job with id = {} exists.", jobId);
+            return false;
+        }
+        jobAndFuture.job.setSuspendRequested(true);
+        if (!jobAndFuture.job.isSuspendRequested()) {
+            log.warn("Can not suspend job with id = {}, it does not support suspending.", jobId);
+            return false;
+        }
+        Future<?> future = jobAndFuture.future;
+        // 还没有开始执行的任务直接取消，等待线程会把它挂起
+        if (jobAndFuture.isPending() && future.cancel(false)) {
+            log.debug("Pending job with id = {} is cancelled for suspending.", jobId);
+        } else if (Objects.nonNull(jobAndFuture.pendingAction)) {
+            // 在限流等待队列中的任务
+            drainAdmissionQueue();
+        }
+        return true;
+    }
+
+    @Override
+    public boolean resumeJob(String jobId) {
+        if (!isRunAllowed()) {
+            log.warn("Can not resume job with id = {} because current job engine state is {}", jobId, getState());
+            return false;
+        }
+        JobAndFuture running = runningJobs.get(jobId);
+        if (Objects.nonNull(running)) {
+            // 任务还没有响应挂起请求
+            running.job.setSuspendRequested(false);
+            return true;
+        }
+        JobAndFuture jobAndFuture = suspendedJobs.remove(jobId);
+        if (Objects.isNull(jobAndFuture)) {
+            log.warn("Can not resume job: no suspended job with id = {} exists.", jobId);
+            return false;
+        }
+        Job job = jobAndFuture.job;
+        job.setSuspendRequested(false);
+        job.getStatus().setServiceState(ServiceState.STARTED);
+        runningJobs.put(jobId, jobAndFuture);
+        log.info("Resume job with id = {}", jobId);
+        publishEvent(JobEvent.Type.RESUMED, job);
+        // 还没有开始执行就被挂起的任务没有进入SUSPENDED状态，恢复时从头启动
+        admitJob(jobAndFuture, job.getState().isSuspended() ? job::resume : job::start);
+        return true;
+    }
+
+    /**
+     * 任务退出后的收尾工作，只会执行一次：释放占用的位置，保存最终状态，通知等待者
+     */
+    private void finishJob(JobAndFuture jobAndFuture) {
+        if (!jobAndFuture.finished.compareAndSet(false, true)) {
             return;
         }
-        synchronized (lock) {
-            if (!isStarted()) {
-                return;
+        Job job = jobAndFuture.job;
+        if (Objects.nonNull(jobAndFuture.timeout)) {
+            jobAndFuture.timeout.cancel(false);
+        }
+        if (job.getStatus().getStopTimestamp() == 0L) {
+            job.getStatus().setStopTimestamp(System.currentTimeMillis());
+        }
+        job.getStatus().getTimeline().mark(JobTimeline.Stage.FINISHED);
+        // 先保存最终状态再移出runningJobs，否则保存快照的JobStore中会有一段时间既找不到运行中的任务，也没有结束的记录
+        Queue<JobAndFuture> deferred = deferredSaves;
+        if (Objects.nonNull(deferred)) {
+            deferred.add(jobAndFuture);
+        } else {
+            try {
+                jobStore.saveJob(job);
+            } catch (JobStoreException exception) {
+                log.error("Failed to save job status after job exit, job id = {}", job.getId());
             }
-            JobAndFuture jobAndFuture = runningJobs.get(jobId);
-            if (Objects.isNull(jobAndFuture)) {
-                log.warn("Can not stop job: no job with id = {} exists.", jobId);
-                return;
+            runningJobs.remove(job.getId(), jobAndFuture);
+            suspendedJobs.remove(job.getId(), jobAndFuture);
+        }
+        boolean definitionIdle = unindexJob(job.jobDefinition());
+        publishEvent(exitEventType(job.getStatus().getExitType()), job);
+        finishOutput(job.getId());
+        exportSpans(job);
+        try {
+            onJobExit(job);
+        } finally {
+            try {
+                releaseAdmission(jobAndFuture, true);
+            } finally {
+                jobAndFuture.done.complete(null);
             }
-            Job job = jobAndFuture.job;
-            if (job.getState().isStoppable()) {
-                if (Objects.isNull(job.getStatus().getExitType())) {
-                    job.getStatus().setExitType(Job.ExitType.MANUAL_STOP);
+        }
+        if (definitionIdle) {
+            startPendingRerun(job.jobDefinition().getId());
+        }
+    }
+
+    private void indexJob(JobDefinition jobDefinition) {
+        if (Objects.nonNull(jobDefinition.getId())) {
+            activeJobCounts.merge(jobDefinition.getId(), 1, Integer::sum);
+        }
+    }
+
+    /**
+     * @return 该JobDefinition是否已经没有正在运行的任务
+     */
+    private boolean unindexJob(JobDefinition jobDefinition) {
+        if (Objects.isNull(jobDefinition.getId())) {
+            return false;
+        }
+        return Objects.isNull(activeJobCounts.computeIfPresent(jobDefinition.getId(), (key, count) -> count > 1 ? count - 1 : null));
+    }
+
+    @Override
+    public String runJobCoalesced(JobDefinition jobDefinition) throws Exception {
+        String jobDefinitionId = Objects.requireNonNull(jobDefinition.getId(), "Job definition id is required to coalesce.");
+        while (true) {
+            PendingRerun pendingRerun = pendingReruns.get(jobDefinitionId);
+            if (Objects.nonNull(pendingRerun)) {
+                log.debug("Coalesce run request of job definition id = {} into pending job id = {}", jobDefinitionId, pendingRerun.jobId());
+                return pendingRerun.jobId();
+            }
+            if (!existJobRunningWithDefinitionId(jobDefinitionId)) {
+                try {
+                    return runJob(jobDefinition, true);
+                } catch (IllegalStateException exception) {
+                    // 其他线程刚刚启动了相同JobDefinition的任务，重新检查
+                    if (!existJobRunningWithDefinitionId(jobDefinitionId)) {
+                        throw exception;
+                    }
                 }
-                job.stop();
+                continue;
+            }
+            PendingRerun created = new PendingRerun(jobDefinition, nextJobId());
+            if (Objects.isNull(pendingReruns.putIfAbsent(jobDefinitionId, created))) {
+                // 当前任务可能恰好在放入之前结束了，此时没有人会启动待执行的任务
+                if (!existJobRunningWithDefinitionId(jobDefinitionId)) {
+                    startPendingRerun(jobDefinitionId);
+                }
+                return created.jobId();
+            }
+        }
+    }
 
-                if (job.getStatus().getStopTimestamp() == 0L) {
-                    job.getStatus().setStopTimestamp(System.currentTimeMillis());
+    /**
+     * 在锁中先启动任务再移除待执行的记录，其他线程总能看到正在运行的任务或者待执行的记录之一，不会再启动一个相同的任务；
+     * 启动失败时保存一条失败的记录，返回给调用方的jobId也能查到结果
+     */
+    private void startPendingRerun(String jobDefinitionId) {
+        PendingRerun pendingRerun = pendingReruns.get(jobDefinitionId);
+        if (Objects.isNull(pendingRerun)) {
+            return;
+        }
+        try {
+            synchronized (lock) {
+                if (pendingReruns.get(jobDefinitionId) != pendingRerun) {
+                    // 其他线程已经启动了
+                    return;
                 }
-                runningJobs.remove(jobId);
-                try {
-                    jobStore.saveJob(job);
-                } catch (JobStoreException exception) {
-                    log.error("Failed to save job status after stop job, job id = {}", job.getId());
+                checkRunnable(pendingRerun.jobDefinition());
+                if (!isStarted()) {
+                    throw new IllegalStateException("Can not run job because current job engine state is " + getState());
                 }
-            } else {
-                log.error("Can not stop job with id = {} because of it's current state {}", jobId, job.getState());
+                launchJob(pendingRerun.jobDefinition(), pendingRerun.jobId(), 1);
+                pendingReruns.remove(jobDefinitionId, pendingRerun);
             }
+            pendingRerun.started().complete(null);
+        } catch (Exception exception) {
+            log.error("Failed to start pending rerun of job definition id = {}", jobDefinitionId, exception);
+            failPendingRerun(jobDefinitionId, pendingRerun, exception);
         }
     }
 
+    private void failPendingRerun(String jobDefinitionId, PendingRerun pendingRerun, Exception cause) {
+        if (!pendingReruns.remove(jobDefinitionId, pendingRerun)) {
+            return;
+        }
+        try {
+            Job job = getJobConverter().convertJobDefinition(pendingRerun.jobDefinition());
+            job.setId(pendingRerun.jobId());
+            job.getStatus().setExitType(Job.ExitType.FAILED);
+            job.getStatus().setStopTimestamp(System.currentTimeMillis());
+            jobStore.saveJob(job);
+        } catch (Exception exception) {
+            log.error("Failed to save failed pending rerun with job id = {}", pendingRerun.jobId(), exception);
+        }
+        pendingRerun.started().completeExceptionally(cause);
+    }
+
+    private PendingRerun findPendingRerun(String jobId) {
+        for (PendingRerun pendingRerun : pendingReruns.values()) {
+            if (Objects.equals(pendingRerun.jobId(), jobId)) {
+                return pendingRerun;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 任务结束后没有记录的输出立即释放，有记录的输出保留retentionMillis毫秒再释放
+     */
+    private void finishOutput(String jobId) {
+        JobOutput output = jobOutputs.finish(jobId);
+        if (Objects.isNull(output)) {
+            return;
+        }
+        try {
+            timer.schedule(() -> jobOutputs.release(jobId, output), jobOutputs.getRetentionMillis(), TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException exception) {
+            jobOutputs.release(jobId, output);
+        }
+    }
+
+    /**
+     * 任务还在运行时才创建输出，finishJob先设置finished再调用finishOutput，之后不会再创建
+     */
+    private boolean isOutputOpen(String jobId) {
+        JobAndFuture jobAndFuture = runningJobs.get(jobId);
+        return Objects.nonNull(jobAndFuture) && !jobAndFuture.finished.get();
+    }
+
+    /**
+     * 正在运行的任务还没有输出时创建一个空的输出等待它的第一条记录
+     */
+    @Override
+    public JobOutput.Chunk readJobOutput(String jobId, long fromOffset, int maxRecords, long waitMillis) throws InterruptedException {
+        JobOutput output = jobOutputs.getOrCreate(jobId, () -> isOutputOpen(jobId));
+        return Objects.isNull(output) ? null : output.read(fromOffset, maxRecords, waitMillis);
+    }
+
+    private void exportSpans(Job job) {
+        JobSpanExporter exporter = spanExporter;
+        if (Objects.nonNull(exporter)) {
+            try {
+                exporter.export(job);
+            } catch (RuntimeException exception) {
+                log.error("Failed to export spans of job with id = {}", job.getId(), exception);
+            }
+        }
+    }
+
+    private static JobEvent.Type exitEventType(Job.ExitType exitType) {
+        if (exitType == Job.ExitType.FINISHED) {
+            return JobEvent.Type.FINISHED;
+        }
+        return exitType == Job.ExitType.FAILED ? JobEvent.Type.FAILED : JobEvent.Type.STOPPED;
+    }
+
+    /**
+     * 没有监听器时不创建事件对象
+     */
+    protected void publishEvent(JobEvent.Type type, Job job) {
+        if (eventBus.hasListeners()) {
+            eventBus.publish(new JobEvent(type, job));
+        }
+    }
+
+    @Override
+    public void addJobEventListener(JobEventListener listener) {
+        eventBus.addListener(listener);
+    }
+
+    @Override
+    public void removeJobEventListener(JobEventListener listener) {
+        eventBus.removeListener(listener);
+    }
+
+    /**
+     * 取消任务：先通过CancellationToken通知任务自己退出，并立即释放任务占用的位置，
+     * 如果任务在cancelGraceMillis之后仍然没有退出，则中断执行任务的线程
+     */
+    protected void cancelJob(JobAndFuture jobAndFuture, Job.ExitType exitType) {
+        Job job = jobAndFuture.job;
+        if (jobAndFuture.finished.get()) {
+            return;
+        }
+        if (Objects.isNull(job.getStatus().getExitType())) {
+            job.getStatus().setExitType(exitType);
+        }
+        if (job.getCancellationToken().cancel(exitType.name())) {
+            log.info("Cancel job with id = {}, reason is {}", job.getId(), exitType);
+        }
+        Future<?> future = jobAndFuture.future;
+        if (Objects.nonNull(future) && !future.cancel(false) && !future.isDone() && !timer.isShutdown()) {
+            timer.schedule(() -> {
+                if (!future.isDone()) {
+                    log.warn("Job with id = {} does not respond to cancellation, interrupt it.", job.getId());
+                    future.cancel(true);
+                }
+            }, cancelGraceMillis, TimeUnit.MILLISECONDS);
+        }
+        finishJob(jobAndFuture);
+    }
+
+    @Override
+    public void stopJob(String jobId) {
+        if (!isStarted()) {
+            return;
+        }
+        JobAndFuture jobAndFuture = findJob(jobId);
+        if (Objects.isNull(jobAndFuture)) {
+            if (!stopMicroBatchItem(jobId)) {
+                log.warn("Can not stop job: no job with id = {} exists.", jobId);
+            }
+            return;
+        }
+        cancelJob(jobAndFuture, Job.ExitType.MANUAL_STOP);
+    }
+
+    /**
+     * 批中的任务只能在开始执行之前停止
+     */
+    private boolean stopMicroBatchItem(String jobId) {
+        String batchId = MicroBatchJob.batchIdOf(jobId);
+        JobAndFuture jobAndFuture = Objects.isNull(batchId) ? null : findJob(batchId);
+        if (Objects.nonNull(jobAndFuture) && jobAndFuture.job instanceof MicroBatchJob microBatchJob) {
+            if (!microBatchJob.stopItem(MicroBatchJob.itemIndexOf(jobId))) {
+                log.warn("Can not stop job with id = {}, it is already started.", jobId);
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 批中的任务等待整个批结束
+     */
     @Override
     public void waitJob(String jobId) throws Exception {
+        String batchId = MicroBatchJob.batchIdOf(jobId);
+        if (Objects.nonNull(batchId)) {
+            jobId = batchId;
+        }
+        PendingRerun pendingRerun = findPendingRerun(jobId);
+        if (Objects.nonNull(pendingRerun)) {
+            try {
+                pendingRerun.started().get();
+            } catch (ExecutionException exception) {
+                // 启动失败之前已经保存了失败的记录，和已经结束的任务一样返回
+                log.debug("Pending rerun with job id = {} failed to start.", jobId);
+            }
+        }
+        JobAndFuture jobAndFuture = findJob(jobId);
+        if (Objects.nonNull(jobAndFuture)) {
+            jobAndFuture.done.get();
+            return;
+        }
+        Job job = getJob(jobId);
+        if (Objects.isNull(job) || Objects.isNull(job.getStatus().getExitType())) {
+            throw new IllegalStateException("No job with id = " + jobId + " is running now.");
+        }
+    }
+
+    private JobAndFuture findJob(String jobId) {
         JobAndFuture jobAndFuture = runningJobs.get(jobId);
+        return Objects.nonNull(jobAndFuture) ? jobAndFuture : suspendedJobs.get(jobId);
+    }
+
+    /**
+     * 只查询本节点上正在运行或挂起的任务，不读取JobStore，JobStore中的记录可能已经转交给其他节点
+     */
+    protected Job.Status getLiveJobStatus(String jobId) {
+        int index = MicroBatchJob.itemIndexOf(jobId);
+        JobAndFuture jobAndFuture = findJob(index < 0 ? jobId : MicroBatchJob.batchIdOf(jobId));
         if (Objects.isNull(jobAndFuture)) {
-            throw new IllegalStateException("No job with id = " + jobId + " is running now.");
+            return null;
         }
-        if (Objects.nonNull(jobAndFuture.future)) {
-            Thread.sleep(50);
+        return index < 0 ? jobAndFuture.job.getStatus() : MicroBatchJob.itemStatus(jobAndFuture.job, index);
+    }
+
+    /**
+     * 被挂起的任务恢复后会继续执行，因此也算作正在运行
+     */
+    protected boolean existJobRunningWithDefinitionId(String jobDefinitionId) {
+        if (Objects.nonNull(jobDefinitionId)) {
+            return activeJobCounts.containsKey(jobDefinitionId);
         }
-        if (Objects.isNull(jobAndFuture.future)) {
-            Thread.sleep(1000);
+        for (JobAndFuture jobAndFuture : runningJobs.values()) {
+            if (Objects.equals(jobDefinitionId, jobAndFuture.job.jobDefinition().getId())) {
+                return true;
+            }
         }
-        if (Objects.isNull(jobAndFuture.future)) {
-            throw new IllegalStateException("Try later");
+        for (JobAndFuture jobAndFuture : suspendedJobs.values()) {
+            if (Objects.equals(jobDefinitionId, jobAndFuture.job.jobDefinition().getId())) {
+                return true;
+            }
         }
-        jobAndFuture.future.get();
+        return false;
     }
 
-    protected boolean existJobRunningWithDefinitionId(String jobDefinitionId) {
-        return runningJobs.containsKey(jobDefinitionId);
+    /**
+     * 已经提交但是还没有开始执行的任务数量
+     */
+    public int getPendingJobCount() {
+        int count = 0;
+        for (JobAndFuture jobAndFuture : runningJobs.values()) {
+            if (jobAndFuture.isPending()) {
+                ++count;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 释放最多maxCount个还没有开始执行的任务，取消Future成功即说明任务还没有开始执行，因此和执行线程之间不存在竞争。
+     * 取消之后先把任务的记录以TRANSFERRED保存，再调用transfer转移任务的归属，保证接手的节点保存的状态不会被覆盖；
+     * transfer返回true时任务从本节点移除，返回false时恢复记录并在本节点重新执行
+     *
+     * @return 归属已经转移的任务
+     */
+    protected List<Job> releasePendingJobs(int maxCount, Predicate<Job> transfer) {
+        List<Job> released = new ArrayList<>();
+        for (JobAndFuture jobAndFuture : runningJobs.values()) {
+            if (released.size() >= maxCount) {
+                break;
+            }
+            // 微批任务的JobDefinition不包含批中的任务，无法交给其他节点执行
+            if (!jobAndFuture.isPending() || jobAndFuture.job instanceof MicroBatchJob) {
+                continue;
+            }
+            jobAndFuture.released = true;
+            if (!jobAndFuture.future.cancel(false)) {
+                jobAndFuture.released = false;
+                continue;
+            }
+            Job job = jobAndFuture.job;
+            saveTransferred(job, true);
+            boolean transferred;
+            try {
+                transferred = transfer.test(job);
+            } catch (RuntimeException exception) {
+                log.error("Failed to transfer job with id = {}", job.getId(), exception);
+                transferred = false;
+            }
+            if (!transferred) {
+                saveTransferred(job, false);
+                relaunchReleasedJob(jobAndFuture);
+                continue;
+            }
+            runningJobs.remove(job.getId(), jobAndFuture);
+            unindexJob(job.jobDefinition());
+            if (Objects.nonNull(jobAndFuture.timeout)) {
+                jobAndFuture.timeout.cancel(false);
+            }
+            jobOutputs.release(job.getId());
+            releaseAdmission(jobAndFuture);
+            publishEvent(JobEvent.Type.TRANSFERRED, job);
+            jobAndFuture.done.complete(null);
+            exportSpans(job);
+            released.add(job);
+        }
+        return released;
+    }
+
+    /**
+     * 被释放的任务在本节点以TRANSFERRED结束，JobStore中不会留下未结束的记录，恢复时也就不会重新执行；
+     * 归属没有转移成功时恢复为未结束的记录
+     */
+    private void saveTransferred(Job job, boolean transferred) {
+        Job.Status status = job.getStatus();
+        status.setExitType(transferred ? Job.ExitType.TRANSFERRED : null);
+        status.setStopTimestamp(transferred ? System.currentTimeMillis() : 0L);
+        try {
+            jobStore.saveJob(job);
+        } catch (JobStoreException exception) {
+            log.error("Failed to save job status after transferred it, job id = {}", job.getId());
+        }
+    }
+
+    /**
+     * 没有转交出去的任务用新的JobAndFuture重新准入，原来的等待线程看到released后不会再处理它，
+     * 等待原来的JobAndFuture的调用者在任务真正结束时返回
+     */
+    private void relaunchReleasedJob(JobAndFuture released) {
+        Job job = released.job;
+        JobAndFuture relaunched = new JobAndFuture(job);
+        relaunched.done.whenComplete((ignored, throwable) -> released.done.complete(null));
+        if (Objects.nonNull(released.timeout)) {
+            released.timeout.cancel(false);
+        }
+        runningJobs.replace(job.getId(), released, relaunched);
+        releaseAdmission(released);
+        admitJob(relaunched, job::start);
+    }
+
+    /**
+     * 任务第一次保存到JobStore之前调用，集群模式下用于记录执行任务的节点
+     */
+    protected void prepareJob(Job job) {
+        // noop
+    }
+
+    /**
+     * 任务退出后调用，集群模式下用于更新任务的分配信息
+     */
+    protected void onJobExit(Job job) {
+        // noop
     }
 
     @Override
@@ -212,7 +1302,7 @@ public abstract class AbstractJobEngine extends BaseLifecycleService implements
 
     @Override
     public Job getJob(String jobId) {
-        JobAndFuture jobAndFuture = runningJobs.get(jobId);
+        JobAndFuture jobAndFuture = findJob(jobId);
         if (Objects.nonNull(jobAndFuture)) {
             return jobAndFuture.job;
         }
@@ -224,24 +1314,359 @@ public abstract class AbstractJobEngine extends BaseLifecycleService implements
         }
     }
 
+    /**
+     * 批中的任务没有单独的Job实例，状态由所在的批得到
+     */
+    @Override
+    public Job.Status getJobStatus(String jobId) {
+        int index = MicroBatchJob.itemIndexOf(jobId);
+        if (index < 0) {
+            return JobEngine.super.getJobStatus(jobId);
+        }
+        Job batchJob = getJob(MicroBatchJob.batchIdOf(jobId));
+        return Objects.isNull(batchJob) ? null : MicroBatchJob.itemStatus(batchJob, index);
+    }
+
+    @Override
+    protected void doStart() throws Exception {
+        if (timer.isShutdown()) {
+            timer = createTimer();
+        }
+        recoveryPending.set(recoverOnStart);
+    }
+
+    /**
+     * 恢复任务要等到引擎进入STARTED状态之后，否则重新执行的任务让出线程或者失败重试时会被当作引擎正在停止
+     */
+    @Override
+    public void start() {
+        super.start();
+        if (isStarted() && recoveryPending.compareAndSet(true, false)) {
+            try {
+                recoverJobs();
+            } catch (InterruptedException exception) {
+                Thread.currentThread().interrupt();
+                log.warn("Interrupted while recovering unfinished jobs.");
+            }
+        }
+    }
+
+    /**
+     * 多个线程并行遍历JobStore的不同分区，按照JobDefinition的恢复策略处理上次没有结束的任务，
+     * 重新执行的任务只是提交给线程池，因此恢复过程不会等待任务执行
+     */
+    private void recoverJobs() throws InterruptedException {
+        int partitionCount = Math.max(1, recoveryParallelism);
+        ExecutorService recoveryExecutor = Executors.newFixedThreadPool(partitionCount, runnable -> {
+            Thread thread = new Thread(runnable, "job-recovery");
+            thread.setDaemon(true);
+            return thread;
+        });
+        AtomicInteger rerun = new AtomicInteger();
+        AtomicInteger markedFailed = new AtomicInteger();
+        long begin = System.currentTimeMillis();
+        try {
+            List<Future<?>> futures = new ArrayList<>(partitionCount);
+            for (int i = 0; i < partitionCount; ++i) {
+                int partition = i;
+                futures.add(recoveryExecutor.submit(() -> {
+                    jobStore.scanUnfinishedJobs(partition, partitionCount, job -> recoverJob(job, rerun, markedFailed));
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException exception) {
+                    log.error("Failed to recover unfinished jobs from job store.", exception.getCause());
+                }
+            }
+        } finally {
+            recoveryExecutor.shutdownNow();
+        }
+        if (rerun.get() > 0 || markedFailed.get() > 0) {
+            log.info(
+                    "Recovered unfinished jobs in {} ms, {} rerun, {} marked as failed.",
+                    System.currentTimeMillis() - begin, rerun.get(), markedFailed.get()
+            );
+        }
+    }
+
+    private void recoverJob(Job storedJob, AtomicInteger rerun, AtomicInteger markedFailed) {
+        String jobId = storedJob.getId();
+        if (Objects.nonNull(findJob(jobId)) || !shouldRecover(storedJob)) {
+            return;
+        }
+        JobDefinition jobDefinition = storedJob.jobDefinition();
+        RecoveryPolicy policy = Objects.requireNonNullElse(jobDefinition.getRecoveryPolicy(), RecoveryPolicy.MARK_FAILED);
+        if (policy == RecoveryPolicy.IGNORE) {
+            return;
+        }
+        if (policy == RecoveryPolicy.RERUN) {
+            try {
+                // 和doRunJob一样受熔断和最大任务数的限制，被拒绝的任务标记为失败
+                checkRunnable(jobDefinition);
+                synchronized (lock) {
+                    if (!isStarted()) {
+                        // 恢复过程中引擎停止了，留给下次启动时恢复
+                        return;
+                    }
+                    launchJob(jobDefinition, jobId, storedJob.getStatus().getAttempt() + 1);
+                }
+                rerun.incrementAndGet();
+                return;
+            } catch (Exception exception) {
+                log.error("Failed to rerun unfinished job with id = {}, mark it as failed.", jobId, exception);
+            }
+        }
+        Job.Status status = storedJob.getStatus();
+        status.setExitType(Job.ExitType.FAILED);
+        status.setStopTimestamp(System.currentTimeMillis());
+        try {
+            jobStore.saveJob(storedJob);
+            markedFailed.incrementAndGet();
+        } catch (JobStoreException exception) {
+            log.error("Failed to mark unfinished job with id = {} as failed.", jobId, exception);
+        }
+    }
+
+    /**
+     * 是否由本引擎恢复JobStore中的任务，多个引擎共享一个JobStore时由具体实现判断任务是否属于自己
+     */
+    protected boolean shouldRecover(Job storedJob) {
+        return true;
+    }
+
+    /**
+     * 要求所有正在运行的任务挂起，不支持挂起的任务会继续运行直到结束，挂起期间不接受新任务
+     */
+    @Override
+    protected void doSuspend() throws Exception {
+        log.info("JobEngine is going to suspend, suspend all running jobs.");
+        for (String jobId : new HashSet<>(runningJobs.keySet())) {
+            if (suspendJob(jobId)) {
+                suspendedByEngine.add(jobId);
+            }
+        }
+    }
+
+    @Override
+    protected void doResume() throws Exception {
+        log.info("JobEngine is going to resume, resume {} suspended jobs.", suspendedByEngine.size());
+        for (String jobId : new HashSet<>(suspendedByEngine)) {
+            suspendedByEngine.remove(jobId);
+            resumeJob(jobId);
+        }
+    }
+
+    /**
+     * 停止时先把还没有开始执行的任务交出去，在drainTimeoutMillis内等待正在运行的任务结束，这期间结束的任务立即保存；
+     * 然后并行停止剩余的任务，这些任务的最终状态最后一次性保存，保存之后才移出runningJobs
+     */
     @Override
     protected void doStop() throws Exception {
-        log.info("JobEngine is going to stop, stop all running jobs.");
-        for (JobAndFuture jobAndFuture : runningJobs.values()) {
-            jobAndFuture.job.stop();
+        log.info("JobEngine is going to stop, drain timeout is {} ms.", drainTimeoutMillis);
+        for (Map.Entry<String, PendingRerun> entry : new ArrayList<>(pendingReruns.entrySet())) {
+            failPendingRerun(entry.getKey(), entry.getValue(), new IllegalStateException("Job engine stopped."));
+        }
+        try {
+            handOffPendingJobs();
+            if (drainTimeoutMillis > 0L) {
+                awaitRunningJobs(drainTimeoutMillis);
+            }
+            synchronized (lock) {
+                // 状态已经不是STARTED，拿到锁之后不会再有新的任务启动
+                deferredSaves = new ConcurrentLinkedQueue<>();
+            }
+            stopAllJobs();
+        } finally {
+            Queue<JobAndFuture> deferred = deferredSaves;
+            deferredSaves = null;
+            saveFinishedJobs(deferred);
+        }
+        suspendedByEngine.clear();
+        timer.shutdownNow();
+        // 定时器关闭后不会再按时释放，所有任务的输出在引擎停止时释放
+        jobOutputs.releaseAll();
+    }
+
+    /**
+     * 引擎停止时调用，集群模式下把还没有开始执行的任务转交给其他节点
+     */
+    protected void handOffPendingJobs() {
+        // noop
+    }
+
+    private void awaitRunningJobs(long timeoutMillis) throws InterruptedException {
+        long begin = System.nanoTime();
+        long deadline = begin + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        int count = runningJobs.size();
+        for (JobAndFuture jobAndFuture : new ArrayList<>(runningJobs.values())) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0L) {
+                break;
+            }
+            try {
+                jobAndFuture.done.get(remaining, TimeUnit.NANOSECONDS);
+            } catch (TimeoutException exception) {
+                break;
+            } catch (ExecutionException exception) {
+                log.debug("Job with id = {} exit exceptionally while draining.", jobAndFuture.job.getId());
+            }
+        }
+        log.info(
+                "{} of {} running jobs finished in {} ms while draining.",
+                count - runningJobs.size(), count, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin)
+        );
+    }
+
+    /**
+     * 任务较多时分成多组，在临时线程池中并行停止
+     */
+    private void stopAllJobs() throws InterruptedException {
+        List<JobAndFuture> jobs = new ArrayList<>(runningJobs.values());
+        jobs.addAll(suspendedJobs.values());
+        admissionQueue.clear();
+        int parallelism = Math.max(1, Math.min(stopParallelism, jobs.size() / 64));
+        if (parallelism == 1) {
+            stopJobs(jobs);
+            return;
+        }
+        ExecutorService stopExecutor = Executors.newFixedThreadPool(parallelism, runnable -> {
+            Thread thread = new Thread(runnable, "job-stop");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            List<Future<?>> futures = new ArrayList<>(parallelism);
+            int chunkSize = (jobs.size() + parallelism - 1) / parallelism;
+            for (int from = 0; from < jobs.size(); from += chunkSize) {
+                List<JobAndFuture> chunk = jobs.subList(from, Math.min(from + chunkSize, jobs.size()));
+                futures.add(stopExecutor.submit(() -> stopJobs(chunk)));
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException exception) {
+                    log.error("Failed to stop jobs.", exception.getCause());
+                }
+            }
+        } finally {
+            stopExecutor.shutdownNow();
+        }
+    }
+
+    private void stopJobs(List<JobAndFuture> jobs) {
+        for (JobAndFuture jobAndFuture : jobs) {
+            cancelJob(jobAndFuture, Job.ExitType.MANUAL_STOP);
+            if (Objects.nonNull(jobAndFuture.future)) {
+                jobAndFuture.future.cancel(true);
+            }
+        }
+    }
+
+    private void saveFinishedJobs(Queue<JobAndFuture> jobs) {
+        if (Objects.isNull(jobs) || jobs.isEmpty()) {
+            return;
+        }
+        List<Job> batch = new ArrayList<>(jobs.size());
+        for (JobAndFuture jobAndFuture : jobs) {
+            batch.add(jobAndFuture.job);
+        }
+        try {
+            jobStore.saveJobs(batch);
+        } catch (JobStoreException exception) {
+            log.error("Failed to save status of {} jobs while stopping.", batch.size(), exception);
+        }
+        for (JobAndFuture jobAndFuture : jobs) {
+            runningJobs.remove(jobAndFuture.job.getId(), jobAndFuture);
+            suspendedJobs.remove(jobAndFuture.job.getId(), jobAndFuture);
         }
     }
 
+    @Override
+    protected void doShutdown() throws Exception {
+        eventBus.close();
+    }
+
+    /**
+     * 所有任务共享的定时器，用于任务超时等延迟操作，而不是每个任务一个线程
+     */
+    private static ScheduledThreadPoolExecutor createTimer() {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "job-engine-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // 任务正常结束时会取消超时检查，取消的检查立即从队列中移除
+        executor.setRemoveOnCancelPolicy(true);
+        return executor;
+    }
+
+    private record PendingRerun(JobDefinition jobDefinition, String jobId, CompletableFuture<Void> started) {
+
+        PendingRerun(JobDefinition jobDefinition, String jobId) {
+            this(jobDefinition, jobId, new CompletableFuture<>());
+        }
+
+    }
+
     @Getter
     public static class JobAndFuture {
         private final Job job;
 
         @Setter
-        private Future<?> future;
+        private volatile Future<?> future;
+
+        private volatile ScheduledFuture<?> timeout;
+
+        private final AtomicBoolean finished = new AtomicBoolean(false);
+
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        /**
+         * 通过了限流检查，占用了并发数
+         */
+        private final AtomicBoolean admitted = new AtomicBoolean(false);
+
+        /**
+         * 准入时占用的限流器，结束时归还给它们
+         */
+        private final Permit permit = new Permit();
+
+        /**
+         * 准入的时间，用于计算自适应并发上限的排队时间样本
+         */
+        private volatile long admittedNanos;
+
+        /**
+         * 本次准入后在线程池中的排队时间，还没有开始执行时为-1
+         */
+        private volatile long queueDelayNanos = -1L;
+
+        /**
+         * 在等待队列中时，准入后要执行的动作
+         */
+        private volatile Runnable pendingAction;
+
+        /**
+         * 在等待队列中的是让出线程后的继续执行
+         */
+        private volatile boolean pendingContinuation;
+
+        /**
+         * 任务还没有开始执行就被释放，交给其他节点执行了
+         */
+        private volatile boolean released;
 
         public JobAndFuture(Job job) {
             this.job = job;
         }
+
+        public boolean isPending() {
+            Future<?> current = future;
+            return Objects.nonNull(current) && !current.isDone() && job.getState().isInitialized();
+        }
     }
 
 }
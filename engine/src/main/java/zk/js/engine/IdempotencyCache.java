@@ -0,0 +1,313 @@
+/*
+ * Copyright 2023 zoukang, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package zk.js.engine;
+
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import zk.js.engine.common.Hashing;
+
+/**
+ * 幂等键到任务id的缓存，用于识别客户端重复提交的任务。
+ * 只保存幂等键的64位哈希值，键本身再长也不占用额外内存；
+ * 按哈希值分段加锁，每段是一个线性探测的开放寻址表，哈希值、过期时间和任务id分别保存在数组中，
+ * 不需要为每个键创建Map.Entry和包装对象，插入顺序由一个环形队列记录，按插入顺序淘汰，同时受ttl和总条目数限制。
+ * <p>
+ * 每个引擎一个实例，只在本节点内去重；分片集群引擎把幂等键交给它在哈希环上的所属节点记录，因此在整个集群内有效
+ */
+@Slf4j
+public class IdempotencyCache {
+
+    private static final int SEGMENT_COUNT = 64;
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * 每淘汰这么多条还没有过期的记录打印一次日志
+     */
+    private static final long EVICTION_LOG_INTERVAL = 10000L;
+
+    private final Segment[] segments = new Segment[SEGMENT_COUNT];
+
+    /**
+     * 因为条目数达到上限而在过期之前被淘汰的记录数，大于0说明maxEntries相对于提交速率和ttl偏小，
+     * 被淘汰的幂等键再次提交时不会被识别为重复
+     */
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    @Getter
+    private final long ttlMillis;
+
+    @Getter
+    private final int maxEntries;
+
+    public IdempotencyCache() {
+        this(10 * 60 * 1000L, 1_000_000);
+    }
+
+    public IdempotencyCache(long ttlMillis, int maxEntries) {
+        if (ttlMillis <= 0L || maxEntries <= 0) {
+            throw new IllegalArgumentException("ttlMillis and maxEntries must be positive.");
+        }
+        this.ttlMillis = ttlMillis;
+        this.maxEntries = maxEntries;
+        int segmentCapacity = Math.max(1, maxEntries / SEGMENT_COUNT);
+        for (int i = 0; i < SEGMENT_COUNT; ++i) {
+            segments[i] = new Segment(segmentCapacity);
+        }
+    }
+
+    /**
+     * 幂等键没有对应的任务时记录jobId并返回null，否则返回已有的任务id
+     */
+    public String putIfAbsent(String idempotencyKey, String jobId) {
+        Objects.requireNonNull(jobId);
+        long hash = Hashing.hash64(idempotencyKey);
+        return segmentOf(hash).putIfAbsent(hash, jobId, System.currentTimeMillis());
+    }
+
+    public String get(String idempotencyKey) {
+        long hash = Hashing.hash64(idempotencyKey);
+        return segmentOf(hash).get(hash, System.currentTimeMillis());
+    }
+
+    /**
+     * 任务提交失败时删除记录，以便客户端可以重新提交
+     */
+    public void remove(String idempotencyKey, String jobId) {
+        long hash = Hashing.hash64(idempotencyKey);
+        segmentOf(hash).remove(hash, jobId);
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    private Segment segmentOf(long hash) {
+        return segments[(int) (hash >>> 58)];
+    }
+
+    private void recordEviction() {
+        long count = evictionCount.incrementAndGet();
+        if (count % EVICTION_LOG_INTERVAL == 1L) {
+            log.warn(
+                    "Idempotency cache is full, {} entries have been evicted before expiring, consider increasing maxEntries = {}",
+                    count, maxEntries
+            );
+        }
+    }
+
+    private final class Segment {
+
+        private final int capacity;
+
+        /**
+         * 开放寻址表，jobIds[slot]为null表示空槽
+         */
+        private long[] hashes;
+
+        private long[] expireAts;
+
+        private String[] jobIds;
+
+        private int size;
+
+        /**
+         * 按插入顺序记录的哈希值和过期时间，被删除的记录留在队列中，出队时根据过期时间判断是否还是同一条记录
+         */
+        private long[] orderHashes;
+
+        private long[] orderExpireAts;
+
+        private int orderHead;
+
+        private int orderSize;
+
+        Segment(int capacity) {
+            this.capacity = capacity;
+            allocate(INITIAL_CAPACITY);
+            orderHashes = new long[INITIAL_CAPACITY];
+            orderExpireAts = new long[INITIAL_CAPACITY];
+        }
+
+        synchronized String putIfAbsent(long hash, String jobId, long now) {
+            evictExpired(now);
+            int slot = find(hash);
+            if (slot >= 0) {
+                return jobIds[slot];
+            }
+            while (size >= capacity) {
+                evictOldest();
+            }
+            // 负载因子不超过0.5，线性探测的平均探测长度很短
+            if ((size + 1) * 2 > jobIds.length) {
+                resize(jobIds.length * 2);
+            }
+            long expireAt = now + ttlMillis;
+            insert(hash, expireAt, jobId);
+            enqueue(hash, expireAt);
+            return null;
+        }
+
+        synchronized String get(long hash, long now) {
+            int slot = find(hash);
+            return slot >= 0 && expireAts[slot] > now ? jobIds[slot] : null;
+        }
+
+        synchronized void remove(long hash, String jobId) {
+            int slot = find(hash);
+            if (slot >= 0 && Objects.equals(jobIds[slot], jobId)) {
+                removeAt(slot);
+            }
+        }
+
+        synchronized int size() {
+            return size;
+        }
+
+        /**
+         * 所有条目的ttl相同，插入顺序就是过期顺序，只需要从队列头部开始删除
+         */
+        private void evictExpired(long now) {
+            while (orderSize > 0 && orderExpireAts[orderHead] <= now) {
+                removeIfSame(orderHashes[orderHead], orderExpireAts[orderHead]);
+                dequeue();
+            }
+        }
+
+        private void evictOldest() {
+            while (orderSize > 0) {
+                boolean removed = removeIfSame(orderHashes[orderHead], orderExpireAts[orderHead]);
+                dequeue();
+                if (removed) {
+                    recordEviction();
+                    return;
+                }
+            }
+        }
+
+        private boolean removeIfSame(long hash, long expireAt) {
+            int slot = find(hash);
+            if (slot >= 0 && expireAts[slot] == expireAt) {
+                removeAt(slot);
+                return true;
+            }
+            return false;
+        }
+
+        private int find(long hash) {
+            int mask = jobIds.length - 1;
+            int slot = (int) hash & mask;
+            while (Objects.nonNull(jobIds[slot])) {
+                if (hashes[slot] == hash) {
+                    return slot;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return -1;
+        }
+
+        private void insert(long hash, long expireAt, String jobId) {
+            int mask = jobIds.length - 1;
+            int slot = (int) hash & mask;
+            while (Objects.nonNull(jobIds[slot])) {
+                slot = (slot + 1) & mask;
+            }
+            hashes[slot] = hash;
+            expireAts[slot] = expireAt;
+            jobIds[slot] = jobId;
+            ++size;
+        }
+
+        /**
+         * 删除后把同一探测序列上后面的条目向前移动，不需要墓碑标记
+         */
+        private void removeAt(int slot) {
+            int mask = jobIds.length - 1;
+            int hole = slot;
+            int next = (hole + 1) & mask;
+            while (Objects.nonNull(jobIds[next])) {
+                int home = (int) hashes[next] & mask;
+                // hole在[home, next)之间时，next上的条目可以移到hole
+                if (((next - home) & mask) >= ((next - hole) & mask)) {
+                    hashes[hole] = hashes[next];
+                    expireAts[hole] = expireAts[next];
+                    jobIds[hole] = jobIds[next];
+                    hole = next;
+                }
+                next = (next + 1) & mask;
+            }
+            jobIds[hole] = null;
+            --size;
+        }
+
+        private void allocate(int tableSize) {
+            hashes = new long[tableSize];
+            expireAts = new long[tableSize];
+            jobIds = new String[tableSize];
+            size = 0;
+        }
+
+        private void resize(int tableSize) {
+            long[] oldHashes = hashes;
+            long[] oldExpireAts = expireAts;
+            String[] oldJobIds = jobIds;
+            allocate(tableSize);
+            for (int i = 0; i < oldJobIds.length; ++i) {
+                if (Objects.nonNull(oldJobIds[i])) {
+                    insert(oldHashes[i], oldExpireAts[i], oldJobIds[i]);
+                }
+            }
+        }
+
+        private void enqueue(long hash, long expireAt) {
+            if (orderSize == orderHashes.length) {
+                long[] newHashes = new long[orderSize * 2];
+                long[] newExpireAts = new long[orderSize * 2];
+                for (int i = 0; i < orderSize; ++i) {
+                    int index = (orderHead + i) % orderSize;
+                    newHashes[i] = orderHashes[index];
+                    newExpireAts[i] = orderExpireAts[index];
+                }
+                orderHashes = newHashes;
+                orderExpireAts = newExpireAts;
+                orderHead = 0;
+            }
+            int tail = (orderHead + orderSize) % orderHashes.length;
+            orderHashes[tail] = hash;
+            orderExpireAts[tail] = expireAt;
+            ++orderSize;
+        }
+
+        private void dequeue() {
+            orderHead = (orderHead + 1) % orderHashes.length;
+            --orderSize;
+        }
+
+    }
+
+}
@@ -15,10 +15,17 @@
  */
 package zk.js.engine;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+
 import zk.js.engine.common.LifecycleService;
+import zk.js.engine.event.JobEventListener;
 import zk.js.engine.job.Job;
 import zk.js.engine.job.JobConverter;
 import zk.js.engine.job.JobDefinition;
+import zk.js.engine.output.JobOutput;
 
 public interface JobEngine extends LifecycleService {
 
@@ -36,6 +43,41 @@ public interface JobEngine extends LifecycleService {
         return runJob(jobDefinition, false);
     }
 
+    /**
+     * 批量启动多个Job，返回的任务id和给定的JobDefinition顺序一一对应，不会包含null。
+     * 默认逐个启动，某个任务启动失败时抛出异常，之前的任务已经启动；
+     * 集群模式下非单例任务一次性分配并按节点合并发送，有任务不能分配时抛出异常并且不启动任何任务，
+     * 单例任务和runJob一样逐个启动，被拒绝时抛出异常
+     *
+     * @throws Exception 任务不能分配或者启动失败异常
+     */
+    default List<String> runJobs(Collection<JobDefinition> jobDefinitions, boolean singleton) throws Exception {
+        List<String> jobIds = new ArrayList<>(jobDefinitions.size());
+        for (JobDefinition jobDefinition : jobDefinitions) {
+            jobIds.add(runJob(jobDefinition, singleton));
+        }
+        return jobIds;
+    }
+
+    /**
+     * 合并模式启动任务：相同id的JobDefinition已经有任务在运行时不会抛出异常，而是记录一个待执行的任务，
+     * 在当前任务结束后启动，期间的多次提交都合并到这一个待执行的任务中
+     *
+     * @return 新启动的任务id，或者待执行的任务id，可以用来等待任务结束
+     */
+    String runJobCoalesced(JobDefinition jobDefinition) throws Exception;
+
+    default List<String> runJobs(Collection<JobDefinition> jobDefinitions) throws Exception {
+        return runJobs(jobDefinitions, false);
+    }
+
+    /**
+     * 以微批的方式启动大量很小的任务：同类型的任务合并成一个执行单元，在同一个线程上依次执行，
+     * 返回的任务id和给定的JobDefinition顺序一一对应，可以用于waitJob、stopJob和getJobStatus，
+     * 但是getJob不会返回批中的单个任务
+     */
+    List<String> runMicroBatch(Collection<JobDefinition> jobDefinitions) throws Exception;
+
     /**
      * 同步等待任务执行完成
      */
@@ -43,8 +85,48 @@ public interface JobEngine extends LifecycleService {
 
     void stopJob(String jobId);
 
+    /**
+     * 要求任务挂起，支持挂起的任务会保存checkpoint后释放运行位置，还没有开始执行的任务会被直接挂起
+     *
+     * @return 是否存在可以挂起的任务
+     */
+    boolean suspendJob(String jobId);
+
+    /**
+     * 恢复被挂起的任务，任务会从最后保存的checkpoint继续执行
+     *
+     * @return 是否存在可以恢复的任务
+     */
+    boolean resumeJob(String jobId);
+
     JobConverter getJobConverter();
 
+    /**
+     * 读取任务的输出，从fromOffset开始最多读取maxRecords条，没有新的输出并且任务还没有结束时最多等待waitMillis毫秒，
+     * 客户端以返回的nextOffset作为下次的起始位置反复读取即可实时跟踪任务的输出
+     *
+     * @return 任务不存在、任务结束时没有任何输出或者输出已经过期时返回null
+     */
+    JobOutput.Chunk readJobOutput(String jobId, long fromOffset, int maxRecords, long waitMillis) throws InterruptedException;
+
+    /**
+     * 添加任务事件监听器，事件在监听器自己的线程中异步投递，监听器处理不过来时新的事件会被丢弃
+     */
+    void addJobEventListener(JobEventListener listener);
+
+    void removeJobEventListener(JobEventListener listener);
+
+    /**
+     * 获取本节点上的任务，包括正在运行的和JobStore中保存的历史任务
+     */
     Job getJob(String jobId);
 
+    /**
+     * 获取任务状态，集群模式下任务可能在其他节点上运行，会向其他节点查询
+     */
+    default Job.Status getJobStatus(String jobId) {
+        Job job = getJob(jobId);
+        return Objects.isNull(job) ? null : job.getStatus();
+    }
+
 }
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2023 zoukang, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package zk.js.engine;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * 按任务类型熔断：一个统计窗口内某类任务的失败率超过阈值时，在openMillis时间内拒绝启动该类任务，
+ * 失败重试也会推迟到熔断结束之后，避免下游服务异常时不停地重试
+ */
+@Slf4j
+public class JobTypeCircuitBreaker {
+
+    /**
+     * 默认不启用
+     */
+    @Getter
+    @Setter
+    private boolean enabled;
+
+    @Getter
+    @Setter
+    private double failureRateThreshold = 0.5;
+
+    /**
+     * 统计窗口内至少执行这么多次才会计算失败率
+     */
+    @Getter
+    @Setter
+    private int minimumCalls = 20;
+
+    @Getter
+    @Setter
+    private long windowMillis = 10000L;
+
+    @Getter
+    @Setter
+    private long openMillis = 30000L;
+
+    private final Map<String, Circuit> circuits = new ConcurrentHashMap<>(4);
+
+    /**
+     * 返回熔断还要持续的毫秒数，返回0表示没有熔断
+     */
+    public long remainingOpenMillis(String jobType) {
+        if (!enabled) {
+            return 0L;
+        }
+        Circuit circuit = circuits.get(jobType);
+        if (Objects.isNull(circuit)) {
+            return 0L;
+        }
+        return circuit.remainingOpenMillis(System.currentTimeMillis());
+    }
+
+    public void recordSuccess(String jobType) {
+        if (enabled) {
+            circuits.computeIfAbsent(jobType, key -> new Circuit()).record(false, System.currentTimeMillis(), jobType);
+        }
+    }
+
+    public void recordFailure(String jobType) {
+        if (enabled) {
+            circuits.computeIfAbsent(jobType, key -> new Circuit()).record(true, System.currentTimeMillis(), jobType);
+        }
+    }
+
+    private class Circuit {
+
+        private long windowStart;
+
+        private int calls;
+
+        private int failures;
+
+        private long openUntil;
+
+        synchronized long remainingOpenMillis(long now) {
+            return Math.max(0L, openUntil - now);
+        }
+
+        synchronized void record(boolean failed, long now, String jobType) {
+            if (now < openUntil) {
+                return;
+            }
+            if (now - windowStart >= windowMillis) {
+                windowStart = now;
+                calls = 0;
+                failures = 0;
+            }
+            ++calls;
+            if (failed) {
+                ++failures;
+            }
+            if (calls >= minimumCalls && failures >= failureRateThreshold * calls) {
+                log.warn("Circuit of job type {} is open for {} ms, {} of last {} jobs failed.", jobType, openMillis, failures, calls);
+                openUntil = now + openMillis;
+                calls = 0;
+                failures = 0;
+                windowStart = openUntil;
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2023 zoukang, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package zk.js.engine;
+
+import java.security.SecureRandom;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 默认的任务id生成器，类似ULID：高位是毫秒时间戳，低位是同一毫秒内的序号，最后是每个生成器实例随机的区分码，
+ * 以固定长度的Crockford Base32编码，因此id的字典序就是生成的先后顺序，JobStore可以直接按id建立有序索引
+ * <p>
+ * 同一个生成器生成的id严格递增，时钟回拨或者同一毫秒内序号用完时借用后面的时间戳；
+ * 单机模式下区分码随机生成，集群模式下通过forNode用节点id代替区分码，只要节点id不同，所有节点生成的id就不会重复。
+ * 生成id只需要一次CAS和一个定长字符数组，不会像UUID.randomUUID那样每次都访问SecureRandom
+ */
+public class TimeOrderedJobIdGenerator implements JobIdGenerator {
+
+    /**
+     * 不在编码字符表中，用来分隔时间戳和节点id
+     */
+    public static final char NODE_SEPARATOR = '-';
+
+    private static final char[] ALPHABET = "0123456789ABCDEFGHJKMNPQRSTVWXYZ".toCharArray();
+
+    /**
+     * 同一毫秒内序号占用的位数，每毫秒最多生成约100万个id
+     */
+    private static final int SEQUENCE_BITS = 20;
+
+    /**
+     * 时间戳和序号组成的64位整数编码为13个字符，区分码40位编码为8个字符
+     */
+    private static final int TIME_CHARS = 13;
+
+    private static final int NODE_CHARS = 8;
+
+    private final String prefix;
+
+    /**
+     * 区分码或者节点id，放在时间戳后面，不影响id的排序
+     */
+    private final char[] suffix;
+
+    private final AtomicLong last = new AtomicLong();
+
+    public TimeOrderedJobIdGenerator() {
+        this("");
+    }
+
+    /**
+     * @param prefix 添加在每个id前面，例如节点id，为了保证id的有序，同一个JobStore中的所有生成器应使用相同长度的前缀
+     */
+    public TimeOrderedJobIdGenerator(String prefix) {
+        this(prefix, new SecureRandom().nextLong());
+    }
+
+    TimeOrderedJobIdGenerator(String prefix, long discriminator) {
+        this.prefix = prefix;
+        this.suffix = new char[NODE_CHARS];
+        encode(discriminator, suffix, 0, NODE_CHARS);
+    }
+
+    private TimeOrderedJobIdGenerator(String prefix, char[] suffix) {
+        this.prefix = prefix;
+        this.suffix = suffix;
+    }
+
+    /**
+     * 集群节点使用的生成器，id以NODE_SEPARATOR和节点id结尾，集群内节点id唯一，因此生成的id也一定唯一，
+     * 节点重启后时间戳继续增长，不会和重启前的id重复
+     */
+    public static TimeOrderedJobIdGenerator forNode(String nodeId) {
+        if (Objects.isNull(nodeId) || nodeId.isEmpty()) {
+            throw new IllegalArgumentException("Node id can not be empty");
+        }
+        return new TimeOrderedJobIdGenerator("", (NODE_SEPARATOR + nodeId).toCharArray());
+    }
+
+    @Override
+    public String nextId() {
+        long now = System.currentTimeMillis() << SEQUENCE_BITS;
+        long previous;
+        long next;
+        do {
+            previous = last.get();
+            next = Math.max(previous + 1, now);
+        } while (!last.compareAndSet(previous, next));
+
+        char[] chars = new char[prefix.length() + TIME_CHARS + suffix.length];
+        prefix.getChars(0, prefix.length(), chars, 0);
+        encode(next, chars, prefix.length(), TIME_CHARS);
+        System.arraycopy(suffix, 0, chars, prefix.length() + TIME_CHARS, suffix.length);
+        return new String(chars);
+    }
+
+    /**
+     * 把value的低5 * length位按大端顺序编码到chars中
+     */
+    private static void encode(long value, char[] chars, int offset, int length) {
+        for (int i = offset + length - 1; i >= offset; --i) {
+            chars[i] = ALPHABET[(int) (value & 31L)];
+            value >>>= 5;
+        }
+    }
+
+}
@@ -15,49 +15,460 @@
  */
 package zk.js.engine.cluster;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
 
 import zk.js.engine.AbstractJobEngine;
+import zk.js.engine.TimeOrderedJobIdGenerator;
+import zk.js.engine.job.Job;
 import zk.js.engine.job.JobConverter;
 import zk.js.engine.job.JobDefinition;
 import zk.js.engine.job.JobStore;
+import zk.js.engine.job.MicroBatchJob;
+import zk.js.engine.trace.TraceContext;
 
+@Slf4j
 public abstract class AbstractClusterJobEngine<N extends Node<?>> extends AbstractJobEngine implements ClusterJobManager<N> {
 
+    /**
+     * 在extraInfo中记录实际执行任务的节点，共享JobStore时每个节点只恢复自己执行的任务
+     */
+    public static final String EXECUTOR_NODE_ID = "executorNodeId";
+
+    @Getter
     private final N node;
 
+    @Getter
+    private final JobFailover<N> jobFailover;
+
+    @Getter
+    private final JobStealer<N> jobStealer;
+
+    /**
+     * 向其他节点查询任务状态的最长等待时间
+     */
+    @Getter
+    @Setter
+    private long clusterQueryTimeoutMillis = 3000L;
+
+    /**
+     * 当前集群的所有存活节点，第一个节点作为协调者负责处理节点失效后的任务转移
+     */
+    @Getter
+    private volatile List<N> members = List.of();
+
     protected AbstractClusterJobEngine(JobConverter jobConverter, ExecutorService executorService, JobStore jobStore, N node) {
         super(jobConverter, executorService, jobStore);
+        if (node.getId().contains(MicroBatchJob.ITEM_SEPARATOR)) {
+            throw new IllegalArgumentException("Node id can not contain '" + MicroBatchJob.ITEM_SEPARATOR + "', node id = " + node.getId());
+        }
         this.node = node;
+        // 用节点id区分各节点生成的任务id，不依赖随机数
+        this.jobIdGenerator = TimeOrderedJobIdGenerator.forNode(node.getId());
+        this.jobFailover = new JobFailover<>(this);
+        this.jobStealer = new JobStealer<>(this);
     }
 
+    /**
+     * 分配给其他节点的任务通过JobRef的traceParent携带当前线程的trace，分配给自己的任务直接在当前线程上启动
+     */
     @Override
     public String runJob(JobDefinition jobDefinition, boolean singleton) throws Exception {
         NodeAndJobId<N> nodeAndJobId = assign(jobDefinition, singleton);
         if (Objects.isNull(nodeAndJobId)) {
             throw new Exception("Assign job definition failed.");
         }
-        if (!isMe(nodeAndJobId.getNode())) {
-            // 不是分配给自己，直接返回事先分配的jobId,对应的Job应该在其他节点上启动了
+        if (nodeAndJobId.isDuplicate() || !isMe(nodeAndJobId.getNode())) {
+            // 重复提交或者不是分配给自己，直接返回事先分配的jobId,对应的Job应该在其他节点上启动了
             return nodeAndJobId.getJobId();
-        } else {
+        }
+        try {
             return doRunJob(jobDefinition, nodeAndJobId.getJobId());
+        } catch (Exception exception) {
+            unregisterIdempotencyKey(jobDefinition, nodeAndJobId.getJobId());
+            throw exception;
         }
     }
 
+    /**
+     * 一次性分配所有任务，然后按目标节点分组，每个节点只发送一次消息；
+     * 有任何一个JobDefinition不能分配时撤销所有分配并抛出异常，不会启动任何任务。
+     * 单例任务需要等待目标节点的单例检查结果，和runJob一样逐个启动，被拒绝时抛出异常
+     */
+    @Override
+    public List<String> runJobs(Collection<JobDefinition> jobDefinitions, boolean singleton) throws Exception {
+        List<JobDefinition> definitions = List.copyOf(jobDefinitions);
+        List<String> jobIds = new ArrayList<>(definitions.size());
+        if (singleton) {
+            for (JobDefinition jobDefinition : definitions) {
+                jobIds.add(runJob(jobDefinition, true));
+            }
+            return jobIds;
+        }
+        List<NodeAndJobId<N>> assignments = assignAll(definitions, false);
+        if (Objects.isNull(assignments) || assignments.size() != definitions.size()) {
+            throw new Exception("Assign job definitions failed.");
+        }
+        int unassigned = Collections.frequency(assignments, null);
+        if (unassigned > 0) {
+            cancelAssignments(definitions, assignments);
+            throw new Exception("Assign job definitions failed, " + unassigned + " of them are not assigned.");
+        }
+        Map<String, List<JobRef>> groups = new LinkedHashMap<>();
+        Map<String, N> targetNodes = new LinkedHashMap<>();
+        for (int i = 0; i < definitions.size(); ++i) {
+            NodeAndJobId<N> nodeAndJobId = assignments.get(i);
+            if (nodeAndJobId.isDuplicate()) {
+                jobIds.add(nodeAndJobId.getJobId());
+                continue;
+            }
+            N target = nodeAndJobId.getNode();
+            JobRef jobRef = new JobRef();
+            jobRef.setJobId(nodeAndJobId.getJobId());
+            jobRef.setJobDefinition(definitions.get(i));
+            jobRef.setNodeId(target.getId());
+            groups.computeIfAbsent(target.getId(), key -> new ArrayList<>()).add(jobRef);
+            targetNodes.putIfAbsent(target.getId(), target);
+            jobIds.add(nodeAndJobId.getJobId());
+        }
+        for (Map.Entry<String, List<JobRef>> entry : groups.entrySet()) {
+            N target = targetNodes.get(entry.getKey());
+            if (isMe(target)) {
+                runAssignedJobs(entry.getValue());
+            } else {
+                runJobsOnNode(entry.getValue(), target);
+            }
+        }
+        return jobIds;
+    }
+
+    private void cancelAssignments(List<JobDefinition> definitions, List<NodeAndJobId<N>> assignments) {
+        for (int i = 0; i < definitions.size(); ++i) {
+            NodeAndJobId<N> nodeAndJobId = assignments.get(i);
+            if (Objects.isNull(nodeAndJobId)) {
+                log.warn("Job definition with id = {} is not assigned to any node.", definitions.get(i).getId());
+            } else if (!nodeAndJobId.isDuplicate()) {
+                jobFinished(nodeAndJobId.getJobId(), nodeAndJobId.getNode(), false);
+                unregisterIdempotencyKey(definitions.get(i), nodeAndJobId.getJobId());
+            }
+        }
+    }
+
+    /**
+     * 执行其他节点分配给自己的任务，执行失败则要求重新分配给其他节点
+     */
+    public void runAssignedJob(JobRef jobRef) {
+        if (jobRef.isSingleton() && existJobRunningWithDefinitionId(jobRef.getJobDefinition().getId())) {
+            log.warn(
+                    "Assigned job with id = {} is dropped, a job with same job definition id = {} is already running.",
+                    jobRef.getJobId(), jobRef.getJobDefinition().getId()
+            );
+            jobFinished(jobRef.getJobId(), node, false);
+            return;
+        }
+        try (TraceContext.Scope ignored = TraceContext.attach(jobRef.getTraceParent())) {
+            doRunJob(jobRef.getJobDefinition(), jobRef.getJobId());
+        } catch (Exception exception) {
+            log.error("Failed to run assigned job with id = {}, ask for re-assign.", jobRef.getJobId(), exception);
+            jobFinished(jobRef.getJobId(), node, true);
+        }
+    }
+
+    public void runAssignedJobs(List<JobRef> jobRefs) {
+        for (JobRef jobRef : jobRefs) {
+            runAssignedJob(jobRef);
+        }
+    }
+
+    /**
+     * 把本节点最多maxCount个还没有开始执行的任务转交给thief节点，最多转交一半等待中的任务，
+     * 先转移分配信息再从本节点释放，转移失败的任务继续在本节点执行
+     */
+    public List<JobRef> releaseJobsTo(N thief, int maxCount) {
+        int count = Math.min(maxCount, getPendingJobCount() / 2);
+        if (count <= 0) {
+            return List.of();
+        }
+        List<JobRef> jobRefs = new ArrayList<>(count);
+        releasePendingJobs(count, job -> {
+            if (!reAssign(job.getId(), node, thief)) {
+                log.warn("Failed to transfer job with id = {} to node {}, run it locally.", job.getId(), thief.getId());
+                return false;
+            }
+            jobRefs.add(transferredJobRef(job, thief));
+            return true;
+        });
+        if (!jobRefs.isEmpty()) {
+            log.info("Released {} pending jobs to node {}", jobRefs.size(), thief.getId());
+        }
+        return jobRefs;
+    }
+
+    /**
+     * 转交给target的任务，在target上的执行作为本节点上已经结束的span的子span
+     */
+    protected JobRef transferredJobRef(Job job, N target) {
+        JobRef jobRef = new JobRef();
+        jobRef.setJobId(job.getId());
+        jobRef.setJobDefinition(job.jobDefinition());
+        jobRef.setNodeId(target.getId());
+        jobRef.setTraceParent(job.getStatus().getTimeline().traceParent());
+        return jobRef;
+    }
+
+    /**
+     * 微批任务总是在提交的节点上执行；确定不了执行节点时（执行节点已经离开或者分配信息已经清除），
+     * 在本节点停止并通知所有其他节点停止
+     */
     @Override
     public void stopJob(String jobId) {
+        if (Objects.nonNull(MicroBatchJob.batchIdOf(jobId))) {
+            super.stopJob(jobId);
+            return;
+        }
         N assigner = getAssigner(jobId);
-        if (isMe(assigner)) {
+        if (Objects.isNull(assigner)) {
+            log.info("Can not determine the node of job with id = {}, broadcast the stop request.", jobId);
             super.stopJob(jobId);
-            jobFinished(jobId, assigner, false);
+            for (N member : otherMembers()) {
+                stopJobOnNode(jobId, member);
+            }
+        } else if (isMe(assigner)) {
+            stopLocalJob(jobId);
         } else {
             stopJobOnNode(jobId, assigner);
         }
     }
 
-    private boolean isMe(N targetNode) {
+    /**
+     * 只停止本节点上的任务，用于响应其他节点的停止请求，不会再转发给其他节点，
+     * 否则确定不了执行节点时广播的停止请求会在节点之间来回转发
+     */
+    public void stopLocalJob(String jobId) {
+        super.stopJob(jobId);
+        N assigner = getAssigner(jobId);
+        if (Objects.nonNull(assigner) && isMe(assigner)) {
+            jobFinished(jobId, assigner, false);
+        }
+    }
+
+    /**
+     * 只查询本节点上的任务状态，用于响应其他节点的查询
+     */
+    public Job.Status getLocalJobStatus(String jobId) {
+        return super.getJobStatus(jobId);
+    }
+
+    /**
+     * 本节点上没有正在运行的此任务时，如果能确定执行节点则只向该节点查询，否则并行向所有其他节点查询，
+     * 在clusterQueryTimeoutMillis内返回的结果中选择最新的状态，都没有结果时才使用本节点JobStore中的记录，
+     * 因为任务可能已经被其他节点窃取或在失效转移中重新分配，本节点的记录不一定是最新的。
+     * <p>
+     * getJob不会向其他节点查询，Job实例只在执行它的节点上存在，其他节点只能通过共享的JobStore读取
+     */
+    @Override
+    public Job.Status getJobStatus(String jobId) {
+        Job.Status status = getLiveJobStatus(jobId);
+        if (Objects.nonNull(status)) {
+            return status;
+        }
+        status = queryJobStatusOnCluster(jobId);
+        return Objects.nonNull(status) ? status : getLocalJobStatus(jobId);
+    }
+
+    private Job.Status queryJobStatusOnCluster(String jobId) {
+        Job.Status status = null;
+        N assigner = getAssigner(jobId);
+        List<N> targets = new ArrayList<>();
+        if (Objects.nonNull(assigner) && !isMe(assigner)) {
+            targets.add(assigner);
+        } else {
+            targets.addAll(otherMembers());
+        }
+        if (targets.isEmpty()) {
+            return null;
+        }
+
+        List<CompletableFuture<Job.Status>> futures = new ArrayList<>(targets.size());
+        for (N target : targets) {
+            futures.add(queryJobStatusOnNode(jobId, target));
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(clusterQueryTimeoutMillis);
+        for (int i = 0; i < futures.size(); ++i) {
+            long remaining = deadline - System.nanoTime();
+            try {
+                status = latest(status, futures.get(i).get(Math.max(0L, remaining), TimeUnit.NANOSECONDS));
+            } catch (TimeoutException exception) {
+                log.warn("Query status of job with id = {} on node {} timeout.", jobId, targets.get(i).getId());
+            } catch (ExecutionException exception) {
+                log.warn("Failed to query status of job with id = {} on node {}", jobId, targets.get(i).getId(), exception);
+            } catch (InterruptedException exception) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        for (CompletableFuture<Job.Status> future : futures) {
+            future.cancel(false);
+        }
+        return status;
+    }
+
+    /**
+     * 多个节点都返回了状态时，已经结束的优先，其次是正在运行的，转交给其他节点的记录最后，相同时选择最后启动的
+     */
+    private static Job.Status latest(Job.Status current, Job.Status candidate) {
+        if (Objects.isNull(current)) {
+            return candidate;
+        }
+        if (Objects.isNull(candidate)) {
+            return current;
+        }
+        if (rank(current) != rank(candidate)) {
+            return rank(candidate) > rank(current) ? candidate : current;
+        }
+        if (candidate.getStopTimestamp() != current.getStopTimestamp()) {
+            return candidate.getStopTimestamp() > current.getStopTimestamp() ? candidate : current;
+        }
+        return candidate.getStartTimestamp() > current.getStartTimestamp() ? candidate : current;
+    }
+
+    private static int rank(Job.Status status) {
+        if (Objects.isNull(status.getExitType())) {
+            return 1;
+        }
+        return status.getExitType() == Job.ExitType.TRANSFERRED ? 0 : 2;
+    }
+
+    /**
+     * 集群节点发生变化时由具体实现调用，离开集群的节点视为已经失效，
+     * 如果当前节点是协调者，则负责把失效节点上的任务转移给存活的节点
+     */
+    public void membershipChanged(List<N> newMembers) {
+        List<N> oldMembers = this.members;
+        this.members = List.copyOf(newMembers);
+        if (newMembers.isEmpty() || !isFailoverResponsible(newMembers)) {
+            return;
+        }
+        Set<String> aliveNodeIds = new HashSet<>();
+        for (N member : newMembers) {
+            aliveNodeIds.add(member.getId());
+        }
+        List<N> deadNodes = new ArrayList<>();
+        for (N member : oldMembers) {
+            if (!aliveNodeIds.contains(member.getId())) {
+                deadNodes.add(member);
+            }
+        }
+        for (N deadNode : deadNodes) {
+            jobFailover.nodeLeft(deadNode, this.members);
+        }
+    }
+
+    @Override
+    protected void prepareJob(Job job) {
+        job.getStatus().getExtraInfo().put(EXECUTOR_NODE_ID, node.getId());
+    }
+
+    /**
+     * 共享JobStore时其他节点上还在运行的任务也是未结束的，只恢复记录的执行节点是自己的任务，
+     * 没有记录执行节点的任务无法确定归属，不做恢复
+     */
+    @Override
+    protected boolean shouldRecover(Job storedJob) {
+        return Objects.equals(storedJob.getStatus().getExtraInfo().get(EXECUTOR_NODE_ID), node.getId());
+    }
+
+    /**
+     * 是否由当前节点负责转移失效节点上的任务，默认由第一个节点作为协调者负责
+     */
+    protected boolean isFailoverResponsible(List<N> newMembers) {
+        return isMe(newMembers.get(0));
+    }
+
+    @Override
+    protected void onJobExit(Job job) {
+        jobFinished(job.getId(), node, false);
+    }
+
+    /**
+     * 把还没有开始执行的任务轮流转交给其他存活的节点，每个节点只发送一次消息；
+     * 分配信息转移成功之后才从本节点释放任务，转移失败的任务继续在本节点执行，因此任务既不会丢失也不会被重复执行。
+     * 转交的任务在本节点的记录以TRANSFERRED结束，并且在通知接手节点之前保存，
+     * 否则共享JobStore时会覆盖接手节点已经保存的状态
+     */
+    @Override
+    protected void handOffPendingJobs() {
+        List<N> others = otherMembers();
+        if (others.isEmpty()) {
+            return;
+        }
+        Map<String, List<JobRef>> groups = new LinkedHashMap<>();
+        AtomicInteger next = new AtomicInteger();
+        List<Job> handedOff = releasePendingJobs(Integer.MAX_VALUE, job -> {
+            N target = others.get(next.getAndIncrement() % others.size());
+            if (!reAssign(job.getId(), node, target)) {
+                log.warn("Failed to hand off job with id = {} to node {}, keep it on this node.", job.getId(), target.getId());
+                return false;
+            }
+            groups.computeIfAbsent(target.getId(), key -> new ArrayList<>()).add(transferredJobRef(job, target));
+            return true;
+        });
+        for (N target : others) {
+            List<JobRef> jobRefs = groups.get(target.getId());
+            if (Objects.nonNull(jobRefs)) {
+                runJobsOnNode(jobRefs, target);
+            }
+        }
+        if (!handedOff.isEmpty()) {
+            log.info("Handed off {} pending jobs to {} nodes before stopping.", handedOff.size(), groups.size());
+        }
+    }
+
+    /**
+     * 除本节点以外的存活节点
+     */
+    protected List<N> otherMembers() {
+        List<N> others = new ArrayList<>();
+        for (N member : members) {
+            if (!isMe(member)) {
+                others.add(member);
+            }
+        }
+        return others;
+    }
+
+    @Override
+    protected void doStart() throws Exception {
+        super.doStart();
+        jobFailover.start();
+        jobStealer.start();
+    }
+
+    @Override
+    protected void doStop() throws Exception {
+        jobStealer.stop();
+        jobFailover.stop();
+        super.doStop();
+    }
+
+    protected boolean isMe(N targetNode) {
         Objects.requireNonNull(targetNode);
         if (Objects.isNull(this.node)) {
             throw new IllegalStateException("node not set.");
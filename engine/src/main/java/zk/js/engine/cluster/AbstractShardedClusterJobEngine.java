@@ -0,0 +1,490 @@
+/*
+ * Copyright 2023 zoukang, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package zk.js.engine.cluster;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import zk.js.engine.job.Job;
+import zk.js.engine.job.JobConverter;
+import zk.js.engine.job.JobDefinition;
+import zk.js.engine.job.JobStore;
+import zk.js.engine.trace.TraceContext;
+
+/**
+ * 分片模式的集群引擎，按JobDefinition的id做一致性哈希决定任务的执行节点，每个节点负责一部分JobDefinition，
+ * 不需要在所有节点之间同步任务的分配信息，适用于节点很多的集群
+ * <p>
+ * 单例任务总是分配给哈希环上的第一个节点，因此单例检查只需要在该节点本地进行；
+ * 非单例任务使用有界负载的一致性哈希，节点负载超过平均负载的loadFactor倍时顺延到下一个节点
+ * <p>
+ * 任务id以执行节点的id为前缀，因此任何节点都可以直接从任务id得到执行节点，节点id中不能包含JOB_ID_SEPARATOR。
+ * 任务的分配信息只保存在提交任务的节点上，具体实现收到其他节点任务结束的消息后应调用jobFinished，
+ * 并通过updateNodeLoad定期更新其他节点的负载
+ * <p>
+ * 幂等键按自身的哈希值分配给一个节点，由该节点的缓存判断是否重复提交，因此从不同节点提交相同的幂等键也只会启动一个任务；
+ * 节点失效后，它的任务仍然通过哈希环重新放置，而不是交给负载最低的节点；
+ * 执行节点无法转移任务的归属，因此不启用JobStealer
+ */
+@Slf4j
+public abstract class AbstractShardedClusterJobEngine<N extends Node<?>> extends AbstractClusterJobEngine<N> {
+
+    public static final String JOB_ID_SEPARATOR = ":";
+
+    private final ConsistentHashRing<N> ring;
+
+    private final Map<String, Integer> nodeLoads = new ConcurrentHashMap<>(4);
+
+    /**
+     * 由当前节点分配给其他节点执行的任务
+     */
+    private final Map<String, JobRef> dispatchedJobs = new ConcurrentHashMap<>(4);
+
+    /**
+     * 在本节点执行的单例任务，用于在getJobRefs中标记单例
+     */
+    private final Set<String> singletonJobIds = ConcurrentHashMap.newKeySet();
+
+    @Getter
+    private double loadFactor = 1.25;
+
+    protected AbstractShardedClusterJobEngine(
+            JobConverter jobConverter, ExecutorService executorService, JobStore jobStore, N node, int virtualNodeCount
+    ) {
+        super(jobConverter, executorService, jobStore, node);
+        if (node.getId().contains(JOB_ID_SEPARATOR)) {
+            throw new IllegalArgumentException("Node id can not contain '" + JOB_ID_SEPARATOR + "', node id = " + node.getId());
+        }
+        this.ring = new ConsistentHashRing<>(virtualNodeCount);
+        // 有界负载的一致性哈希在放置时已经均衡了负载，分配信息又只在提交节点上，不做任务窃取
+        getJobStealer().setIntervalMillis(0L);
+    }
+
+    /**
+     * 在node上记录幂等键，具体实现需要把请求发给node并返回它调用registerIdempotencyKey(String, String)的结果
+     *
+     * @return 已有的任务id，没有重复时返回null
+     */
+    protected abstract String registerIdempotencyKeyOnNode(String idempotencyKey, String jobId, N node) throws Exception;
+
+    protected abstract void unregisterIdempotencyKeyOnNode(String idempotencyKey, String jobId, N node);
+
+    /**
+     * 让node立即执行任务并等待它是否接受，用于单例任务和停止时转交任务，具体实现需要在node上调用tryRunAssignedJob并返回它的结果
+     *
+     * @return 任务被拒绝的原因，接受时为null
+     */
+    protected abstract CompletableFuture<String> runSingletonJobOnNode(JobRef jobRef, N node);
+
+    public void setLoadFactor(double loadFactor) {
+        if (loadFactor < 1.0) {
+            throw new IllegalArgumentException("loadFactor can not be less than 1.0");
+        }
+        this.loadFactor = loadFactor;
+    }
+
+    /**
+     * 更新其他节点的负载，即正在运行的任务数
+     */
+    public void updateNodeLoad(String nodeId, int load) {
+        nodeLoads.put(nodeId, load);
+    }
+
+    @Override
+    public void membershipChanged(List<N> newMembers) {
+        ring.setNodes(newMembers);
+        Set<String> aliveNodeIds = new HashSet<>();
+        for (N member : newMembers) {
+            aliveNodeIds.add(member.getId());
+        }
+        nodeLoads.keySet().retainAll(aliveNodeIds);
+        super.membershipChanged(newMembers);
+    }
+
+    /**
+     * 分配信息只保存在提交任务的节点上，因此每个节点都负责转移自己提交给失效节点的任务
+     */
+    @Override
+    protected boolean isFailoverResponsible(List<N> newMembers) {
+        return true;
+    }
+
+    /**
+     * 每个节点只恢复自己执行的任务：被窃取、停止时转交或者失效转移的任务由接手的节点恢复，
+     * 共享JobStore时原节点重启后不会再次执行这些任务
+     */
+    @Override
+    protected boolean shouldRecover(Job storedJob) {
+        Object executor = storedJob.getStatus().getExtraInfo().get(EXECUTOR_NODE_ID);
+        if (Objects.nonNull(executor)) {
+            return Objects.equals(executor, getNode().getId());
+        }
+        return storedJob.getId().startsWith(getNode().getId() + JOB_ID_SEPARATOR);
+    }
+
+    /**
+     * 只有接手其他节点的任务时才记录EXECUTOR_NODE_ID，大部分任务的extraInfo保持为空
+     */
+    @Override
+    protected void prepareJob(Job job) {
+        if (!job.getId().startsWith(getNode().getId() + JOB_ID_SEPARATOR)) {
+            job.getStatus().getExtraInfo().put(EXECUTOR_NODE_ID, getNode().getId());
+        }
+    }
+
+    @Override
+    public NodeAndJobId<N> assign(JobDefinition jobDefinition, boolean singleton) {
+        NodeAndJobId<N> nodeAndJobId = place(jobDefinition, singleton, new HashMap<>(4));
+        N owner = nodeAndJobId.getNode();
+        if (nodeAndJobId.isDuplicate()) {
+            return nodeAndJobId;
+        }
+        if (isMe(owner)) {
+            if (singleton && existJobRunningWithDefinitionId(jobDefinition.getId())) {
+                unregisterIdempotencyKey(jobDefinition, nodeAndJobId.getJobId());
+                throw new IllegalStateException("A job with same job definition id = " + jobDefinition.getId() + " is already running.");
+            }
+        } else if (singleton) {
+            String rejection = awaitAccepted(dispatchedJobs.get(nodeAndJobId.getJobId()), owner);
+            if (Objects.nonNull(rejection)) {
+                jobFinished(nodeAndJobId.getJobId(), owner, false);
+                unregisterIdempotencyKey(jobDefinition, nodeAndJobId.getJobId());
+                throw new IllegalStateException(rejection);
+            }
+        } else {
+            runJobOnNode(dispatchedJobs.get(nodeAndJobId.getJobId()), owner);
+        }
+        return nodeAndJobId;
+    }
+
+    /**
+     * 单例检查只在所属节点上进行，停止时转交任务也要确认对方已经接受，因此需要等待目标节点的结果，超时则认为已经接受
+     */
+    private String awaitAccepted(JobRef jobRef, N owner) {
+        CompletableFuture<String> future = runSingletonJobOnNode(jobRef, owner);
+        try {
+            return future.get(getClusterQueryTimeoutMillis(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException exception) {
+            log.warn("Node {} did not confirm singleton job with id = {} in time, assume it is accepted.", owner.getId(), jobRef.getJobId());
+        } catch (ExecutionException exception) {
+            log.warn("Failed to run singleton job with id = {} on node {}", jobRef.getJobId(), owner.getId(), exception);
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+        }
+        return null;
+    }
+
+    /**
+     * 执行其他节点分配的单例任务，和runAssignedJob不同的是被拒绝时把原因返回给提交任务的节点，而不是要求重新分配
+     *
+     * @return 任务被拒绝的原因，接受时为null
+     */
+    public String tryRunAssignedJob(JobRef jobRef) {
+        String definitionId = jobRef.getJobDefinition().getId();
+        if (jobRef.isSingleton()) {
+            if (existJobRunningWithDefinitionId(definitionId)) {
+                return "A job with same job definition id = " + definitionId + " is already running.";
+            }
+            singletonJobIds.add(jobRef.getJobId());
+        }
+        try (TraceContext.Scope ignored = TraceContext.attach(jobRef.getTraceParent())) {
+            doRunJob(jobRef.getJobDefinition(), jobRef.getJobId());
+            return null;
+        } catch (Exception exception) {
+            singletonJobIds.remove(jobRef.getJobId());
+            log.error("Failed to run assigned job with id = {}", jobRef.getJobId(), exception);
+            return "Failed to run job on node " + getNode().getId() + ": " + exception.getMessage();
+        }
+    }
+
+    @Override
+    public void runAssignedJob(JobRef jobRef) {
+        if (jobRef.isSingleton()) {
+            singletonJobIds.add(jobRef.getJobId());
+        }
+        super.runAssignedJob(jobRef);
+    }
+
+    /**
+     * 分配信息只保存在提交节点上，执行节点无法通过reAssign转移，因此停止时把等待中的任务逐个交给本节点离开后的哈希环所属节点，
+     * 对方接受之后才从本节点释放，并通知提交节点不再跟踪该任务，避免本节点离开后失效转移再执行一次；
+     * 对方拒绝的任务继续在本节点执行
+     */
+    @Override
+    protected void handOffPendingJobs() {
+        if (otherMembers().isEmpty()) {
+            return;
+        }
+        List<Job> handedOff = releasePendingJobs(Integer.MAX_VALUE, this::handOffToOwner);
+        if (!handedOff.isEmpty()) {
+            log.info("Handed off {} pending jobs to their ring owners before stopping.", handedOff.size());
+        }
+    }
+
+    private boolean handOffToOwner(Job job) {
+        N target = ring.locate(job.jobDefinition().getId(), candidate -> !isMe(candidate));
+        if (Objects.isNull(target) || isMe(target)) {
+            return false;
+        }
+        JobRef jobRef = transferredJobRef(job, target);
+        jobRef.setSingleton(singletonJobIds.contains(job.getId()));
+        String rejection = awaitAccepted(jobRef, target);
+        if (Objects.nonNull(rejection)) {
+            log.warn("Node {} refused to take over job with id = {}, keep it on this node: {}", target.getId(), job.getId(), rejection);
+            return false;
+        }
+        jobFinished(job.getId(), getNode(), false);
+        return true;
+    }
+
+    /**
+     * 分配信息只保存在提交节点上，执行节点无法把任务的归属转移给thief，转交之后失效转移和状态查询都会找错节点，
+     * 因此分片模式不转交任务，负载由放置时的有界负载哈希保证
+     */
+    @Override
+    public List<JobRef> releaseJobsTo(N thief, int maxCount) {
+        return List.of();
+    }
+
+    /**
+     * 幂等键由它自己的哈希值决定所属节点，和任务的执行节点无关
+     */
+    @Override
+    protected String registerIdempotencyKey(JobDefinition jobDefinition, String jobId) {
+        String key = jobDefinition.getIdempotencyKey();
+        N keyOwner = Objects.isNull(key) ? null : ring.locate(key);
+        if (Objects.isNull(keyOwner) || isMe(keyOwner)) {
+            return super.registerIdempotencyKey(jobDefinition, jobId);
+        }
+        try {
+            String existingJobId = registerIdempotencyKeyOnNode(key, jobId, keyOwner);
+            if (Objects.nonNull(existingJobId)) {
+                log.info("Duplicate submission of job definition id = {}, return existing job id = {}", jobDefinition.getId(), existingJobId);
+            }
+            return existingJobId;
+        } catch (Exception exception) {
+            throw new IllegalStateException("Failed to check idempotency key on node " + keyOwner.getId(), exception);
+        }
+    }
+
+    @Override
+    protected void unregisterIdempotencyKey(JobDefinition jobDefinition, String jobId) {
+        singletonJobIds.remove(jobId);
+        String key = jobDefinition.getIdempotencyKey();
+        N keyOwner = Objects.isNull(key) ? null : ring.locate(key);
+        if (Objects.isNull(keyOwner) || isMe(keyOwner)) {
+            super.unregisterIdempotencyKey(jobDefinition, jobId);
+        } else {
+            unregisterIdempotencyKeyOnNode(key, jobId, keyOwner);
+        }
+    }
+
+    /**
+     * 失效节点的任务按正常提交时的规则在哈希环上重新放置，单例任务总是回到它的所属节点，由所属节点做单例检查
+     */
+    @Override
+    public N failoverTarget(JobRef orphan, List<N> survivors) {
+        Set<String> aliveNodeIds = new HashSet<>();
+        for (N survivor : survivors) {
+            aliveNodeIds.add(survivor.getId());
+        }
+        String definitionId = orphan.getJobDefinition().getId();
+        if (orphan.isSingleton()) {
+            return ring.locate(definitionId, candidate -> aliveNodeIds.contains(candidate.getId()));
+        }
+        Map<String, Integer> pendingLoads = new HashMap<>(4);
+        int capacity = capacity(pendingLoads);
+        return ring.locate(definitionId, candidate -> aliveNodeIds.contains(candidate.getId()) && loadOf(candidate, pendingLoads) < capacity);
+    }
+
+    @Override
+    public List<NodeAndJobId<N>> assignAll(List<JobDefinition> jobDefinitions, boolean singleton) {
+        List<NodeAndJobId<N>> result = new ArrayList<>(jobDefinitions.size());
+        Map<String, Integer> pendingLoads = new HashMap<>(4);
+        for (JobDefinition jobDefinition : jobDefinitions) {
+            result.add(place(jobDefinition, singleton, pendingLoads));
+        }
+        return result;
+    }
+
+    @Override
+    public N getAssigner(String jobId) {
+        // 转移过的任务id前缀不再是执行节点，提交节点优先使用自己保存的分配信息
+        JobRef jobRef = dispatchedJobs.get(jobId);
+        String nodeId;
+        if (Objects.nonNull(jobRef)) {
+            nodeId = jobRef.getNodeId();
+        } else {
+            int index = jobId.indexOf(JOB_ID_SEPARATOR);
+            if (index <= 0) {
+                return null;
+            }
+            nodeId = jobId.substring(0, index);
+        }
+        for (N member : getMembers()) {
+            if (Objects.equals(member.getId(), nodeId)) {
+                return member;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void jobFinished(String jobId, N node, boolean reAssign) {
+        JobRef jobRef = dispatchedJobs.remove(jobId);
+        if (isMe(node)) {
+            singletonJobIds.remove(jobId);
+        } else {
+            nodeLoads.computeIfPresent(node.getId(), (key, load) -> Math.max(0, load - 1));
+        }
+        if (!reAssign) {
+            return;
+        }
+        if (Objects.isNull(jobRef)) {
+            log.warn("Can not re-assign job with id = {}, it is not dispatched by this node.", jobId);
+            return;
+        }
+        String refusedNodeId = node.getId();
+        N target = ring.locate(jobRef.getJobDefinition().getId(), candidate -> !Objects.equals(candidate.getId(), refusedNodeId));
+        if (Objects.isNull(target) || Objects.equals(target.getId(), refusedNodeId)) {
+            log.error("Can not re-assign job with id = {}, no other node available.", jobId);
+            return;
+        }
+        jobRef.setNodeId(target.getId());
+        if (isMe(target)) {
+            runAssignedJob(jobRef);
+        } else {
+            dispatchedJobs.put(jobId, jobRef);
+            runJobOnNode(jobRef, target);
+        }
+    }
+
+    @Override
+    public Collection<JobRef> getJobRefs(N node) {
+        List<JobRef> jobRefs = new ArrayList<>();
+        if (isMe(node)) {
+            for (JobAndFuture jobAndFuture : runningJobs.values()) {
+                Job job = jobAndFuture.getJob();
+                JobRef jobRef = new JobRef();
+                jobRef.setJobId(job.getId());
+                jobRef.setJobDefinition(job.jobDefinition());
+                jobRef.setNodeId(node.getId());
+                jobRef.setSingleton(singletonJobIds.contains(job.getId()));
+                jobRefs.add(jobRef);
+            }
+            return jobRefs;
+        }
+        for (JobRef jobRef : dispatchedJobs.values()) {
+            if (Objects.equals(jobRef.getNodeId(), node.getId())) {
+                jobRefs.add(jobRef);
+            }
+        }
+        return jobRefs;
+    }
+
+    @Override
+    public boolean reAssign(String jobId, N fromNode, N toNode) {
+        JobRef jobRef = dispatchedJobs.get(jobId);
+        if (Objects.isNull(jobRef)) {
+            return false;
+        }
+        synchronized (jobRef) {
+            if (!Objects.equals(jobRef.getNodeId(), fromNode.getId())) {
+                return false;
+            }
+            jobRef.setNodeId(toNode.getId());
+        }
+        return true;
+    }
+
+    private NodeAndJobId<N> place(JobDefinition jobDefinition, boolean singleton, Map<String, Integer> pendingLoads) {
+        if (ring.isEmpty()) {
+            throw new IllegalStateException("No cluster member known yet.");
+        }
+        N owner;
+        if (singleton) {
+            owner = ring.locate(jobDefinition.getId());
+        } else {
+            int capacity = capacity(pendingLoads);
+            owner = ring.locate(jobDefinition.getId(), candidate -> loadOf(candidate, pendingLoads) < capacity);
+        }
+        String jobId = owner.getId() + JOB_ID_SEPARATOR + nextJobId();
+        NodeAndJobId<N> nodeAndJobId = new NodeAndJobId<>();
+        String existingJobId = registerIdempotencyKey(jobDefinition, jobId);
+        if (Objects.nonNull(existingJobId)) {
+            N assigner = getAssigner(existingJobId);
+            nodeAndJobId.setNode(Objects.isNull(assigner) ? owner : assigner);
+            nodeAndJobId.setJobId(existingJobId);
+            nodeAndJobId.setDuplicate(true);
+            return nodeAndJobId;
+        }
+        nodeAndJobId.setNode(owner);
+        nodeAndJobId.setJobId(jobId);
+        if (isMe(owner)) {
+            pendingLoads.merge(owner.getId(), 1, Integer::sum);
+            if (singleton) {
+                singletonJobIds.add(jobId);
+            }
+        } else {
+            JobRef jobRef = new JobRef();
+            jobRef.setJobId(jobId);
+            jobRef.setJobDefinition(jobDefinition);
+            jobRef.setNodeId(owner.getId());
+            jobRef.setSingleton(singleton);
+            dispatchedJobs.put(jobId, jobRef);
+            nodeLoads.merge(owner.getId(), 1, Integer::sum);
+        }
+        return nodeAndJobId;
+    }
+
+    /**
+     * 有界负载一致性哈希中每个节点允许的最大负载：平均负载乘以loadFactor，向上取整
+     */
+    private int capacity(Map<String, Integer> pendingLoads) {
+        List<N> members = getMembers();
+        if (members.isEmpty()) {
+            return Integer.MAX_VALUE;
+        }
+        long total = 0;
+        for (N member : members) {
+            total += loadOf(member, pendingLoads);
+        }
+        return (int) Math.ceil(loadFactor * (total + 1) / members.size());
+    }
+
+    private int loadOf(N member, Map<String, Integer> pendingLoads) {
+        if (isMe(member)) {
+            return runningJobs.size() + pendingLoads.getOrDefault(member.getId(), 0);
+        }
+        return nodeLoads.getOrDefault(member.getId(), 0);
+    }
+
+}
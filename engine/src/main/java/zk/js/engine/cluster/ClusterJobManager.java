@@ -15,6 +15,11 @@
  */
 package zk.js.engine.cluster;
 
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import zk.js.engine.job.Job;
 import zk.js.engine.job.JobDefinition;
 
 /**
@@ -24,9 +29,17 @@ public interface ClusterJobManager<N extends Node<?>> {
 
     /**
      * 把给定的JobDefinition分配给某个节点执行
+     * JobDefinition设置了幂等键并且近期已经提交过时，返回已有的任务id并设置duplicate，不再分配
      */
     NodeAndJobId<N> assign(JobDefinition jobDefinition, boolean singleton);
 
+    /**
+     * 在一次分配过程中为所有JobDefinition选择执行节点，返回结果和给定的JobDefinition顺序一一对应，
+     * 不能分配的JobDefinition对应的结果为null
+     * 和assign不同，这里只记录分配信息，不会通知目标节点执行任务，需要再调用runJobsOnNode
+     */
+    List<NodeAndJobId<N>> assignAll(List<JobDefinition> jobDefinitions, boolean singleton);
+
     /**
      * 任务退出了调用此方法，实现信息的更新
      * reAssign决定是否是因为此节点不能执行此Job而要求重新分配其他节点执行
@@ -35,6 +48,50 @@ public interface ClusterJobManager<N extends Node<?>> {
 
     N getAssigner(String jobId);
 
+    /**
+     * 通知目标节点停止任务，目标节点收到后应调用AbstractClusterJobEngine.stopLocalJob
+     */
     void stopJobOnNode(String jobId, N node);
 
+    /**
+     * 获取当前分配给指定节点的所有任务
+     */
+    Collection<JobRef> getJobRefs(N node);
+
+    /**
+     * 把任务从fromNode转移给toNode，只有任务当前仍然分配给fromNode时才会转移成功，
+     * 因此多个节点同时转移同一个任务时最多只有一个能成功
+     * 只修改分配信息，不会通知toNode执行任务，需要再调用runJobOnNode
+     */
+    boolean reAssign(String jobId, N fromNode, N toNode);
+
+    /**
+     * 通知目标节点执行已经分配给它的任务，目标节点收到后应调用AbstractClusterJobEngine.runAssignedJob
+     */
+    void runJobOnNode(JobRef jobRef, N node);
+
+    /**
+     * 用一次消息通知目标节点执行多个已经分配给它的任务，目标节点收到后应调用AbstractClusterJobEngine.runAssignedJobs
+     */
+    void runJobsOnNode(List<JobRef> jobRefs, N node);
+
+    /**
+     * 异步查询任务在目标节点上的状态，目标节点收到后应调用AbstractClusterJobEngine.getLocalJobStatus，
+     * 目标节点没有此任务时结果为null
+     */
+    CompletableFuture<Job.Status> queryJobStatusOnNode(String jobId, N node);
+
+    /**
+     * 请求victim节点把最多maxCount个还没有开始执行的任务转交给thief节点，
+     * victim节点收到后应调用AbstractClusterJobEngine.releaseJobsTo并把结果返回，返回的任务已经分配给thief节点
+     */
+    List<JobRef> stealJobsFromNode(N victim, N thief, int maxCount);
+
+    /**
+     * 节点失效后孤儿任务的新执行节点，返回null表示由JobFailover选择负载最低的存活节点
+     */
+    default N failoverTarget(JobRef orphan, List<N> survivors) {
+        return null;
+    }
+
 }
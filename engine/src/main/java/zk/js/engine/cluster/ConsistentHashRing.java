@@ -0,0 +1,104 @@
+/*
+ * Copyright 2023 zoukang, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package zk.js.engine.cluster;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Predicate;
+
+import zk.js.engine.common.Hashing;
+
+/**
+ * 带虚拟节点的一致性哈希环，节点变化时只有相邻区间的key会改变归属
+ * 环本身是不可变的快照，节点变化时整体替换，因此查找不需要加锁
+ */
+public class ConsistentHashRing<N extends Node<?>> {
+
+    private final int virtualNodeCount;
+
+    private volatile Snapshot<N> snapshot = new Snapshot<>(new long[0], new Object[0]);
+
+    public ConsistentHashRing(int virtualNodeCount) {
+        if (virtualNodeCount <= 0) {
+            throw new IllegalArgumentException("virtualNodeCount must be positive.");
+        }
+        this.virtualNodeCount = virtualNodeCount;
+    }
+
+    public void setNodes(Collection<N> nodes) {
+        TreeMap<Long, N> points = new TreeMap<>();
+        for (N node : nodes) {
+            for (int i = 0; i < virtualNodeCount; ++i) {
+                points.putIfAbsent(Hashing.hash64(node.getId() + "#" + i), node);
+            }
+        }
+        long[] hashes = new long[points.size()];
+        Object[] owners = new Object[points.size()];
+        int index = 0;
+        for (Map.Entry<Long, N> entry : points.entrySet()) {
+            hashes[index] = entry.getKey();
+            owners[index] = entry.getValue();
+            ++index;
+        }
+        this.snapshot = new Snapshot<>(hashes, owners);
+    }
+
+    public boolean isEmpty() {
+        return snapshot.hashes.length == 0;
+    }
+
+    /**
+     * 返回key在环上顺时针方向遇到的第一个节点
+     */
+    public N locate(String key) {
+        return locate(key, node -> true);
+    }
+
+    /**
+     * 从key的位置开始顺时针查找第一个满足条件的节点，没有满足条件的节点时返回第一个节点
+     */
+    public N locate(String key, Predicate<N> acceptable) {
+        Snapshot<N> current = this.snapshot;
+        int size = current.hashes.length;
+        if (size == 0) {
+            return null;
+        }
+        int start = Arrays.binarySearch(current.hashes, Hashing.hash64(key));
+        if (start < 0) {
+            start = -start - 1;
+        }
+        N primary = current.owner(start % size);
+        for (int i = 0; i < size; ++i) {
+            N candidate = current.owner((start + i) % size);
+            if (acceptable.test(candidate)) {
+                return candidate;
+            }
+        }
+        return primary;
+    }
+
+    private record Snapshot<N>(long[] hashes, Object[] owners) {
+
+        @SuppressWarnings("unchecked")
+        N owner(int index) {
+            return (N) owners[index];
+        }
+
+    }
+
+}
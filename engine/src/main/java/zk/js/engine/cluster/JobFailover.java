@@ -0,0 +1,183 @@
+/*
+ * Copyright 2023 zoukang, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package zk.js.engine.cluster;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import zk.js.engine.common.BaseLifecycleService;
+
+/**
+ * 节点失效后，把分配给失效节点的任务转移给存活的节点
+ * 转移分配信息是立即完成的，但是通知目标节点执行任务是限速的，避免一个节点失效后其他节点瞬间收到大量任务
+ */
+@Slf4j
+public class JobFailover<N extends Node<?>> extends BaseLifecycleService {
+
+    private static final long DISPATCH_INTERVAL_MILLIS = 100L;
+
+    private final ClusterJobManager<N> clusterJobManager;
+
+    private final Queue<Dispatch<N>> dispatches = new ConcurrentLinkedQueue<>();
+
+    @Getter
+    private int maxDispatchPerSecond = 100;
+
+    private ScheduledExecutorService scheduler;
+
+    public JobFailover(ClusterJobManager<N> clusterJobManager) {
+        this.clusterJobManager = clusterJobManager;
+    }
+
+    public void setMaxDispatchPerSecond(int maxDispatchPerSecond) {
+        if (maxDispatchPerSecond <= 0) {
+            throw new IllegalArgumentException("maxDispatchPerSecond must be positive.");
+        }
+        this.maxDispatchPerSecond = maxDispatchPerSecond;
+    }
+
+    /**
+     * 把分配给deadNode的任务重新分配给ClusterJobManager.failoverTarget指定的节点，没有指定时分配给survivors中负载最低的节点
+     * 单例任务如果已经有相同JobDefinition id的任务在存活节点上运行，则不再重新分配
+     */
+    public void nodeLeft(N deadNode, List<N> survivors) {
+        Collection<JobRef> orphans = clusterJobManager.getJobRefs(deadNode);
+        if (orphans.isEmpty()) {
+            return;
+        }
+        if (survivors.isEmpty()) {
+            log.error("Node {} left and there is no node alive to take over its {} jobs.", deadNode.getId(), orphans.size());
+            return;
+        }
+        log.warn("Node {} left, re-assign its {} jobs to {} alive nodes.", deadNode.getId(), orphans.size(), survivors.size());
+
+        Set<String> runningSingletons = new HashSet<>();
+        PriorityQueue<NodeLoad<N>> loads = new PriorityQueue<>(Comparator.comparingInt(NodeLoad::getLoad));
+        for (N survivor : survivors) {
+            Collection<JobRef> jobRefs = clusterJobManager.getJobRefs(survivor);
+            for (JobRef jobRef : jobRefs) {
+                if (jobRef.isSingleton()) {
+                    runningSingletons.add(jobRef.getJobDefinition().getId());
+                }
+            }
+            loads.add(new NodeLoad<>(survivor, jobRefs.size()));
+        }
+
+        for (JobRef orphan : orphans) {
+            if (orphan.isSingleton() && !runningSingletons.add(orphan.getJobDefinition().getId())) {
+                log.warn(
+                        "Job with id = {} is not re-assigned, another job with same job definition id = {} is running.",
+                        orphan.getJobId(), orphan.getJobDefinition().getId()
+                );
+                clusterJobManager.jobFinished(orphan.getJobId(), deadNode, false);
+                continue;
+            }
+            N placed = clusterJobManager.failoverTarget(orphan, survivors);
+            NodeLoad<N> target = Objects.isNull(placed) ? loads.poll() : null;
+            N targetNode = Objects.isNull(target) ? placed : target.node;
+            Objects.requireNonNull(targetNode);
+            if (clusterJobManager.reAssign(orphan.getJobId(), deadNode, targetNode)) {
+                orphan.setNodeId(targetNode.getId());
+                dispatches.add(new Dispatch<>(orphan, targetNode));
+                if (Objects.nonNull(target)) {
+                    target.load++;
+                }
+            } else {
+                log.info("Job with id = {} has already been re-assigned by others.", orphan.getJobId());
+            }
+            if (Objects.nonNull(target)) {
+                loads.add(target);
+            }
+        }
+    }
+
+    @Override
+    protected void doStart() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "job-failover-dispatcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::dispatch, DISPATCH_INTERVAL_MILLIS, DISPATCH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    protected void doStop() {
+        if (Objects.nonNull(scheduler)) {
+            scheduler.shutdownNow();
+        }
+        if (!dispatches.isEmpty()) {
+            log.warn("Failover stopped, {} re-assigned jobs are not dispatched.", dispatches.size());
+        }
+    }
+
+    private void dispatch() {
+        int permits = Math.max(1, (int) (maxDispatchPerSecond * DISPATCH_INTERVAL_MILLIS / 1000L));
+        // 同一个节点的任务合并成一次消息发送
+        Map<String, List<JobRef>> groups = new LinkedHashMap<>();
+        Map<String, N> targetNodes = new HashMap<>();
+        for (int i = 0; i < permits; ++i) {
+            Dispatch<N> dispatch = dispatches.poll();
+            if (Objects.isNull(dispatch)) {
+                break;
+            }
+            groups.computeIfAbsent(dispatch.node.getId(), key -> new ArrayList<>()).add(dispatch.jobRef);
+            targetNodes.putIfAbsent(dispatch.node.getId(), dispatch.node);
+        }
+        for (Map.Entry<String, List<JobRef>> entry : groups.entrySet()) {
+            try {
+                clusterJobManager.runJobsOnNode(entry.getValue(), targetNodes.get(entry.getKey()));
+            } catch (Exception exception) {
+                log.error("Failed to dispatch {} re-assigned jobs to node {}", entry.getValue().size(), entry.getKey(), exception);
+            }
+        }
+    }
+
+    private record Dispatch<N>(JobRef jobRef, N node) {
+    }
+
+    @Getter
+    private static class NodeLoad<N> {
+
+        private final N node;
+
+        private int load;
+
+        NodeLoad(N node, int load) {
+            this.node = node;
+            this.load = load;
+        }
+
+    }
+
+}
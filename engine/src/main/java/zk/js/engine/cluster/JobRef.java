@@ -21,6 +21,7 @@ import lombok.Getter;
 import lombok.Setter;
 
 import zk.js.engine.job.JobDefinition;
+import zk.js.engine.trace.TraceContext;
 
 /**
  * 此类作用是用可以序列化的信息唯一定位到一个Job，在集群环境下每个节点保持一致的副本
@@ -37,4 +38,11 @@ public class JobRef implements Serializable {
 
     private String nodeId;
 
+    private boolean singleton;
+
+    /**
+     * W3C traceparent，默认是创建JobRef时当前线程的trace，执行节点上的任务作为它的子span
+     */
+    private String traceParent = TraceContext.currentTraceParent();
+
 }
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2023 zoukang, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package zk.js.engine.cluster;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+
+import zk.js.engine.common.BaseLifecycleService;
+
+/**
+ * 空闲节点定期从负载最高的节点上拿走一部分还没有开始执行的任务，
+ * 任务的分配信息由被拿走任务的节点通过ClusterJobManager.reAssign转移，因此同一个任务不会被两个节点同时执行
+ */
+@Slf4j
+public class JobStealer<N extends Node<?>> extends BaseLifecycleService {
+
+    private final AbstractClusterJobEngine<N> engine;
+
+    /**
+     * 检查间隔，小于等于0表示不启用
+     */
+    @Getter
+    @Setter
+    private long intervalMillis = 1000L;
+
+    /**
+     * 每次最多拿走的任务数
+     */
+    @Getter
+    @Setter
+    private int maxStealCount = 16;
+
+    /**
+     * 对方节点的负载至少比本节点多这么多才拿任务，避免任务在负载接近的节点之间来回转移
+     */
+    @Getter
+    @Setter
+    private int minLoadGap = 2;
+
+    private ScheduledExecutorService scheduler;
+
+    public JobStealer(AbstractClusterJobEngine<N> engine) {
+        this.engine = engine;
+    }
+
+    @Override
+    protected void doStart() {
+        if (intervalMillis <= 0L) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "job-stealer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::stealOnce, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    protected void doStop() {
+        if (Objects.nonNull(scheduler)) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    private void stealOnce() {
+        try {
+            if (!engine.isStarted() || engine.getPendingJobCount() > 0) {
+                return;
+            }
+            N me = engine.getNode();
+            int myLoad = engine.getJobRefs(me).size();
+            N victim = null;
+            int victimLoad = myLoad + minLoadGap;
+            for (N member : engine.getMembers()) {
+                if (engine.isMe(member)) {
+                    continue;
+                }
+                int load = engine.getJobRefs(member).size();
+                if (load > victimLoad) {
+                    victim = member;
+                    victimLoad = load;
+                }
+            }
+            if (Objects.isNull(victim)) {
+                return;
+            }
+            int count = Math.min(maxStealCount, (victimLoad - myLoad) / 2);
+            List<JobRef> jobRefs = engine.stealJobsFromNode(victim, me, count);
+            if (!jobRefs.isEmpty()) {
+                log.info("Stole {} pending jobs from node {}", jobRefs.size(), victim.getId());
+                engine.runAssignedJobs(jobRefs);
+            }
+        } catch (Exception exception) {
+            log.error("Failed to steal jobs from other nodes.", exception);
+        }
+    }
+
+}
@@ -26,4 +26,9 @@ public class NodeAndJobId<N extends Node<?>> {
 
     private String jobId;
 
+    /**
+     * 相同幂等键的任务已经提交过，jobId是已有的任务id，不需要再执行
+     */
+    private boolean duplicate;
+
 }
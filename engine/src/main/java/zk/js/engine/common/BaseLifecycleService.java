@@ -15,198 +15,280 @@
  */
 package zk.js.engine.common;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
 import lombok.extern.slf4j.Slf4j;
 
+/**
+ * 生命周期状态机，状态转换通过CAS完成而不是加锁：
+ * 同一时刻只有一个线程能够把状态从稳定状态切换到中间状态（如INITIALIZED到STARTING），并负责执行对应的doXxx方法，
+ * 其他线程发现状态正在转换时直接返回或者等待转换结束，而不会阻塞在锁上。
+ * 每个Job都是一个BaseLifecycleService，因此这里的开销会乘以任务数量
+ */
 @Slf4j
 public abstract class BaseLifecycleService implements LifecycleService {
 
     protected static final byte NEW = 0;
-    protected static final byte BUILT = 1;
-    protected static final byte INITIALIZING = 2;
-    protected static final byte INITIALIZED = 3;
-    protected static final byte STARTING = 4;
-    protected static final byte STARTED = 5;
-    protected static final byte SUSPENDING = 6;
-    protected static final byte SUSPENDED = 7;
-    protected static final byte STOPPING = 8;
-    protected static final byte STOPPED = 9;
-    protected static final byte SHUTTING_DOWN = 10;
-    protected static final byte SHUTDOWN = 11;
-    protected static final byte FAILED = 12;
+    protected static final byte BUILDING = 1;
+    protected static final byte BUILT = 2;
+    protected static final byte INITIALIZING = 3;
+    protected static final byte INITIALIZED = 4;
+    protected static final byte STARTING = 5;
+    protected static final byte STARTED = 6;
+    protected static final byte SUSPENDING = 7;
+    protected static final byte SUSPENDED = 8;
+    protected static final byte STOPPING = 9;
+    protected static final byte STOPPED = 10;
+    protected static final byte SHUTTING_DOWN = 11;
+    protected static final byte SHUTDOWN = 12;
+    protected static final byte FAILED = 13;
+
+    /**
+     * 等待其他线程的状态转换时，先自旋这么多次，之后以指数退避的方式park
+     */
+    private static final int SPIN_TRIES = 64;
+
+    private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1L);
+
+    private static final VarHandle STATE;
+
+    static {
+        try {
+            STATE = MethodHandles.lookup().findVarHandle(BaseLifecycleService.class, "state", byte.class);
+        } catch (ReflectiveOperationException exception) {
+            throw new ExceptionInInitializerError(exception);
+        }
+    }
 
+    /**
+     * 状态转换不再使用这个锁，保留给子类同步自己的状态，例如AbstractJobEngine用它保证停止时不会再有新任务加入
+     */
     protected final Object lock = new Object();
 
-    protected Exception failException;
+    protected volatile Exception failException;
 
     protected volatile byte state = NEW;
 
+    /**
+     * doBuild执行期间处于BUILDING状态，其他线程的init会等待构建结束，而不是在doBuild完成之前就开始初始化
+     */
     public void build() {
-        if (state == NEW) {
-            synchronized (lock) {
-                if (state == NEW) {
-                    log.trace("Building service: {}", this);
-                    try (AutoCloseable ignored = doLifecycleChange()) {
-                        doBuild();
-                    } catch (Exception exception) {
-                        doFail(exception);
-                    }
-                    state = BUILT;
-                    log.trace("Built service: {}", this);
-                }
+        if (state == NEW && compareAndSetState(NEW, BUILDING)) {
+            log.trace("Building service: {}", this);
+            try (AutoCloseable ignored = doLifecycleChange()) {
+                doBuild();
+            } catch (Exception exception) {
+                doFail(exception);
+            } finally {
+                compareAndSetState(BUILDING, BUILT);
             }
+            log.trace("Built service: {}", this);
         }
     }
 
     public void init() {
+        byte current = state;
         // allow to initialize again if stopped or failed
-        if (state <= BUILT || state >= STOPPED) {
-            synchronized (lock) {
-                if (state <= BUILT || state >= STOPPED) {
-                    build();
-                    log.trace("Initializing service: {}", this);
-                    try (AutoCloseable ignored = doLifecycleChange()) {
-                        state = INITIALIZING;
-                        doInit();
-                        state = INITIALIZED;
-                        log.trace("Initialized service: {}", this);
-                    } catch (Exception ex) {
-                        log.trace("Error while initializing service: {}", this, ex);
-                        fail(ex);
-                    }
+        while (current <= BUILT || current >= STOPPED) {
+            if (current == NEW) {
+                build();
+            } else if (current == BUILDING) {
+                awaitTransition();
+            } else if (compareAndSetState(current, INITIALIZING)) {
+                failException = null;
+                log.trace("Initializing service: {}", this);
+                try (AutoCloseable ignored = doLifecycleChange()) {
+                    doInit();
+                    compareAndSetState(INITIALIZING, INITIALIZED);
+                    log.trace("Initialized service: {}", this);
+                } catch (Exception ex) {
+                    log.trace("Error while initializing service: {}", this, ex);
+                    fail(ex);
                 }
+                return;
             }
+            current = state;
         }
     }
 
     public void start() {
-        synchronized (lock) {
-            if (state == STARTED) {
+        byte current;
+        while (true) {
+            current = awaitTransition();
+            if (current == STARTED) {
                 log.trace("Service: {} already started", this);
                 return;
             }
-            if (state == STARTING) {
+            if (current == STARTING) {
                 log.trace("Service: {} already starting", this);
                 return;
             }
-            init();
-            if (state == FAILED) {
-                log.trace("Init failed");
-                return;
-            }
-            try (AutoCloseable ignored = doLifecycleChange()) {
-                state = STARTING;
-                log.trace("Starting service: {}", this);
-                doStart();
-                state = STARTED;
-                log.trace("Started service: {}", this);
-            } catch (Exception e1) {
-                // need to stop as some resources may have been started during startup
-                try {
-                    stop();
-                } catch (Exception e2) {
-                    // ignore
-                    log.trace(
-                            "Error while stopping service after it failed to start: {}. This exception is ignored",
-                            this, e1
-                    );
+            if (current != INITIALIZED && current != SUSPENDED) {
+                init();
+                current = state;
+                if (current == FAILED) {
+                    log.trace("Init failed");
+                    return;
                 }
-                log.trace("Error while starting service: {}", this, e1);
-                fail(e1);
+            }
+            if ((current == INITIALIZED || current == SUSPENDED) && compareAndSetState(current, STARTING)) {
+                break;
             }
         }
+        try (AutoCloseable ignored = doLifecycleChange()) {
+            log.trace("Starting service: {}", this);
+            doStart();
+            // 启动的过程中可能已经被其他线程停止，此时保持停止状态
+            compareAndSetState(STARTING, STARTED);
+            log.trace("Started service: {}", this);
+        } catch (Exception e1) {
+            // need to stop as some resources may have been started during startup
+            try {
+                stop();
+            } catch (Exception e2) {
+                // ignore
+                log.trace(
+                        "Error while stopping service after it failed to start: {}. This exception is ignored",
+                        this, e1
+                );
+            }
+            log.trace("Error while starting service: {}", this, e1);
+            fail(e1);
+        }
     }
 
     public void stop() {
-        synchronized (lock) {
-            if (state == FAILED) {
+        byte current;
+        do {
+            current = state;
+            if (current == FAILED) {
                 log.trace("Service: {} failed and regarded as already stopped", this);
                 return;
             }
-            if (state == STOPPED || state == SHUTTING_DOWN || state == SHUTDOWN) {
+            if (current == STOPPED || current == SHUTTING_DOWN || current == SHUTDOWN) {
                 log.trace("Service: {} already stopped", this);
                 return;
             }
-            if (state == STOPPING) {
+            if (current == STOPPING) {
                 log.trace("Service: {} already stopping", this);
                 return;
             }
-            state = STOPPING;
-            log.trace("Stopping service: {}", this);
-            try (AutoCloseable ignored = doLifecycleChange()) {
-                doStop();
-                state = STOPPED;
-                log.trace("Stopped: {} service", this);
-            } catch (Exception ex) {
-                log.trace("Error while stopping service: {}", this, ex);
-                fail(ex);
-            }
+        } while (!compareAndSetState(current, STOPPING));
+        log.trace("Stopping service: {}", this);
+        try (AutoCloseable ignored = doLifecycleChange()) {
+            doStop();
+            compareAndSetState(STOPPING, STOPPED);
+            log.trace("Stopped: {} service", this);
+        } catch (Exception ex) {
+            log.trace("Error while stopping service: {}", this, ex);
+            fail(ex);
         }
     }
 
+    /**
+     * 只有STARTED状态的服务可以挂起，正在启动、还没有启动或者已经停止的服务不会进入挂起状态
+     */
     public void suspend() {
-        synchronized (lock) {
-            if (state == SUSPENDED) {
+        byte current;
+        do {
+            current = state;
+            if (current == SUSPENDED) {
                 log.trace("Service: {} already suspended", this);
                 return;
             }
-            if (state == SUSPENDING) {
+            if (current == SUSPENDING) {
                 log.trace("Service: {} already suspending", this);
                 return;
             }
-            state = SUSPENDING;
-            log.trace("Suspending service: {}", this);
-            try (AutoCloseable ignored = doLifecycleChange()) {
-                doSuspend();
-                state = SUSPENDED;
-                log.trace("Suspended service: {}", this);
-            } catch (Exception ex) {
-                log.trace("Error while suspending service: {}", this, ex);
-                fail(ex);
+            if (current != STARTED) {
+                log.trace("Service: {} is not started, can not suspend", this);
+                return;
             }
+        } while (!compareAndSetState(current, SUSPENDING));
+        log.trace("Suspending service: {}", this);
+        try (AutoCloseable ignored = doLifecycleChange()) {
+            doSuspend();
+            compareAndSetState(SUSPENDING, SUSPENDED);
+            log.trace("Suspended service: {}", this);
+        } catch (Exception ex) {
+            log.trace("Error while suspending service: {}", this, ex);
+            fail(ex);
         }
     }
 
     public void resume() {
-        synchronized (lock) {
-            if (state != SUSPENDED) {
-                log.trace("Service is not suspended: {}", this);
-                return;
-            }
-            state = STARTING;
-            log.trace("Resuming service: {}", this);
-            try (AutoCloseable ignored = doLifecycleChange()) {
-                doResume();
-                state = STARTED;
-                log.trace("Resumed service: {}", this);
-            } catch (Exception ex) {
-                log.trace("Error while resuming service: {}", this, ex);
-                fail(ex);
-            }
+        if (!compareAndSetState(SUSPENDED, STARTING)) {
+            log.trace("Service is not suspended: {}", this);
+            return;
+        }
+        log.trace("Resuming service: {}", this);
+        try (AutoCloseable ignored = doLifecycleChange()) {
+            doResume();
+            compareAndSetState(STARTING, STARTED);
+            log.trace("Resumed service: {}", this);
+        } catch (Exception ex) {
+            log.trace("Error while resuming service: {}", this, ex);
+            fail(ex);
         }
     }
 
     public void shutdown() {
-        synchronized (lock) {
-            if (state == SHUTDOWN) {
+        byte current;
+        do {
+            current = state;
+            if (current == SHUTDOWN) {
                 log.trace("Service: {} already shutdown", this);
                 return;
             }
-            if (state == SHUTTING_DOWN) {
+            if (current == SHUTTING_DOWN) {
                 log.trace("Service: {} already shutting down", this);
                 return;
             }
             stop();
+            current = awaitTransition();
+        } while (!compareAndSetState(current, SHUTTING_DOWN));
+        log.trace("Shutting down service: {}", this);
+        try (AutoCloseable ignored = doLifecycleChange()) {
+            doShutdown();
             state = SHUTDOWN;
-            log.trace("Shutting down service: {}", this);
-            try (AutoCloseable ignored = doLifecycleChange()) {
-                doShutdown();
-                log.trace("Shutdown service: {}", this);
-                state = SHUTDOWN;
-            } catch (Exception ex) {
-                log.trace("Error shutting down service: {}", this, ex);
-                fail(ex);
+            log.trace("Shutdown service: {}", this);
+        } catch (Exception ex) {
+            log.trace("Error shutting down service: {}", this, ex);
+            fail(ex);
+        }
+    }
+
+    protected final boolean compareAndSetState(byte expect, byte update) {
+        return STATE.compareAndSet(this, expect, update);
+    }
+
+    /**
+     * 等待其他线程正在进行的状态转换结束，返回稳定的状态。
+     * STARTING不等待，Job的doStart就是任务的整个执行过程；
+     * 其他转换通常很快结束，因此先短暂自旋，转换耗时较长（如停止时等待任务退出）时退避为park，避免占用CPU
+     */
+    private byte awaitTransition() {
+        byte current = state;
+        int tries = 0;
+        long parkNanos = 1000L;
+        while (isTransition(current)) {
+            if (tries < SPIN_TRIES) {
+                ++tries;
+                Thread.onSpinWait();
+            } else {
+                LockSupport.parkNanos(this, parkNanos);
+                parkNanos = Math.min(parkNanos << 1, MAX_PARK_NANOS);
             }
+            current = state;
         }
+        return current;
+    }
+
+    private static boolean isTransition(byte current) {
+        return current == BUILDING || current == INITIALIZING || current == SUSPENDING || current == STOPPING || current == SHUTTING_DOWN;
     }
 
     public ServiceState getState() {
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2023 zoukang, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package zk.js.engine.event;
+
+import lombok.Getter;
+import lombok.ToString;
+
+import zk.js.engine.job.Job;
+
+/**
+ * 任务状态变化事件，只包含任务的标识信息而不引用Job本身，避免监听器处理慢时长时间持有已经结束的任务
+ */
+@Getter
+@ToString
+public class JobEvent {
+
+    private final Type type;
+
+    private final String jobId;
+
+    private final String jobDefinitionId;
+
+    private final String jobType;
+
+    /**
+     * 任务退出事件的退出类型，其他事件为null
+     */
+    private final Job.ExitType exitType;
+
+    private final int attempt;
+
+    private final long timestamp;
+
+    public JobEvent(Type type, Job job) {
+        this.type = type;
+        this.jobId = job.getId();
+        this.jobDefinitionId = job.jobDefinition().getId();
+        this.jobType = job.jobDefinition().getType();
+        this.exitType = job.getStatus().getExitType();
+        this.attempt = job.getStatus().getAttempt();
+        this.timestamp = System.currentTimeMillis();
+    }
+
+    public enum Type {
+        /**
+         * 任务已经提交给引擎，等待执行
+         */
+        SUBMITTED,
+
+        /**
+         * 任务开始在工作线程上执行，失败重试时每次执行都会产生一次
+         */
+        STARTED,
+
+        SUSPENDED,
+
+        RESUMED,
+
+        /**
+         * 正常结束
+         */
+        FINISHED,
+
+        /**
+         * 执行失败，并且不再重试
+         */
+        FAILED,
+
+        /**
+         * 被手动停止或者执行超时，具体原因见exitType
+         */
+        STOPPED,
+
+        /**
+         * 转交给其他节点执行，本节点不会再产生此任务的事件
+         */
+        TRANSFERRED
+    }
+
+}
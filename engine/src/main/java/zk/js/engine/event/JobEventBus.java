@@ -0,0 +1,176 @@
+/*
+ * Copyright 2023 zoukang, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package zk.js.engine.event;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+
+import zk.js.engine.common.BoundedRingBuffer;
+
+/**
+ * 任务事件总线，每个监听器有自己的有界环形队列和投递线程，
+ * 发布事件只是把事件放入各个队列，队列满时丢弃事件并计数，因此处理慢的监听器不会拖慢任务的启动
+ */
+@Slf4j
+public class JobEventBus {
+
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+
+    /**
+     * 之后添加的监听器的队列容量
+     */
+    @Getter
+    @Setter
+    private int bufferCapacity = 8192;
+
+    /**
+     * 一次最多投递给监听器的事件数量
+     */
+    @Getter
+    @Setter
+    private int maxBatchSize = 256;
+
+    public void addListener(JobEventListener listener) {
+        Objects.requireNonNull(listener);
+        Subscription subscription = new Subscription(listener, bufferCapacity, maxBatchSize);
+        subscriptions.add(subscription);
+        subscription.thread.start();
+    }
+
+    public void removeListener(JobEventListener listener) {
+        for (Subscription subscription : subscriptions) {
+            if (subscription.listener == listener) {
+                subscriptions.remove(subscription);
+                subscription.close();
+            }
+        }
+    }
+
+    public boolean hasListeners() {
+        return !subscriptions.isEmpty();
+    }
+
+    public void publish(JobEvent event) {
+        for (Subscription subscription : subscriptions) {
+            subscription.offer(event);
+        }
+    }
+
+    /**
+     * 因为监听器的队列已满而被丢弃的事件总数
+     */
+    public long getDroppedEventCount() {
+        long count = 0L;
+        for (Subscription subscription : subscriptions) {
+            count += subscription.dropped.get();
+        }
+        return count;
+    }
+
+    /**
+     * 移除所有监听器，已经在队列中的事件会投递完再退出
+     */
+    public void close() {
+        for (Subscription subscription : subscriptions) {
+            subscriptions.remove(subscription);
+            subscription.close();
+        }
+    }
+
+    private static final class Subscription implements Runnable {
+
+        private final JobEventListener listener;
+
+        private final BoundedRingBuffer<JobEvent> buffer;
+
+        private final int maxBatchSize;
+
+        private final Thread thread;
+
+        private final AtomicLong dropped = new AtomicLong();
+
+        private volatile boolean running = true;
+
+        private volatile boolean waiting;
+
+        Subscription(JobEventListener listener, int bufferCapacity, int maxBatchSize) {
+            this.listener = listener;
+            this.buffer = new BoundedRingBuffer<>(bufferCapacity);
+            this.maxBatchSize = Math.max(1, maxBatchSize);
+            this.thread = new Thread(this, "job-event-" + listener.getClass().getSimpleName());
+            this.thread.setDaemon(true);
+        }
+
+        void offer(JobEvent event) {
+            if (!buffer.offer(event)) {
+                if (dropped.getAndIncrement() == 0L) {
+                    log.warn("Event buffer of listener {} is full, events are dropped.", listener);
+                }
+                return;
+            }
+            if (waiting) {
+                LockSupport.unpark(thread);
+            }
+        }
+
+        void close() {
+            running = false;
+            LockSupport.unpark(thread);
+        }
+
+        @Override
+        public void run() {
+            List<JobEvent> batch = new ArrayList<>(Math.min(maxBatchSize, buffer.capacity()));
+            while (running) {
+                if (buffer.drainTo(batch, maxBatchSize) == 0) {
+                    waiting = true;
+                    if (buffer.isEmpty() && running) {
+                        LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                    }
+                    waiting = false;
+                    continue;
+                }
+                deliver(batch);
+            }
+            while (buffer.drainTo(batch, maxBatchSize) > 0) {
+                deliver(batch);
+            }
+        }
+
+        private void deliver(List<JobEvent> batch) {
+            try {
+                listener.onEvents(List.copyOf(batch));
+            } catch (Exception exception) {
+                log.error("Job event listener {} failed to handle {} events.", listener, batch.size(), exception);
+            } finally {
+                batch.clear();
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright 2023 zoukang, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package zk.js.engine.event;
+
+import java.util.List;
+
+/**
+ * 任务事件监听器，在事件总线为每个监听器创建的线程中被调用，同一个监听器不会被并发调用
+ */
+public interface JobEventListener {
+
+    void onEvent(JobEvent event);
+
+    /**
+     * 批量处理事件，事件较多时一次会投递多个，需要批量导出事件的监听器可以重写此方法
+     */
+    default void onEvents(List<JobEvent> events) {
+        for (JobEvent event : events) {
+            onEvent(event);
+        }
+    }
+
+}
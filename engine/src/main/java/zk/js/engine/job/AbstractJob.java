@@ -15,8 +15,15 @@
  */
 package zk.js.engine.job;
 
+import java.util.Objects;
+import java.util.function.Supplier;
+
+import lombok.extern.slf4j.Slf4j;
+
 import zk.js.engine.common.BaseLifecycleService;
+import zk.js.engine.output.JobOutput;
 
+@Slf4j
 public abstract class AbstractJob extends BaseLifecycleService implements Job {
 
     protected String id;
@@ -25,6 +32,18 @@ public abstract class AbstractJob extends BaseLifecycleService implements Job {
 
     protected final Status status = new Status();
 
+    protected final CancellationToken cancellationToken = new CancellationToken();
+
+    protected volatile boolean suspendRequested;
+
+    protected volatile boolean suspendAcknowledged;
+
+    protected JobStore jobStore;
+
+    private Supplier<JobOutput> outputFactory;
+
+    private JobOutput output;
+
     protected AbstractJob(JobDefinition jobDefinition) {
         this.jobDefinition = jobDefinition;
     }
@@ -54,9 +73,118 @@ public abstract class AbstractJob extends BaseLifecycleService implements Job {
         return status;
     }
 
+    @Override
+    public CancellationToken getCancellationToken() {
+        return cancellationToken;
+    }
+
+    /**
+     * 任务是否已经被要求停止，run方法中应定期检查
+     */
+    protected boolean isCancelled() {
+        return cancellationToken.isCancellationRequested();
+    }
+
+    @Override
+    public boolean isSuspendRequested() {
+        return suspendRequested;
+    }
+
+    @Override
+    public void setSuspendRequested(boolean suspendRequested) {
+        this.suspendRequested = suspendRequested;
+        if (!suspendRequested) {
+            this.suspendAcknowledged = false;
+        }
+    }
+
+    @Override
+    public boolean isSuspendAcknowledged() {
+        return suspendAcknowledged;
+    }
+
+    @Override
+    public void setJobStore(JobStore jobStore) {
+        this.jobStore = jobStore;
+    }
+
+    @Override
+    public void setOutput(Supplier<JobOutput> output) {
+        this.outputFactory = output;
+        this.output = null;
+    }
+
+    /**
+     * 输出一条结果或者日志，可以通过JobEngine.readJobOutput实时读取，任务结束之后的输出被丢弃；
+     * 第一次输出时才创建JobOutput，不输出的任务不占用输出的资源
+     */
+    protected void output(String record) {
+        JobOutput current = output;
+        if (Objects.isNull(current) && Objects.nonNull(outputFactory)) {
+            current = outputFactory.get();
+            output = current;
+        }
+        if (Objects.nonNull(current)) {
+            current.append(record);
+        }
+    }
+
+    /**
+     * 保存任务进度，长时间运行的任务应定期调用，以便失败重试或者挂起后恢复时不用从头开始
+     *
+     * @return 是否保存成功
+     */
+    protected boolean checkpoint(String checkpoint) {
+        if (Objects.isNull(jobStore)) {
+            log.warn("No job store for job with id = {}, checkpoint ignored.", id);
+            return false;
+        }
+        try {
+            jobStore.saveCheckpoint(id, checkpoint);
+            return true;
+        } catch (JobStoreException exception) {
+            log.error("Failed to save checkpoint of job with id = {}", id, exception);
+            return false;
+        }
+    }
+
+    /**
+     * 有挂起请求时保存进度并返回true，run方法此时应立即返回，恢复执行时会再次调用run
+     */
+    protected boolean suspendIfRequested(String checkpoint) {
+        if (!suspendRequested || !checkpoint(checkpoint)) {
+            return false;
+        }
+        suspendAcknowledged = true;
+        return true;
+    }
+
+    /**
+     * 获取最后保存的任务进度，run方法开始时调用，以便从上次的进度继续执行
+     */
+    protected String lastCheckpoint() {
+        if (Objects.isNull(jobStore)) {
+            return null;
+        }
+        try {
+            return jobStore.getCheckpoint(id);
+        } catch (JobStoreException exception) {
+            log.error("Failed to get checkpoint of job with id = {}", id, exception);
+            return null;
+        }
+    }
+
     @Override
     protected void doStart() {
         run();
     }
 
+    /**
+     * 挂起的任务恢复时从最后保存的进度继续执行
+     */
+    @Override
+    protected void doResume() {
+        run();
+    }
+
 }
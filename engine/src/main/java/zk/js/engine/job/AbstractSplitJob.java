@@ -0,0 +1,236 @@
+/*
+ * Copyright 2023 zoukang, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package zk.js.engine.job;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * 数据并行的任务：split把输入切分成多个分片，各个分片在ForkJoinPool上并行执行process，
+ * 全部成功后把各个分片的结果按顺序交给merge合并
+ * <p>
+ * 每个分片的状态和进度保存在Status的extraInfo中，状态每个分片一个字符，取值和MicroBatchJob相同，
+ * 进度为0到100的整数，process中可以通过progress更新。extraInfo只在执行run的线程中刷新，
+ * 分片执行期间每PROGRESS_REFRESH_MILLIS毫秒刷新一次，getStatus没有副作用，读取状态的线程不会和刷新冲突。
+ * 有分片失败时其余还没有开始的分片不再执行，任务失败；失败重试时不会重新切分，已经成功的分片也不会重新执行
+ */
+public abstract class AbstractSplitJob<P, R> extends AbstractJob {
+
+    /**
+     * extraInfo中保存各个分片状态的key
+     */
+    public static final String PARTITION_STATES = "partitionStates";
+
+    /**
+     * extraInfo中保存各个分片进度的key，值为List&lt;Integer&gt;
+     */
+    public static final String PARTITION_PROGRESS = "partitionProgress";
+
+    /**
+     * 分片执行期间刷新extraInfo的间隔
+     */
+    public static final long PROGRESS_REFRESH_MILLIS = 1000L;
+
+    private static final VarHandle PARTITION_STATE = MethodHandles.arrayElementVarHandle(byte[].class);
+
+    private List<P> partitions;
+
+    private Object[] results;
+
+    private volatile byte[] partitionStates = new byte[0];
+
+    private volatile AtomicIntegerArray partitionProgress = new AtomicIntegerArray(0);
+
+    private volatile Exception failure;
+
+    protected AbstractSplitJob(JobDefinition jobDefinition) {
+        super(jobDefinition);
+    }
+
+    protected AbstractSplitJob(JobDefinition jobDefinition, String id) {
+        super(jobDefinition, id);
+    }
+
+    /**
+     * 把输入切分成多个分片，每次执行只调用一次
+     */
+    protected abstract List<P> split() throws Exception;
+
+    /**
+     * 处理一个分片，在ForkJoinPool的线程中调用，不同分片的调用是并发的
+     *
+     * @param index 分片的序号，用于更新进度
+     */
+    protected abstract R process(int index, P partition) throws Exception;
+
+    /**
+     * 所有分片都成功后调用，results和split返回的分片顺序一致
+     */
+    protected abstract void merge(List<R> results) throws Exception;
+
+    /**
+     * 执行分片的线程池，默认使用公共的ForkJoinPool
+     */
+    protected ForkJoinPool forkJoinPool() {
+        return ForkJoinPool.commonPool();
+    }
+
+    /**
+     * 更新分片的进度，取值0到100
+     */
+    protected void progress(int index, int percent) {
+        partitionProgress.set(index, Math.max(0, Math.min(100, percent)));
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void run() {
+        if (Objects.isNull(partitions)) {
+            try {
+                partitions = List.copyOf(split());
+            } catch (Exception exception) {
+                throw new IllegalStateException("Split job with id = " + id + " failed", exception);
+            }
+            results = new Object[partitions.size()];
+            byte[] states = new byte[partitions.size()];
+            Arrays.fill(states, MicroBatchJob.PENDING);
+            partitionProgress = new AtomicIntegerArray(partitions.size());
+            partitionStates = states;
+        } else {
+            // 失败重试，只重新执行没有成功的分片
+            for (int i = 0; i < partitionStates.length; ++i) {
+                if ((byte) PARTITION_STATE.getVolatile(partitionStates, i) != MicroBatchJob.FINISHED) {
+                    partitionProgress.set(i, 0);
+                    PARTITION_STATE.setVolatile(partitionStates, i, MicroBatchJob.PENDING);
+                }
+            }
+        }
+        failure = null;
+        refreshPartitionInfo();
+        try {
+            if (!partitions.isEmpty()) {
+                awaitPartitions(forkJoinPool().submit(new PartitionAction(0, partitions.size())));
+            }
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            return;
+        } catch (ExecutionException exception) {
+            throw new IllegalStateException("Job with id = " + id + " failed", exception.getCause());
+        } finally {
+            refreshPartitionInfo();
+        }
+        if (Objects.nonNull(failure)) {
+            throw new IllegalStateException("Partition of job with id = " + id + " failed", failure);
+        }
+        if (isCancelled()) {
+            return;
+        }
+        List<R> partialResults = new ArrayList<>(results.length);
+        for (Object result : results) {
+            partialResults.add((R) result);
+        }
+        try {
+            merge(partialResults);
+        } catch (Exception exception) {
+            throw new IllegalStateException("Merge results of job with id = " + id + " failed", exception);
+        }
+    }
+
+    /**
+     * 等待所有分片执行完，等待期间定期刷新extraInfo中的分片状态和进度
+     */
+    private void awaitPartitions(ForkJoinTask<?> task) throws InterruptedException, ExecutionException {
+        while (true) {
+            try {
+                task.get(PROGRESS_REFRESH_MILLIS, TimeUnit.MILLISECONDS);
+                return;
+            } catch (TimeoutException exception) {
+                refreshPartitionInfo();
+            }
+        }
+    }
+
+    private void runPartition(int index) {
+        if (isCancelled() || Objects.nonNull(failure)) {
+            return;
+        }
+        if (!PARTITION_STATE.compareAndSet(partitionStates, index, MicroBatchJob.PENDING, MicroBatchJob.RUNNING)) {
+            return;
+        }
+        try {
+            results[index] = process(index, partitions.get(index));
+            partitionProgress.set(index, 100);
+            PARTITION_STATE.setVolatile(partitionStates, index, MicroBatchJob.FINISHED);
+        } catch (Exception exception) {
+            failure = exception;
+            PARTITION_STATE.setVolatile(partitionStates, index, MicroBatchJob.FAILED);
+        }
+    }
+
+    /**
+     * 只在执行run的线程中调用
+     */
+    private void refreshPartitionInfo() {
+        byte[] states = partitionStates;
+        byte[] snapshot = new byte[states.length];
+        List<Integer> progress = new ArrayList<>(states.length);
+        for (int i = 0; i < states.length; ++i) {
+            snapshot[i] = (byte) PARTITION_STATE.getVolatile(states, i);
+            progress.add(partitionProgress.get(i));
+        }
+        status.getExtraInfo().put(PARTITION_STATES, new String(snapshot, StandardCharsets.ISO_8859_1));
+        status.getExtraInfo().put(PARTITION_PROGRESS, progress);
+    }
+
+    /**
+     * 按分片序号二分，直到只剩一个分片时在当前线程上执行
+     */
+    private class PartitionAction extends RecursiveAction {
+
+        private final int from;
+
+        private final int to;
+
+        PartitionAction(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                runPartition(from);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            ForkJoinTask.invokeAll(new PartitionAction(from, middle), new PartitionAction(middle, to));
+        }
+
+    }
+
+}
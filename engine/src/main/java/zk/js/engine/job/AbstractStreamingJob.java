@@ -0,0 +1,327 @@
+/*
+ * Copyright 2023 zoukang, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package zk.js.engine.job;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+
+import zk.js.engine.common.BoundedRingBuffer;
+
+/**
+ * 持续运行的流式任务：记录可以由外部生产者通过offer推入，也可以由任务自己通过pull从数据源拉取，
+ * 经过process处理后先放入输出缓冲区，再成批交给emit写出
+ * <p>
+ * 输入队列有界，满了之后offer返回false，pull也只拉取队列剩余的容量，生产者因此感知到背压；
+ * 输出缓冲区满了之后同步调用emit，写出变慢时处理也随之变慢。
+ * <p>
+ * 已经写出的拉取记录数作为offset定期保存到JobStore，任务恢复或者失败重试时从最后保存的offset继续拉取，
+ * 因此拉取的记录至少被处理一次；推入的记录和拉取的记录可以混在一起处理，但是不计入offset，只计入recordsIn和recordsOut。
+ * 执行失败时丢弃输入队列和输出缓冲区中的记录，pull的位置回退到已经写出的offset，重试时从这里重新拉取；
+ * 推入的记录无法重新获取，失败时还没有写出的推入记录会丢失。
+ * offset等统计信息只在执行run的线程中写入extraInfo，getStatus没有副作用。没有数据或者连续处理了maxRecordsPerRun条记录后run方法返回，
+ * 由引擎延迟一段时间后继续执行，大量空闲的流式任务不会各自占用一个线程
+ */
+@Slf4j
+public abstract class AbstractStreamingJob<I, O> extends AbstractJob {
+
+    public static final String OFFSET = "offset";
+
+    public static final String RECORDS_IN = "recordsIn";
+
+    public static final String RECORDS_OUT = "recordsOut";
+
+    /**
+     * 每次从输入队列取出并处理的记录数
+     */
+    @Getter
+    @Setter
+    private int batchSize = 256;
+
+    /**
+     * 每次执行最多处理的记录数，之后让出线程
+     */
+    @Getter
+    @Setter
+    private int maxRecordsPerRun = 65536;
+
+    /**
+     * 没有数据时多久之后再次执行
+     */
+    @Getter
+    @Setter
+    private long idleDelayMillis = 100L;
+
+    /**
+     * 保存offset的间隔
+     */
+    @Getter
+    @Setter
+    private long checkpointIntervalMillis = 1000L;
+
+    /**
+     * 拉取的记录包装成PulledRecord放入，和推入的记录区分开，写出之后只有拉取的记录计入offset
+     */
+    private final BoundedRingBuffer<Object> input;
+
+    private final int outputCapacity;
+
+    private final List<O> outputBuffer;
+
+    @Setter
+    private StreamingMetrics metrics;
+
+    private volatile boolean inputClosed;
+
+    private volatile long continueDelayMillis = -1L;
+
+    private boolean restored;
+
+    /**
+     * 下一条要从数据源拉取的记录的offset
+     */
+    private long pullOffset;
+
+    /**
+     * 已经写出的拉取记录数，输出缓冲区中的记录写出之后才计入，推入的记录不计入
+     */
+    private volatile long committedOffset;
+
+    /**
+     * 已经处理但是结果还在输出缓冲区中的输入记录数，失败时作为丢弃的记录数
+     */
+    private int uncommitted;
+
+    /**
+     * uncommitted中拉取的记录数
+     */
+    private int uncommittedPulled;
+
+    private volatile long recordsIn;
+
+    private volatile long recordsOut;
+
+    private long lastCheckpointMillis;
+
+    private long lastCheckpointOffset = -1L;
+
+    protected AbstractStreamingJob(JobDefinition jobDefinition) {
+        this(jobDefinition, 1024, 1024);
+    }
+
+    protected AbstractStreamingJob(JobDefinition jobDefinition, int inputCapacity, int outputCapacity) {
+        super(jobDefinition);
+        this.input = new BoundedRingBuffer<>(inputCapacity);
+        this.outputCapacity = outputCapacity;
+        this.outputBuffer = new ArrayList<>(outputCapacity);
+    }
+
+    /**
+     * 从数据源拉取从offset开始的最多maxRecords条记录，没有数据时返回空列表，只使用offer推入数据的任务不需要重写
+     */
+    protected List<I> pull(long offset, int maxRecords) throws Exception {
+        return List.of();
+    }
+
+    /**
+     * 处理一条记录，返回null表示过滤掉这条记录
+     */
+    protected abstract O process(I record) throws Exception;
+
+    /**
+     * 写出一批处理结果，返回之后这些结果对应的输入记录视为已经处理完成
+     */
+    protected abstract void emit(List<O> records) throws Exception;
+
+    /**
+     * 数据源是否已经结束，结束之后处理完剩余的记录任务就正常结束，默认在closeInput之后结束
+     */
+    protected boolean isEndOfStream() {
+        return inputClosed;
+    }
+
+    /**
+     * 推入一条记录，输入队列满了或者任务已经结束时返回false，调用方应稍后重试
+     */
+    public boolean offer(I record) {
+        return !inputClosed && Objects.isNull(status.getExitType()) && input.offer(record);
+    }
+
+    /**
+     * 不再推入新的记录，处理完队列中剩余的记录后任务结束
+     */
+    public void closeInput() {
+        inputClosed = true;
+    }
+
+    @Override
+    public long getContinueDelayMillis() {
+        return continueDelayMillis;
+    }
+
+    @Override
+    public void run() {
+        continueDelayMillis = -1L;
+        if (!restored) {
+            String checkpoint = lastCheckpoint();
+            pullOffset = Objects.isNull(checkpoint) ? 0L : Long.parseLong(checkpoint);
+            committedOffset = pullOffset;
+            lastCheckpointOffset = pullOffset;
+            lastCheckpointMillis = System.currentTimeMillis();
+            restored = true;
+        }
+        List<Object> batch = new ArrayList<>(batchSize);
+        int processed = 0;
+        try {
+            while (!isCancelled()) {
+                if (suspendRequested) {
+                    flush();
+                    if (suspendIfRequested(String.valueOf(committedOffset))) {
+                        return;
+                    }
+                }
+                pullIntoInput();
+                batch.clear();
+                if (input.drainTo(batch, batchSize) == 0) {
+                    flush();
+                    saveCheckpoint();
+                    if (!isEndOfStream()) {
+                        continueDelayMillis = idleDelayMillis;
+                    }
+                    return;
+                }
+                recordsIn += batch.size();
+                if (Objects.nonNull(metrics)) {
+                    metrics.recordIn(batch.size());
+                }
+                for (Object element : batch) {
+                    O result = process(unwrap(element));
+                    if (Objects.nonNull(result)) {
+                        if (outputBuffer.size() >= outputCapacity) {
+                            flush();
+                        }
+                        outputBuffer.add(result);
+                    }
+                    ++uncommitted;
+                    if (element instanceof PulledRecord) {
+                        ++uncommittedPulled;
+                    }
+                }
+                if (outputBuffer.size() >= batchSize) {
+                    flush();
+                }
+                if (System.currentTimeMillis() - lastCheckpointMillis >= checkpointIntervalMillis) {
+                    flush();
+                    saveCheckpoint();
+                }
+                processed += batch.size();
+                if (processed >= maxRecordsPerRun) {
+                    flush();
+                    continueDelayMillis = 0L;
+                    return;
+                }
+            }
+        } catch (Exception exception) {
+            rewind();
+            throw new IllegalStateException("Streaming job with id = " + id + " failed at offset " + committedOffset, exception);
+        } finally {
+            refreshStreamInfo();
+        }
+    }
+
+    /**
+     * 执行失败后丢弃还没有写出的记录，下次执行从committedOffset重新拉取，避免跳过没有处理完的记录
+     */
+    private void rewind() {
+        int dropped = input.clear() + uncommitted;
+        outputBuffer.clear();
+        uncommitted = 0;
+        uncommittedPulled = 0;
+        pullOffset = committedOffset;
+        if (dropped > 0) {
+            log.warn("Streaming job with id = {} dropped {} unwritten records, rewind to offset {}", id, dropped, committedOffset);
+        }
+    }
+
+    /**
+     * 只在执行run的线程中调用
+     */
+    private void refreshStreamInfo() {
+        status.getExtraInfo().put(OFFSET, committedOffset);
+        status.getExtraInfo().put(RECORDS_IN, recordsIn);
+        status.getExtraInfo().put(RECORDS_OUT, recordsOut);
+    }
+
+    private void pullIntoInput() throws Exception {
+        int room = Math.min(batchSize, input.capacity() - input.size());
+        if (room <= 0) {
+            return;
+        }
+        List<I> records = pull(pullOffset, room);
+        for (I record : records) {
+            if (!input.offer(new PulledRecord<>(record))) {
+                // 推入的记录占用了剩余的容量，剩下的记录下次重新拉取
+                break;
+            }
+            ++pullOffset;
+        }
+    }
+
+    private void flush() throws Exception {
+        if (!outputBuffer.isEmpty()) {
+            emit(outputBuffer);
+            recordsOut += outputBuffer.size();
+            if (Objects.nonNull(metrics)) {
+                metrics.recordOut(outputBuffer.size());
+            }
+            outputBuffer.clear();
+        }
+        committedOffset += uncommittedPulled;
+        uncommitted = 0;
+        uncommittedPulled = 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    private I unwrap(Object element) {
+        return element instanceof PulledRecord<?> pulled ? (I) pulled.record() : (I) element;
+    }
+
+    /**
+     * 只保存已经写出的offset，输出缓冲区中的记录在任务恢复后会被重新处理
+     */
+    private void saveCheckpoint() {
+        long now = System.currentTimeMillis();
+        if (committedOffset == lastCheckpointOffset) {
+            lastCheckpointMillis = now;
+            return;
+        }
+        if (checkpoint(String.valueOf(committedOffset))) {
+            lastCheckpointOffset = committedOffset;
+            lastCheckpointMillis = now;
+            if (Objects.nonNull(metrics)) {
+                metrics.checkpointSaved();
+            }
+        }
+    }
+
+    private record PulledRecord<I>(I record) {
+    }
+
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2023 zoukang, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package zk.js.engine.job;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * 协作式的任务取消标记，任务停止或者超时时由引擎设置，
+ * 长时间运行的任务应在Job.run中定期检查，或者通过onCancel注册回调来中止阻塞的操作
+ */
+@Slf4j
+public class CancellationToken {
+
+    private volatile String reason;
+
+    private final List<Runnable> callbacks = new CopyOnWriteArrayList<>();
+
+    /**
+     * 请求取消，只有第一次调用会生效并返回true
+     */
+    public boolean cancel(String reason) {
+        Objects.requireNonNull(reason);
+        synchronized (this) {
+            if (Objects.nonNull(this.reason)) {
+                return false;
+            }
+            this.reason = reason;
+        }
+        for (Runnable callback : callbacks) {
+            runCallback(callback);
+        }
+        return true;
+    }
+
+    public boolean isCancellationRequested() {
+        return Objects.nonNull(reason);
+    }
+
+    public String getReason() {
+        return reason;
+    }
+
+    public void throwIfCancellationRequested() {
+        if (Objects.nonNull(reason)) {
+            throw new CancellationException("Job cancelled: " + reason);
+        }
+    }
+
+    /**
+     * 注册取消时的回调，如果已经取消了则立即执行
+     */
+    public void onCancel(Runnable callback) {
+        Objects.requireNonNull(callback);
+        synchronized (this) {
+            if (Objects.isNull(reason)) {
+                callbacks.add(callback);
+                return;
+            }
+        }
+        runCallback(callback);
+    }
+
+    private static void runCallback(Runnable callback) {
+        try {
+            callback.run();
+        } catch (Exception exception) {
+            log.error("Exception in job cancellation callback.", exception);
+        }
+    }
+
+}
@@ -0,0 +1,321 @@
+/*
+ * Copyright 2023 zoukang, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package zk.js.engine.job;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+
+import zk.js.engine.common.ServiceState;
+
+/**
+ * 内存中的紧凑JobStore，适用于需要跟踪大量任务的场景：
+ * 每个任务分配一个槽位，时间戳、执行次数、服务状态和退出状态按列保存在ByteBuffer中，可以选择放在堆外，
+ * 任务id通过开放寻址的int数组索引到槽位，不需要为每个任务保留Job、Status和extraInfo对象
+ * <p>
+ * 完整的JobDefinition只在任务结束之前保留，用于恢复任务，结束之后只保留定义id和类型，checkpoint也随之删除；
+ * extraInfo只有不为空时才保留一份拷贝，不保存JobTimeline。getJob每次都根据各列的值创建一个新的只读Job对象
+ * <p>
+ * 只压缩JobStore中保存的任务记录，引擎中正在执行的任务仍然是完整的Job对象，
+ * 同时执行的任务数受线程池和准入控制限制，结束之后就只剩下这里的紧凑记录
+ */
+public class CompactJobStore implements JobStore {
+
+    private static final int START_TIMESTAMP_BYTES = Long.BYTES;
+
+    private static final int STOP_TIMESTAMP_BYTES = Long.BYTES;
+
+    private final boolean offHeap;
+
+    private final StampedLock lock = new StampedLock();
+
+    private final Map<String, String> checkpoints = new ConcurrentHashMap<>(4);
+
+    /**
+     * 还没有结束的任务，恢复时只遍历这些任务，不需要扫描所有槽位
+     */
+    private final Set<String> unfinishedJobIds = ConcurrentHashMap.newKeySet();
+
+    private int size;
+
+    private String[] ids;
+
+    private String[] definitionIds;
+
+    private String[] jobTypes;
+
+    private JobDefinition[] definitions;
+
+    private Map<String, Object>[] extraInfos;
+
+    private ByteBuffer startTimestamps;
+
+    private ByteBuffer stopTimestamps;
+
+    private ByteBuffer attempts;
+
+    /**
+     * 服务状态和退出状态的ordinal加1，0表示null
+     */
+    private ByteBuffer serviceStates;
+
+    private ByteBuffer exitTypes;
+
+    /**
+     * 开放寻址的索引，保存槽位加1，0表示空
+     */
+    private int[] index;
+
+    public CompactJobStore() {
+        this(false, 1024);
+    }
+
+    /**
+     * @param offHeap         数值列是否放在堆外
+     * @param initialCapacity 初始槽位数，不够时翻倍
+     */
+    public CompactJobStore(boolean offHeap, int initialCapacity) {
+        this.offHeap = offHeap;
+        allocate(Math.max(16, initialCapacity));
+        this.index = new int[tableSizeFor(ids.length)];
+    }
+
+    @Override
+    public void saveJob(Job job) {
+        Objects.requireNonNull(job);
+        long stamp = lock.writeLock();
+        try {
+            write(job);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        if (Objects.nonNull(job.getStatus().getExitType())) {
+            checkpoints.remove(job.getId());
+        }
+    }
+
+    /**
+     * 所有任务在一次加锁中写入
+     */
+    @Override
+    public void saveJobs(Collection<Job> jobs) {
+        long stamp = lock.writeLock();
+        try {
+            for (Job job : jobs) {
+                write(Objects.requireNonNull(job));
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        for (Job job : jobs) {
+            if (Objects.nonNull(job.getStatus().getExitType())) {
+                checkpoints.remove(job.getId());
+            }
+        }
+    }
+
+    private void write(Job job) {
+        Job.Status status = job.getStatus();
+        int slot = find(job.getId());
+        if (slot < 0) {
+            slot = add(job.getId());
+        }
+        JobDefinition jobDefinition = job.jobDefinition();
+        definitionIds[slot] = jobDefinition.getId();
+        jobTypes[slot] = jobDefinition.getType();
+        definitions[slot] = Objects.isNull(status.getExitType()) ? jobDefinition : null;
+        extraInfos[slot] = status.getExtraInfo().isEmpty() ? null : new HashMap<>(status.getExtraInfo());
+        startTimestamps.putLong(slot * START_TIMESTAMP_BYTES, status.getStartTimestamp());
+        stopTimestamps.putLong(slot * STOP_TIMESTAMP_BYTES, status.getStopTimestamp());
+        attempts.putInt(slot * Integer.BYTES, status.getAttempt());
+        serviceStates.put(slot, Objects.isNull(status.getServiceState()) ? 0 : (byte) (status.getServiceState().ordinal() + 1));
+        exitTypes.put(slot, Objects.isNull(status.getExitType()) ? 0 : (byte) (status.getExitType().ordinal() + 1));
+        if (Objects.isNull(status.getExitType())) {
+            unfinishedJobIds.add(job.getId());
+        } else {
+            unfinishedJobIds.remove(job.getId());
+        }
+    }
+
+    @Override
+    public Job getJob(String jobId) {
+        Objects.requireNonNull(jobId);
+        long stamp = lock.readLock();
+        try {
+            int slot = find(jobId);
+            return slot < 0 ? null : materialize(slot);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public long getJobCount() {
+        long stamp = lock.readLock();
+        try {
+            return size;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * 每个分区只遍历还没有结束的任务，每个任务单独在读锁内读取，回调在锁外进行，回调中可以保存任务
+     */
+    @Override
+    public void scanUnfinishedJobs(int partition, int partitionCount, Consumer<Job> consumer) {
+        for (String jobId : unfinishedJobIds) {
+            if (JobStore.partitionOf(jobId, partitionCount) != partition) {
+                continue;
+            }
+            Job job = getJob(jobId);
+            if (Objects.nonNull(job) && Objects.isNull(job.getStatus().getExitType())) {
+                consumer.accept(job);
+            }
+        }
+    }
+
+    @Override
+    public void saveCheckpoint(String jobId, String checkpoint) {
+        Objects.requireNonNull(jobId);
+        Objects.requireNonNull(checkpoint);
+        checkpoints.put(jobId, checkpoint);
+    }
+
+    @Override
+    public String getCheckpoint(String jobId) {
+        Objects.requireNonNull(jobId);
+        return checkpoints.get(jobId);
+    }
+
+    private Job materialize(int slot) {
+        JobDefinition jobDefinition = definitions[slot];
+        if (Objects.isNull(jobDefinition)) {
+            jobDefinition = new JobDefinition();
+            jobDefinition.setId(definitionIds[slot]);
+            jobDefinition.setType(jobTypes[slot]);
+        }
+        StoredJob job = new StoredJob(jobDefinition, ids[slot]);
+        Job.Status status = job.getStatus();
+        status.setStartTimestamp(startTimestamps.getLong(slot * START_TIMESTAMP_BYTES));
+        status.setStopTimestamp(stopTimestamps.getLong(slot * STOP_TIMESTAMP_BYTES));
+        status.setAttempt(attempts.getInt(slot * Integer.BYTES));
+        byte serviceState = serviceStates.get(slot);
+        status.setServiceState(serviceState == 0 ? null : ServiceState.values()[serviceState - 1]);
+        byte exitType = exitTypes.get(slot);
+        status.setExitType(exitType == 0 ? null : Job.ExitType.values()[exitType - 1]);
+        if (Objects.nonNull(extraInfos[slot])) {
+            status.setExtraInfo(new HashMap<>(extraInfos[slot]));
+        }
+        return job;
+    }
+
+    private int find(String jobId) {
+        int mask = index.length - 1;
+        for (int i = hash(jobId) & mask; index[i] != 0; i = (i + 1) & mask) {
+            int slot = index[i] - 1;
+            if (ids[slot].equals(jobId)) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    private int add(String jobId) {
+        if (size == ids.length) {
+            allocate(ids.length << 1);
+        }
+        int slot = size++;
+        ids[slot] = jobId;
+        if (size * 2 > index.length) {
+            rebuildIndex(index.length << 1);
+        } else {
+            insert(slot);
+        }
+        return slot;
+    }
+
+    private void insert(int slot) {
+        int mask = index.length - 1;
+        int i = hash(ids[slot]) & mask;
+        while (index[i] != 0) {
+            i = (i + 1) & mask;
+        }
+        index[i] = slot + 1;
+    }
+
+    private void rebuildIndex(int tableSize) {
+        index = new int[tableSize];
+        for (int slot = 0; slot < size; ++slot) {
+            insert(slot);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void allocate(int capacity) {
+        ids = Objects.isNull(ids) ? new String[capacity] : Arrays.copyOf(ids, capacity);
+        definitionIds = Objects.isNull(definitionIds) ? new String[capacity] : Arrays.copyOf(definitionIds, capacity);
+        jobTypes = Objects.isNull(jobTypes) ? new String[capacity] : Arrays.copyOf(jobTypes, capacity);
+        definitions = Objects.isNull(definitions) ? new JobDefinition[capacity] : Arrays.copyOf(definitions, capacity);
+        extraInfos = Objects.isNull(extraInfos) ? new Map[capacity] : Arrays.copyOf(extraInfos, capacity);
+        startTimestamps = grow(startTimestamps, capacity * START_TIMESTAMP_BYTES);
+        stopTimestamps = grow(stopTimestamps, capacity * STOP_TIMESTAMP_BYTES);
+        attempts = grow(attempts, capacity * Integer.BYTES);
+        serviceStates = grow(serviceStates, capacity);
+        exitTypes = grow(exitTypes, capacity);
+    }
+
+    private ByteBuffer grow(ByteBuffer column, int bytes) {
+        ByteBuffer grown = offHeap ? ByteBuffer.allocateDirect(bytes) : ByteBuffer.allocate(bytes);
+        if (Objects.nonNull(column)) {
+            grown.put(0, column, 0, column.capacity());
+        }
+        return grown;
+    }
+
+    private static int hash(String jobId) {
+        int h = jobId.hashCode() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private static int tableSizeFor(int capacity) {
+        return Integer.highestOneBit(Math.max(2, capacity) - 1) << 2;
+    }
+
+    /**
+     * 从各列的值重新创建的任务，只用于查询状态和恢复任务，不能直接执行
+     */
+    private static final class StoredJob extends AbstractJob {
+
+        StoredJob(JobDefinition jobDefinition, String id) {
+            super(jobDefinition, id);
+        }
+
+        @Override
+        public void run() {
+            throw new IllegalStateException("Stored job with id = " + id + " can not be run.");
+        }
+
+    }
+
+}
@@ -18,11 +18,17 @@ package zk.js.engine.job;
 import java.lang.reflect.Constructor;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class DefaultJobConverter implements JobConverter {
 
     private final Map<String, String> jobTypes;
 
+    /**
+     * 已经解析过的构造器，避免每次转换都通过反射查找类和构造器
+     */
+    private final Map<String, Constructor<?>> constructors = new ConcurrentHashMap<>(4);
+
     public DefaultJobConverter(Map<String, String> jobTypes) {
         this.jobTypes = jobTypes;
     }
@@ -34,8 +40,12 @@ public class DefaultJobConverter implements JobConverter {
             throw new JobConverterException("Unsupported job type " + jobDefinition.getType());
         }
         try {
-            Class<?> clazz = Class.forName(className);
-            Constructor<?> constructor = clazz.getDeclaredConstructor(JobDefinition.class);
+            Constructor<?> constructor = constructors.get(className);
+            if (Objects.isNull(constructor)) {
+                Class<?> clazz = Class.forName(className);
+                constructor = clazz.getDeclaredConstructor(JobDefinition.class);
+                constructors.put(className, constructor);
+            }
             return (Job) constructor.newInstance(jobDefinition);
         } catch (ClassNotFoundException classNotFoundException) {
             throw new JobConverterException("No class named " + className + " found.");
@@ -15,14 +15,17 @@
  */
 package zk.js.engine.job;
 
+import java.io.Serializable;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.function.Supplier;
 
 import lombok.Getter;
 import lombok.Setter;
 
 import zk.js.engine.common.LifecycleService;
 import zk.js.engine.common.ServiceState;
+import zk.js.engine.output.JobOutput;
 
 public interface Job extends LifecycleService, Runnable {
 
@@ -34,9 +37,62 @@ public interface Job extends LifecycleService, Runnable {
 
     Status getStatus();
 
+    /**
+     * 任务被停止或者超时时会被设置为取消，run方法应定期检查以便及时退出；
+     * 默认每次返回新的标记，即不支持协作式取消，任务只能在cancelGraceMillis之后被中断
+     */
+    default CancellationToken getCancellationToken() {
+        return new CancellationToken();
+    }
+
+    /**
+     * 引擎要求任务挂起时设置为true，支持挂起的任务应保存checkpoint后从run方法返回；
+     * 默认不支持挂起，设置会被忽略，引擎据此拒绝挂起请求
+     */
+    default boolean isSuspendRequested() {
+        return false;
+    }
+
+    default void setSuspendRequested(boolean suspendRequested) {
+        // 不支持挂起
+    }
+
+    /**
+     * 任务响应了挂起请求，保存checkpoint后从run方法返回时为true，此时引擎挂起任务而不是认为任务已经结束
+     */
+    default boolean isSuspendAcknowledged() {
+        return false;
+    }
+
+    /**
+     * run方法正常返回时调用，大于等于0表示任务还没有结束，只是暂时让出线程，引擎在这么多毫秒之后再次执行；
+     * 持续运行的任务在空闲时通过它避免一直占用线程
+     */
+    default long getContinueDelayMillis() {
+        return -1L;
+    }
+
+    /**
+     * 引擎在启动任务前设置，任务通过它保存和读取checkpoint，不需要checkpoint的任务可以忽略
+     */
+    default void setJobStore(JobStore jobStore) {
+        // 不使用checkpoint
+    }
+
+    /**
+     * 引擎在启动任务前设置，任务第一次输出时通过它创建JobOutput，客户端可以实时读取输出的执行结果和日志，
+     * 任务结束之后返回null，没有输出的任务可以忽略
+     */
+    default void setOutput(Supplier<JobOutput> output) {
+        // 没有输出
+    }
+
+    /**
+     * 集群模式下任务状态会在节点之间传输，因此extraInfo中的值也应该是可以序列化的
+     */
     @Getter
     @Setter
-    class Status {
+    class Status implements Serializable {
 
         private long startTimestamp;
 
@@ -46,8 +102,18 @@ public interface Job extends LifecycleService, Runnable {
 
         private ExitType exitType;
 
+        /**
+         * 第几次执行，失败重试时递增
+         */
+        private int attempt = 1;
+
         private Map<String, Object> extraInfo = new HashMap<>(2);
 
+        /**
+         * 各个阶段的时间点和trace信息
+         */
+        private JobTimeline timeline = new JobTimeline();
+
     }
 
     enum ExitType {
@@ -64,7 +130,17 @@ public interface Job extends LifecycleService, Runnable {
         /**
          * 异常停止
          */
-        FAILED
+        FAILED,
+
+        /**
+         * 执行超时
+         */
+        TIMEOUT,
+
+        /**
+         * 还没有开始执行就转交给其他节点，本节点的记录不再更新，之后的状态以执行节点为准
+         */
+        TRANSFERRED
     }
 
 }
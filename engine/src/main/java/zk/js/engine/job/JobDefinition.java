@@ -32,4 +32,24 @@ public class JobDefinition implements Serializable {
 
     private String jsonConf;
 
+    /**
+     * 执行超时时间，单位毫秒，小于等于0表示不限制
+     */
+    private long timeoutMillis;
+
+    /**
+     * 失败后的重试策略，为null表示不重试
+     */
+    private RetryPolicy retryPolicy;
+
+    /**
+     * 引擎重启时如何处理还没有结束的任务，为null表示RecoveryPolicy.MARK_FAILED
+     */
+    private RecoveryPolicy recoveryPolicy;
+
+    /**
+     * 幂等键，客户端重试提交时使用相同的值，引擎在一段时间内对相同的幂等键只启动一个任务，为null表示不检查
+     */
+    private String idempotencyKey;
+
 }
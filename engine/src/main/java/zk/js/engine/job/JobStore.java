@@ -16,6 +16,9 @@
 
 package zk.js.engine.job;
 
+import java.util.Collection;
+import java.util.function.Consumer;
+
 /**
  * 用户保存历史Job信息
  */
@@ -23,8 +26,45 @@ public interface JobStore {
 
     void saveJob(Job job) throws JobStoreException;
 
+    /**
+     * 批量保存任务，引擎停止时用它一次保存所有任务的最终状态，支持批量写入的实现应重写此方法
+     */
+    default void saveJobs(Collection<Job> jobs) throws JobStoreException {
+        for (Job job : jobs) {
+            saveJob(job);
+        }
+    }
+
     Job getJob(String jobId) throws JobStoreException;
 
     long getJobCount() throws JobStoreException;
 
+    /**
+     * 逐个回调还没有结束（exitType为null）并且属于指定分区的任务，分区由partitionOf决定。
+     * 引擎启动时用多个线程分别遍历不同的分区来恢复任务，实现应以流的方式读取而不是一次把所有任务读到内存中。
+     * 默认不遍历任何任务，即不支持启动时恢复
+     */
+    default void scanUnfinishedJobs(int partition, int partitionCount, Consumer<Job> consumer) throws JobStoreException {
+        // 不支持恢复
+    }
+
+    /**
+     * 保存长时间运行的任务的进度，任务挂起或者重新执行后可以从这里恢复。
+     * 默认不保存，任务从挂起中恢复或者重新执行时从头开始
+     */
+    default void saveCheckpoint(String jobId, String checkpoint) throws JobStoreException {
+        // 不支持checkpoint
+    }
+
+    /**
+     * 获取任务最后保存的进度，没有保存过则返回null
+     */
+    default String getCheckpoint(String jobId) throws JobStoreException {
+        return null;
+    }
+
+    static int partitionOf(String jobId, int partitionCount) {
+        return Math.floorMod(jobId.hashCode(), partitionCount);
+    }
+
 }
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2023 zoukang, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package zk.js.engine.job;
+
+import java.io.Serializable;
+import java.time.Instant;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import lombok.Getter;
+
+/**
+ * 任务从提交到结束各个阶段的时间点，纳秒精度的unix时间，0表示没有经过这个阶段；
+ * 失败重试时DEQUEUED、STARTED和FINISHED记录的是最近一次执行。
+ * <p>
+ * 同时记录任务所属的trace，任务本身是trace中的一个span，相邻两个阶段之间的耗时可以导出为它的子span。
+ * 各个阶段由不同的线程记录，时间点保存在AtomicLongArray中，其他线程读取时总能看到最新写入的值
+ */
+public class JobTimeline implements Serializable {
+
+    public enum Stage {
+        /**
+         * 引擎收到任务，开始转换JobDefinition
+         */
+        SUBMITTED("submit"),
+
+        /**
+         * JobConverter转换完成
+         */
+        CONVERTED("convert"),
+
+        /**
+         * job.init完成
+         */
+        INITIALIZED("init"),
+
+        /**
+         * JobStore保存完成
+         */
+        PERSISTED("persist"),
+
+        /**
+         * 通过限流检查，提交给线程池
+         */
+        ADMITTED("admission"),
+
+        /**
+         * 线程池的工作线程开始处理
+         */
+        DEQUEUED("queue"),
+
+        /**
+         * 开始执行run方法
+         */
+        STARTED("start"),
+
+        /**
+         * 任务结束
+         */
+        FINISHED("run");
+
+        /**
+         * 从上一个阶段到这个阶段的过程
+         */
+        @Getter
+        private final String phase;
+
+        Stage(String phase) {
+            this.phase = phase;
+        }
+    }
+
+    private static final Stage[] STAGES = Stage.values();
+
+    private static final long ANCHOR_EPOCH_NANOS;
+
+    private static final long ANCHOR_NANO_TIME;
+
+    static {
+        Instant instant = Instant.now();
+        ANCHOR_NANO_TIME = System.nanoTime();
+        ANCHOR_EPOCH_NANOS = TimeUnit.SECONDS.toNanos(instant.getEpochSecond()) + instant.getNano();
+    }
+
+    private final AtomicLongArray timestamps = new AtomicLongArray(STAGES.length);
+
+    @Getter
+    private String traceId;
+
+    @Getter
+    private String spanId;
+
+    /**
+     * 为null表示任务是trace的根
+     */
+    @Getter
+    private String parentSpanId;
+
+    /**
+     * 跟随上游的采样标记，没有上游时为true
+     */
+    @Getter
+    private boolean sampled;
+
+    /**
+     * 纳秒精度的unix时间，用System.nanoTime计算相对启动时的偏移，在同一个进程内单调递增
+     */
+    public static long now() {
+        return ANCHOR_EPOCH_NANOS + (System.nanoTime() - ANCHOR_NANO_TIME);
+    }
+
+    public static Stage[] stages() {
+        return STAGES.clone();
+    }
+
+    public void mark(Stage stage) {
+        timestamps.set(stage.ordinal(), now());
+    }
+
+    public void mark(Stage stage, long epochNanos) {
+        timestamps.set(stage.ordinal(), epochNanos);
+    }
+
+    public long get(Stage stage) {
+        return timestamps.get(stage.ordinal());
+    }
+
+    /**
+     * 两个阶段之间的纳秒数，任何一个阶段没有记录时返回-1
+     */
+    public long elapsedNanos(Stage from, Stage to) {
+        long begin = get(from);
+        long end = get(to);
+        return begin == 0L || end == 0L ? -1L : end - begin;
+    }
+
+    public void setTrace(String traceId, String spanId, String parentSpanId, boolean sampled) {
+        this.traceId = traceId;
+        this.spanId = spanId;
+        this.parentSpanId = parentSpanId;
+        this.sampled = sampled;
+    }
+
+    /**
+     * 任务自己的span对应的traceparent，没有trace信息时返回null
+     */
+    public String traceParent() {
+        if (Objects.isNull(traceId) || Objects.isNull(spanId)) {
+            return null;
+        }
+        return "00-" + traceId + "-" + spanId + (sampled ? "-01" : "-00");
+    }
+
+}
@@ -17,16 +17,30 @@ package zk.js.engine.job;
 
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 
 public class MemoryJobStore implements JobStore {
 
     private final Map<String, Job> jobs = new ConcurrentHashMap<>(4);
 
+    private final Map<String, String> checkpoints = new ConcurrentHashMap<>(4);
+
+    /**
+     * 还没有结束的任务id，恢复时只遍历它们而不是所有历史任务
+     */
+    private final Set<String> unfinishedJobIds = ConcurrentHashMap.newKeySet();
+
     @Override
     public void saveJob(Job job) {
         Objects.requireNonNull(job);
         jobs.put(job.getId(), job);
+        if (Objects.isNull(job.getStatus().getExitType())) {
+            unfinishedJobIds.add(job.getId());
+        } else {
+            unfinishedJobIds.remove(job.getId());
+        }
     }
 
     @Override
@@ -40,4 +54,33 @@ public class MemoryJobStore implements JobStore {
         return jobs.size();
     }
 
+    /**
+     * 每个分区只遍历还没有结束的任务，耗时和历史任务的数量无关
+     */
+    @Override
+    public void scanUnfinishedJobs(int partition, int partitionCount, Consumer<Job> consumer) {
+        for (String jobId : unfinishedJobIds) {
+            if (JobStore.partitionOf(jobId, partitionCount) != partition) {
+                continue;
+            }
+            Job job = jobs.get(jobId);
+            if (Objects.nonNull(job) && Objects.isNull(job.getStatus().getExitType())) {
+                consumer.accept(job);
+            }
+        }
+    }
+
+    @Override
+    public void saveCheckpoint(String jobId, String checkpoint) {
+        Objects.requireNonNull(jobId);
+        Objects.requireNonNull(checkpoint);
+        checkpoints.put(jobId, checkpoint);
+    }
+
+    @Override
+    public String getCheckpoint(String jobId) {
+        Objects.requireNonNull(jobId);
+        return checkpoints.get(jobId);
+    }
+
 }
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2023 zoukang, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package zk.js.engine.job;
+
+/**
+ * 微批任务的处理器，同一批的所有任务在同一个工作线程上依次调用process，
+ * setup和teardown每批只调用一次，可以在其中创建和释放各个任务共用的资源，例如连接或者解析器
+ * <p>
+ * 处理器实例只被一个微批任务使用，因此不需要考虑线程安全
+ */
+public interface MicroBatchHandler {
+
+    /**
+     * 处理第一个任务之前调用，抛出异常时整批任务都视为失败
+     */
+    default void setup() throws Exception {
+        // noop
+    }
+
+    /**
+     * 处理一个任务，抛出异常表示该任务失败，不影响同一批的其他任务
+     */
+    void process(JobDefinition jobDefinition) throws Exception;
+
+    /**
+     * 整批任务处理结束或者挂起时调用
+     */
+    default void teardown() {
+        // noop
+    }
+
+}
@@ -0,0 +1,246 @@
+/*
+ * Copyright 2023 zoukang, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package zk.js.engine.job;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 微批任务：把大量同类型的小任务合并成一个执行单元，在同一个工作线程上依次执行，
+ * 整批只生成一个任务id、保存一次任务、提交一次线程池，并且共用MicroBatchHandler的setup和teardown，
+ * 避免每个小任务的固定开销远大于任务本身
+ * <p>
+ * 批中的任务没有单独的Job实例，id为"批的id#序号"，引擎生成的任务id都不包含"#"，因此不会和普通任务的id混淆。
+ * 每个任务的状态只占一个字节，任务结束时以字符串的形式保存在extraInfo中，通过itemStatus得到单个任务的状态
+ */
+public class MicroBatchJob extends AbstractJob {
+
+    public static final String ITEM_SEPARATOR = "#";
+
+    /**
+     * extraInfo中保存各个任务状态的key，值为每个任务一个字符的字符串
+     */
+    public static final String ITEM_STATES = "microBatchItemStates";
+
+    /**
+     * extraInfo中保存失败任务错误信息的key，值为序号到错误信息的Map，只包含失败的任务
+     */
+    public static final String ITEM_ERRORS = "microBatchItemErrors";
+
+    public static final byte PENDING = 'P';
+
+    public static final byte RUNNING = 'R';
+
+    public static final byte FINISHED = 'F';
+
+    public static final byte FAILED = 'E';
+
+    public static final byte STOPPED = 'S';
+
+    private static final VarHandle ITEM_STATE = MethodHandles.arrayElementVarHandle(byte[].class);
+
+    private final List<JobDefinition> items;
+
+    private final MicroBatchHandler handler;
+
+    private final byte[] itemStates;
+
+    private final Map<Integer, String> itemErrors = new ConcurrentHashMap<>(2);
+
+    /**
+     * 下一个要处理的任务序号，只在执行线程中访问，挂起后恢复时从这里继续
+     */
+    private int next;
+
+    public MicroBatchJob(JobDefinition jobDefinition, List<JobDefinition> items, MicroBatchHandler handler) {
+        super(jobDefinition);
+        this.items = List.copyOf(items);
+        this.handler = handler;
+        this.itemStates = new byte[this.items.size()];
+        for (int i = 0; i < itemStates.length; ++i) {
+            itemStates[i] = PENDING;
+        }
+    }
+
+    /**
+     * 批本身的JobDefinition，类型和批中的任务相同，因此限流和熔断按一个任务计算；
+     * 批中的任务没有单独保存，引擎重启后无法恢复，因此总是标记为失败
+     */
+    public static JobDefinition batchDefinition(String type) {
+        JobDefinition jobDefinition = new JobDefinition();
+        jobDefinition.setType(type);
+        jobDefinition.setRecoveryPolicy(RecoveryPolicy.MARK_FAILED);
+        return jobDefinition;
+    }
+
+    /**
+     * 没有为任务类型注册MicroBatchHandler时使用，逐个转换成Job后直接在当前线程上执行。
+     * 这种方式仍然为每个任务创建和初始化一个Job，只节省了保存任务、提交线程池和引擎中的簿记，
+     * 需要真正分摊每个任务固定开销的类型应注册自己的MicroBatchHandler
+     */
+    public static MicroBatchHandler convertingHandler(JobConverter jobConverter) {
+        return jobDefinition -> {
+            Job job = jobConverter.convertJobDefinition(jobDefinition);
+            job.init();
+            if (!job.getState().isInitialized()) {
+                throw new IllegalStateException("Job init failed", job.getFailException());
+            }
+            job.run();
+        };
+    }
+
+    public static String itemId(String batchId, int index) {
+        return batchId + ITEM_SEPARATOR + index;
+    }
+
+    /**
+     * 从批中任务的id得到批的id，不是批中任务的id时返回null
+     */
+    public static String batchIdOf(String jobId) {
+        return itemIndexOf(jobId) < 0 ? null : jobId.substring(0, jobId.lastIndexOf(ITEM_SEPARATOR));
+    }
+
+    /**
+     * 从批中任务的id得到任务在批中的序号，不是批中任务的id时返回-1
+     */
+    public static int itemIndexOf(String jobId) {
+        int separator = jobId.lastIndexOf(ITEM_SEPARATOR);
+        if (separator <= 0 || separator == jobId.length() - 1) {
+            return -1;
+        }
+        int index = 0;
+        for (int i = separator + 1; i < jobId.length(); ++i) {
+            char c = jobId.charAt(i);
+            if (c < '0' || c > '9' || index > (Integer.MAX_VALUE - 9) / 10) {
+                return -1;
+            }
+            index = index * 10 + (c - '0');
+        }
+        return index;
+    }
+
+    /**
+     * 根据批的状态得到其中一个任务的状态，还没有执行到的任务跟随批的退出状态，
+     * batchJob可以是正在运行的MicroBatchJob，也可以是从JobStore中读取的已经结束的批
+     *
+     * @return 序号超出范围时返回null
+     */
+    public static Job.Status itemStatus(Job batchJob, int index) {
+        byte state;
+        String error = null;
+        Job.Status batchStatus = batchJob.getStatus();
+        if (batchJob instanceof MicroBatchJob microBatchJob) {
+            if (index < 0 || index >= microBatchJob.itemStates.length) {
+                return null;
+            }
+            state = (byte) ITEM_STATE.getVolatile(microBatchJob.itemStates, index);
+            error = microBatchJob.itemErrors.get(index);
+        } else {
+            Object states = batchStatus.getExtraInfo().get(ITEM_STATES);
+            if (!(states instanceof String itemStates) || index < 0 || index >= itemStates.length()) {
+                return null;
+            }
+            state = (byte) itemStates.charAt(index);
+            if (batchStatus.getExtraInfo().get(ITEM_ERRORS) instanceof Map<?, ?> errors) {
+                error = (String) errors.get(index);
+            }
+        }
+        Job.Status status = new Job.Status();
+        status.setStartTimestamp(batchStatus.getStartTimestamp());
+        status.setAttempt(batchStatus.getAttempt());
+        status.setServiceState(batchStatus.getServiceState());
+        switch (state) {
+            case FINISHED -> status.setExitType(Job.ExitType.FINISHED);
+            case FAILED -> status.setExitType(Job.ExitType.FAILED);
+            case STOPPED -> status.setExitType(Job.ExitType.MANUAL_STOP);
+            default -> status.setExitType(batchStatus.getExitType());
+        }
+        if (Objects.nonNull(status.getExitType())) {
+            status.setStopTimestamp(batchStatus.getStopTimestamp());
+        }
+        if (Objects.nonNull(error)) {
+            status.getExtraInfo().put("error", error);
+        }
+        return status;
+    }
+
+    public int size() {
+        return itemStates.length;
+    }
+
+    /**
+     * 停止批中还没有开始执行的任务，正在执行或者已经结束的任务不受影响
+     *
+     * @return 是否停止成功
+     */
+    public boolean stopItem(int index) {
+        return index >= 0 && index < itemStates.length && ITEM_STATE.compareAndSet(itemStates, index, PENDING, STOPPED);
+    }
+
+    /**
+     * 所有任务的状态，每个任务一个字符
+     */
+    public String itemStates() {
+        byte[] snapshot = new byte[itemStates.length];
+        for (int i = 0; i < snapshot.length; ++i) {
+            snapshot[i] = (byte) ITEM_STATE.getVolatile(itemStates, i);
+        }
+        return new String(snapshot, StandardCharsets.ISO_8859_1);
+    }
+
+    @Override
+    public void run() {
+        try {
+            handler.setup();
+        } catch (Exception exception) {
+            throw new IllegalStateException("Setup of micro batch with id = " + id + " failed", exception);
+        }
+        try {
+            for (; next < items.size(); ++next) {
+                if (isCancelled() || suspendIfRequested(String.valueOf(next))) {
+                    return;
+                }
+                if (!ITEM_STATE.compareAndSet(itemStates, next, PENDING, RUNNING)) {
+                    continue;
+                }
+                try {
+                    handler.process(items.get(next));
+                    ITEM_STATE.setVolatile(itemStates, next, FINISHED);
+                } catch (Exception exception) {
+                    if (isCancelled()) {
+                        // 任务被中断，退出状态跟随批的退出状态
+                        return;
+                    }
+                    itemErrors.put(next, String.valueOf(exception.getMessage()));
+                    ITEM_STATE.setVolatile(itemStates, next, FAILED);
+                }
+            }
+        } finally {
+            handler.teardown();
+            status.getExtraInfo().put(ITEM_STATES, itemStates());
+            if (!itemErrors.isEmpty()) {
+                status.getExtraInfo().put(ITEM_ERRORS, new HashMap<>(itemErrors));
+            }
+        }
+    }
+
+}
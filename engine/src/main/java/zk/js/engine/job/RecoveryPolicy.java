@@ -0,0 +1,36 @@
+/*
+ * Copyright 2023 zoukang, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package zk.js.engine.job;
+
+/**
+ * 引擎重启时对JobStore中还没有结束的任务的处理方式
+ */
+public enum RecoveryPolicy {
+    /**
+     * 标记为失败，这是默认的处理方式
+     */
+    MARK_FAILED,
+
+    /**
+     * 使用原来的任务id重新执行，任务可以通过checkpoint从上次的进度继续
+     */
+    RERUN,
+
+    /**
+     * 不做任何处理
+     */
+    IGNORE
+}
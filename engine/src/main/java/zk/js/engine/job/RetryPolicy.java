@@ -0,0 +1,90 @@
+/*
+ * Copyright 2023 zoukang, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package zk.js.engine.job;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ThreadLocalRandom;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
+
+/**
+ * 任务失败后的重试策略，退避时间按指数增长，并加上随机抖动避免大量任务同时重试
+ */
+@Getter
+@Setter
+@ToString
+public class RetryPolicy implements Serializable {
+
+    /**
+     * 最多执行的次数，包括第一次执行
+     */
+    private int maxAttempts = 1;
+
+    private long initialBackoffMillis = 1000L;
+
+    private long maxBackoffMillis = 60000L;
+
+    private double multiplier = 2.0;
+
+    /**
+     * 抖动比例，实际退避时间在[backoff * (1 - jitter), backoff * (1 + jitter)]之间
+     */
+    private double jitter = 0.2;
+
+    /**
+     * 只有这些异常（包括子类）才重试，为空表示任何异常都重试
+     */
+    private List<String> retryOn = new ArrayList<>(0);
+
+    /**
+     * 第attempt次执行失败后是否应该重试
+     */
+    public boolean shouldRetry(int attempt, Exception exception) {
+        if (attempt >= maxAttempts) {
+            return false;
+        }
+        if (Objects.isNull(retryOn) || retryOn.isEmpty()) {
+            return true;
+        }
+        if (Objects.isNull(exception)) {
+            return false;
+        }
+        for (Class<?> clazz = exception.getClass(); Objects.nonNull(clazz); clazz = clazz.getSuperclass()) {
+            if (retryOn.contains(clazz.getName())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 第attempt次执行失败后，到下一次执行需要等待的时间
+     */
+    public long backoffMillis(int attempt) {
+        double backoff = initialBackoffMillis * Math.pow(multiplier, Math.max(0, attempt - 1));
+        backoff = Math.min(backoff, maxBackoffMillis);
+        if (jitter > 0) {
+            backoff *= 1 + ThreadLocalRandom.current().nextDouble(-jitter, jitter);
+        }
+        return Math.max(0L, (long) backoff);
+    }
+
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2023 zoukang, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package zk.js.engine.job;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 引擎内所有流式任务的吞吐量统计，每个引擎一个实例，由引擎在启动流式任务前设置给任务
+ */
+public class StreamingMetrics {
+
+    private final LongAdder recordsIn = new LongAdder();
+
+    private final LongAdder recordsOut = new LongAdder();
+
+    private final LongAdder checkpoints = new LongAdder();
+
+    private long lastSampleNanos = System.nanoTime();
+
+    private long lastRecordsIn;
+
+    private long lastRecordsOut;
+
+    void recordIn(int count) {
+        recordsIn.add(count);
+    }
+
+    void recordOut(int count) {
+        recordsOut.add(count);
+    }
+
+    void checkpointSaved() {
+        checkpoints.increment();
+    }
+
+    /**
+     * 获取累计值和每秒的吞吐量，吞吐量是从上次调用到这次调用之间的平均值，因此应由同一个监控任务定期调用
+     */
+    public synchronized Snapshot snapshot() {
+        long now = System.nanoTime();
+        long in = recordsIn.sum();
+        long out = recordsOut.sum();
+        double seconds = Math.max(1L, now - lastSampleNanos) / 1_000_000_000.0;
+        Snapshot snapshot = new Snapshot(in, out, checkpoints.sum(), (in - lastRecordsIn) / seconds, (out - lastRecordsOut) / seconds);
+        lastSampleNanos = now;
+        lastRecordsIn = in;
+        lastRecordsOut = out;
+        return snapshot;
+    }
+
+    public record Snapshot(long recordsIn, long recordsOut, long checkpoints, double recordsInPerSecond, double recordsOutPerSecond) {
+    }
+
+}
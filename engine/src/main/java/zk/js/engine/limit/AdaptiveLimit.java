@@ -0,0 +1,176 @@
+/*
+ * Copyright 2023 zoukang, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package zk.js.engine.limit;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * 根据任务的耗时样本自动调整的并发上限，可以作为节点整体或者某个任务类型的并发限制，
+ * 引擎使用任务从准入到开始执行的排队时间作为样本，线程池过载时排队时间变长。
+ * <p>
+ * AIMD：耗时超过长期平均耗时的tolerance倍或者任务超时时按backoffRatio乘性减小上限，
+ * 否则在并发数接近上限时加1；
+ * GRADIENT：用长期平均耗时和本次耗时的比值作为梯度，上限按梯度缩放后再加上sqrt(limit)的排队余量，
+ * 耗时变长时上限随之下降，耗时恢复后重新增长。
+ * <p>
+ * 并发数只用CAS更新，耗时样本在锁内更新估计值，当前上限通过getLimit读取，可以作为监控指标
+ */
+public class AdaptiveLimit {
+
+    public enum Algorithm {
+        AIMD,
+        GRADIENT
+    }
+
+    private final Algorithm algorithm;
+
+    @Getter
+    private final int minLimit;
+
+    @Getter
+    private final int maxLimit;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    @Getter
+    private volatile int limit;
+
+    /**
+     * 上限的估计值，只在锁内读写
+     */
+    private double estimatedLimit;
+
+    /**
+     * 长期平均耗时，前window个样本取算术平均，之后是指数移动平均
+     */
+    private double longLatencyNanos;
+
+    private long sampleCount;
+
+    /**
+     * 长期平均耗时的样本窗口
+     */
+    @Getter
+    @Setter
+    private int window = 600;
+
+    /**
+     * 耗时超过长期平均耗时多少倍认为出现了排队
+     */
+    @Getter
+    @Setter
+    private double tolerance = 1.5;
+
+    /**
+     * 样本耗时的下限，小于它的样本按它计算，避免几乎没有排队时微秒级的波动被当作排队时间翻倍
+     */
+    @Getter
+    @Setter
+    private long minLatencyNanos = 1_000_000L;
+
+    /**
+     * AIMD减小上限的比例
+     */
+    @Getter
+    @Setter
+    private double backoffRatio = 0.9;
+
+    /**
+     * GRADIENT每个样本对估计值的影响程度
+     */
+    @Getter
+    @Setter
+    private double smoothing = 0.2;
+
+    public AdaptiveLimit(Algorithm algorithm, int initialLimit, int minLimit, int maxLimit) {
+        if (minLimit < 1 || maxLimit < minLimit || initialLimit < minLimit || initialLimit > maxLimit) {
+            throw new IllegalArgumentException("Require 1 <= minLimit <= initialLimit <= maxLimit");
+        }
+        this.algorithm = algorithm;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.limit = initialLimit;
+        this.estimatedLimit = initialLimit;
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    boolean tryAcquire() {
+        int current = inFlight.get();
+        while (current < limit) {
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+            current = inFlight.get();
+        }
+        return false;
+    }
+
+    /**
+     * 归还并发数
+     *
+     * @param latencyNanos 耗时样本，小于0表示没有有效的样本，例如任务被挂起或者交给了其他节点
+     * @param dropped      任务因为超时而结束，无论耗时多少都认为出现了过载
+     */
+    void release(long latencyNanos, boolean dropped) {
+        int current = inFlight.getAndDecrement();
+        if (latencyNanos >= 0L) {
+            onSample(Math.max(latencyNanos, minLatencyNanos), current, dropped);
+        }
+    }
+
+    private synchronized void onSample(long latencyNanos, int inFlightCount, boolean dropped) {
+        if (sampleCount < window) {
+            ++sampleCount;
+            longLatencyNanos += (latencyNanos - longLatencyNanos) / sampleCount;
+        } else {
+            longLatencyNanos += (latencyNanos - longLatencyNanos) / window;
+        }
+        double estimated = algorithm == Algorithm.AIMD ? aimd(latencyNanos, inFlightCount, dropped) : gradient(latencyNanos, inFlightCount, dropped);
+        estimatedLimit = Math.max(minLimit, Math.min(maxLimit, estimated));
+        limit = (int) estimatedLimit;
+    }
+
+    private double aimd(long latencyNanos, int inFlightCount, boolean dropped) {
+        if (dropped || latencyNanos > longLatencyNanos * tolerance) {
+            return estimatedLimit * backoffRatio;
+        }
+        // 并发数远低于上限时说明负载不足，耗时正常也不代表可以承受更高的并发
+        return inFlightCount * 2 >= limit ? estimatedLimit + 1.0 : estimatedLimit;
+    }
+
+    private double gradient(long latencyNanos, int inFlightCount, boolean dropped) {
+        if (!dropped && inFlightCount * 2 < limit) {
+            return estimatedLimit;
+        }
+        double gradient;
+        if (dropped) {
+            gradient = 0.5;
+        } else if (latencyNanos <= 0L) {
+            gradient = 1.0;
+        } else {
+            gradient = Math.max(0.5, Math.min(1.0, tolerance * longLatencyNanos / latencyNanos));
+        }
+        double newLimit = estimatedLimit * gradient + Math.sqrt(estimatedLimit);
+        return estimatedLimit * (1.0 - smoothing) + newLimit * smoothing;
+    }
+
+}
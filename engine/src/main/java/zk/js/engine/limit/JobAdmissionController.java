@@ -0,0 +1,221 @@
+/*
+ * Copyright 2023 zoukang, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package zk.js.engine.limit;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+import zk.js.engine.job.JobDefinition;
+
+/**
+ * 按任务类型和JobDefinition的id限制任务的启动速率和并发数，两者都配置时需要同时满足。
+ * 没有通过的任务不会被拒绝，而是由引擎放入等待队列，在令牌补充或者有任务结束后再次尝试
+ * <p>
+ * 另外可以为节点整体和任务类型设置AdaptiveLimit，并发上限根据任务的排队时间自动调整
+ */
+public class JobAdmissionController {
+
+    /**
+     * 因为并发数达到上限而需要等待其他任务结束
+     */
+    public static final long WAIT_FOR_RELEASE = Long.MAX_VALUE;
+
+    private final Map<String, Limiter> typeLimiters = new ConcurrentHashMap<>(4);
+
+    private final Map<String, Limiter> definitionLimiters = new ConcurrentHashMap<>(4);
+
+    private final Map<String, AdaptiveLimit> adaptiveTypeLimits = new ConcurrentHashMap<>(4);
+
+    private volatile AdaptiveLimit nodeLimit;
+
+    /**
+     * 设置任务类型的限流，rateLimit为null表示取消限流。修改配置时保留正在运行的任务数，新的并发上限对已经在运行的任务同样有效；
+     * 取消之后再重新设置则从0开始计数
+     */
+    public void setTypeLimit(String jobType, RateLimit rateLimit) {
+        setLimit(typeLimiters, jobType, rateLimit);
+    }
+
+    public void setDefinitionLimit(String jobDefinitionId, RateLimit rateLimit) {
+        setLimit(definitionLimiters, jobDefinitionId, rateLimit);
+    }
+
+    /**
+     * 设置节点整体的自适应并发上限，null表示取消
+     */
+    public void setNodeLimit(AdaptiveLimit adaptiveLimit) {
+        this.nodeLimit = adaptiveLimit;
+    }
+
+    public AdaptiveLimit getNodeLimit() {
+        return nodeLimit;
+    }
+
+    /**
+     * 设置任务类型的自适应并发上限，null表示取消，可以和setTypeLimit同时使用
+     */
+    public void setAdaptiveTypeLimit(String jobType, AdaptiveLimit adaptiveLimit) {
+        Objects.requireNonNull(jobType);
+        if (Objects.isNull(adaptiveLimit)) {
+            adaptiveTypeLimits.remove(jobType);
+        } else {
+            adaptiveTypeLimits.put(jobType, adaptiveLimit);
+        }
+    }
+
+    public AdaptiveLimit getAdaptiveTypeLimit(String jobType) {
+        return adaptiveTypeLimits.get(jobType);
+    }
+
+    /**
+     * 节点当前的自适应并发上限，没有设置时返回-1
+     */
+    public int getNodeConcurrencyLimit() {
+        AdaptiveLimit adaptiveLimit = nodeLimit;
+        return Objects.isNull(adaptiveLimit) ? -1 : adaptiveLimit.getLimit();
+    }
+
+    /**
+     * 任务类型当前的自适应并发上限，没有设置时返回-1
+     */
+    public int getConcurrencyLimit(String jobType) {
+        AdaptiveLimit adaptiveLimit = adaptiveTypeLimits.get(jobType);
+        return Objects.isNull(adaptiveLimit) ? -1 : adaptiveLimit.getLimit();
+    }
+
+    public boolean isEnabled() {
+        return !typeLimiters.isEmpty() || !definitionLimiters.isEmpty() || !adaptiveTypeLimits.isEmpty() || Objects.nonNull(nodeLimit);
+    }
+
+    /**
+     * 尝试准入一个任务，成功后占用的限流器记录在permit中，必须在任务结束时用同一个permit调用release
+     *
+     * @return 0表示准入成功，WAIT_FOR_RELEASE表示需要等待其他任务结束，否则是需要等待的纳秒数
+     */
+    public long tryAdmit(JobDefinition jobDefinition, Permit permit) {
+        AdaptiveLimit adaptiveTypeLimit = adaptiveLimitOf(jobDefinition.getType());
+        AdaptiveLimit adaptiveNodeLimit = nodeLimit;
+        if (!tryAcquire(adaptiveTypeLimit)) {
+            return WAIT_FOR_RELEASE;
+        }
+        if (!tryAcquire(adaptiveNodeLimit)) {
+            release(adaptiveTypeLimit, -1L, false);
+            return WAIT_FOR_RELEASE;
+        }
+        Limiter typeLimiter = limiterOf(typeLimiters, jobDefinition.getType());
+        Limiter definitionLimiter = limiterOf(definitionLimiters, jobDefinition.getId());
+        long wait = tryAdmitStatic(typeLimiter, definitionLimiter);
+        if (wait > 0L) {
+            release(adaptiveTypeLimit, -1L, false);
+            release(adaptiveNodeLimit, -1L, false);
+        } else {
+            permit.set(typeLimiter, definitionLimiter, adaptiveTypeLimit, adaptiveNodeLimit);
+        }
+        return wait;
+    }
+
+    private static long tryAdmitStatic(Limiter typeLimiter, Limiter definitionLimiter) {
+        if (Objects.isNull(typeLimiter) && Objects.isNull(definitionLimiter)) {
+            return 0L;
+        }
+        if (!tryAcquireConcurrency(typeLimiter)) {
+            return WAIT_FOR_RELEASE;
+        }
+        if (!tryAcquireConcurrency(definitionLimiter)) {
+            releaseConcurrency(typeLimiter);
+            return WAIT_FOR_RELEASE;
+        }
+        long now = System.nanoTime();
+        long wait = Objects.isNull(typeLimiter) ? 0L : typeLimiter.tryAcquireToken(now);
+        if (wait == 0L && Objects.nonNull(definitionLimiter)) {
+            wait = definitionLimiter.tryAcquireToken(now);
+            if (wait > 0L && Objects.nonNull(typeLimiter)) {
+                typeLimiter.returnToken();
+            }
+        }
+        if (wait > 0L) {
+            releaseConcurrency(typeLimiter);
+            releaseConcurrency(definitionLimiter);
+        }
+        return wait;
+    }
+
+    public void release(Permit permit) {
+        release(permit, -1L, false);
+    }
+
+    /**
+     * 任务结束时把并发数归还给准入时占用的限流器，同时用耗时样本调整自适应并发上限
+     *
+     * @param latencyNanos 耗时样本，引擎传入任务从准入到开始执行的排队时间，小于0表示不作为样本
+     * @param dropped      任务是否因为超时而结束
+     */
+    public void release(Permit permit, long latencyNanos, boolean dropped) {
+        releaseConcurrency(permit.typeLimiter);
+        releaseConcurrency(permit.definitionLimiter);
+        release(permit.adaptiveTypeLimit, latencyNanos, dropped);
+        release(permit.nodeLimit, latencyNanos, dropped);
+        permit.clear();
+    }
+
+    /**
+     * 某个任务类型正在运行的任务数，没有设置限流时返回0
+     */
+    public int getRunningCount(String jobType) {
+        Limiter limiter = typeLimiters.get(jobType);
+        return Objects.isNull(limiter) ? 0 : limiter.getRunning();
+    }
+
+    private static void setLimit(Map<String, Limiter> limiters, String key, RateLimit rateLimit) {
+        Objects.requireNonNull(key);
+        if (Objects.isNull(rateLimit)) {
+            limiters.remove(key);
+        } else {
+            // 沿用原来的运行计数，修改配置前准入的任务仍然占用并发数
+            limiters.compute(key, (k, previous) -> Objects.isNull(previous) ? new Limiter(rateLimit) : new Limiter(rateLimit, previous));
+        }
+    }
+
+    private static Limiter limiterOf(Map<String, Limiter> limiters, String key) {
+        return Objects.isNull(key) || limiters.isEmpty() ? null : limiters.get(key);
+    }
+
+    private AdaptiveLimit adaptiveLimitOf(String jobType) {
+        return Objects.isNull(jobType) || adaptiveTypeLimits.isEmpty() ? null : adaptiveTypeLimits.get(jobType);
+    }
+
+    private static boolean tryAcquire(AdaptiveLimit adaptiveLimit) {
+        return Objects.isNull(adaptiveLimit) || adaptiveLimit.tryAcquire();
+    }
+
+    private static void release(AdaptiveLimit adaptiveLimit, long latencyNanos, boolean dropped) {
+        if (Objects.nonNull(adaptiveLimit)) {
+            adaptiveLimit.release(latencyNanos, dropped);
+        }
+    }
+
+    private static boolean tryAcquireConcurrency(Limiter limiter) {
+        return Objects.isNull(limiter) || limiter.tryAcquireConcurrency();
+    }
+
+    private static void releaseConcurrency(Limiter limiter) {
+        if (Objects.nonNull(limiter)) {
+            limiter.releaseConcurrency();
+        }
+    }
+
+}
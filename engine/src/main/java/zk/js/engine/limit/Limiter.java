@@ -0,0 +1,120 @@
+/*
+ * Copyright 2023 zoukang, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package zk.js.engine.limit;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 一个限流配置对应的计数器，令牌桶和并发数都只用CAS更新。
+ * 令牌桶用GCRA算法实现：只记录下一个令牌的理论到达时间，不需要定时补充令牌
+ */
+class Limiter {
+
+    private final RateLimit rateLimit;
+
+    /**
+     * 两次启动之间的理论间隔，0表示不限制速率
+     */
+    private final long intervalNanos;
+
+    /**
+     * 允许提前使用的时间，对应burst - 1个令牌
+     */
+    private final long toleranceNanos;
+
+    private final AtomicLong theoreticalArrivalTime = new AtomicLong(Long.MIN_VALUE);
+
+    /**
+     * 没有并发上限时也计数，修改配置后新的上限立即对正在运行的任务生效
+     */
+    private final AtomicInteger running;
+
+    Limiter(RateLimit rateLimit) {
+        this(rateLimit, new AtomicInteger());
+    }
+
+    /**
+     * 修改配置时和原来的限流器共用运行计数，令牌桶重新开始
+     */
+    Limiter(RateLimit rateLimit, Limiter previous) {
+        this(rateLimit, previous.running);
+    }
+
+    private Limiter(RateLimit rateLimit, AtomicInteger running) {
+        this.rateLimit = rateLimit;
+        this.running = running;
+        this.intervalNanos = rateLimit.getPermitsPerSecond() > 0.0 ? (long) (TimeUnit.SECONDS.toNanos(1) / rateLimit.getPermitsPerSecond()) : 0L;
+        this.toleranceNanos = intervalNanos * (rateLimit.getBurst() - 1);
+    }
+
+    boolean tryAcquireConcurrency() {
+        int max = rateLimit.getMaxConcurrency();
+        if (max <= 0) {
+            running.incrementAndGet();
+            return true;
+        }
+        int current = running.get();
+        while (current < max) {
+            if (running.compareAndSet(current, current + 1)) {
+                return true;
+            }
+            current = running.get();
+        }
+        return false;
+    }
+
+    void releaseConcurrency() {
+        running.decrementAndGet();
+    }
+
+    /**
+     * 尝试获取一个令牌
+     *
+     * @return 0表示获取成功，否则返回还需要等待的纳秒数
+     */
+    long tryAcquireToken(long now) {
+        if (intervalNanos == 0L) {
+            return 0L;
+        }
+        while (true) {
+            long tat = theoreticalArrivalTime.get();
+            long base = Math.max(tat, now);
+            long wait = base - toleranceNanos - now;
+            if (wait > 0L) {
+                return wait;
+            }
+            if (theoreticalArrivalTime.compareAndSet(tat, base + intervalNanos)) {
+                return 0L;
+            }
+        }
+    }
+
+    /**
+     * 归还刚刚获取的令牌，同一个任务的其他限流条件没有通过时调用
+     */
+    void returnToken() {
+        if (intervalNanos > 0L) {
+            theoreticalArrivalTime.addAndGet(-intervalNanos);
+        }
+    }
+
+    int getRunning() {
+        return running.get();
+    }
+
+}
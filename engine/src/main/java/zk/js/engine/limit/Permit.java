@@ -0,0 +1,44 @@
+/*
+ * Copyright 2023 zoukang, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package zk.js.engine.limit;
+
+/**
+ * 一个任务准入时占用的限流器，任务结束时归还给这些限流器，而不是按当前的配置重新查找，
+ * 这样准入之后修改或者取消了配置，任务结束时也不会把计数归还到新的限流器上。
+ * 同一个任务可以重复使用同一个Permit，每次准入成功都会覆盖上一次的记录
+ */
+public final class Permit {
+
+    Limiter typeLimiter;
+
+    Limiter definitionLimiter;
+
+    AdaptiveLimit adaptiveTypeLimit;
+
+    AdaptiveLimit nodeLimit;
+
+    void set(Limiter typeLimiter, Limiter definitionLimiter, AdaptiveLimit adaptiveTypeLimit, AdaptiveLimit nodeLimit) {
+        this.typeLimiter = typeLimiter;
+        this.definitionLimiter = definitionLimiter;
+        this.adaptiveTypeLimit = adaptiveTypeLimit;
+        this.nodeLimit = nodeLimit;
+    }
+
+    void clear() {
+        set(null, null, null, null);
+    }
+
+}
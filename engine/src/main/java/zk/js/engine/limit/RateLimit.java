@@ -0,0 +1,57 @@
+/*
+ * Copyright 2023 zoukang, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package zk.js.engine.limit;
+
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * 一类任务的限流配置
+ */
+@Getter
+@ToString
+public class RateLimit {
+
+    /**
+     * 每秒最多启动的任务数，小于等于0表示不限制
+     */
+    private final double permitsPerSecond;
+
+    /**
+     * 空闲之后最多可以连续启动的任务数
+     */
+    private final int burst;
+
+    /**
+     * 最多同时运行的任务数，小于等于0表示不限制
+     */
+    private final int maxConcurrency;
+
+    public RateLimit(double permitsPerSecond, int burst, int maxConcurrency) {
+        this.permitsPerSecond = permitsPerSecond;
+        this.burst = Math.max(1, burst);
+        this.maxConcurrency = maxConcurrency;
+    }
+
+    public static RateLimit ofRate(double permitsPerSecond) {
+        return new RateLimit(permitsPerSecond, 1, 0);
+    }
+
+    public static RateLimit ofConcurrency(int maxConcurrency) {
+        return new RateLimit(0.0, 1, maxConcurrency);
+    }
+
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2023 zoukang, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package zk.js.engine.output;
+
+import java.nio.ByteBuffer;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * 所有任务输出共用的堆外缓冲区，分配的总大小不超过maxBytes，超过时返回null，任务的输出直接转存到磁盘。
+ * 归还的缓冲区清空后复用，不需要反复分配堆外内存和等待GC回收
+ */
+public class DirectBufferPool {
+
+    private final Queue<ByteBuffer> free = new ConcurrentLinkedQueue<>();
+
+    /**
+     * 已经分配的堆外内存，包括空闲的缓冲区
+     */
+    private final AtomicLong allocatedBytes = new AtomicLong();
+
+    /**
+     * 因为超过总大小而没有分配到缓冲区的次数
+     */
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    @Getter
+    @Setter
+    private volatile long maxBytes;
+
+    public DirectBufferPool(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * 获取一个capacity大小的缓冲区，空闲的缓冲区大小和capacity不一致时（修改了缓冲区大小）不再复用
+     *
+     * @return 超过总大小时返回null
+     */
+    public ByteBuffer acquire(int capacity) {
+        ByteBuffer buffer = free.poll();
+        while (Objects.nonNull(buffer)) {
+            if (buffer.capacity() == capacity) {
+                return buffer;
+            }
+            allocatedBytes.addAndGet(-buffer.capacity());
+            buffer = free.poll();
+        }
+        long current;
+        do {
+            current = allocatedBytes.get();
+            if (current + capacity > maxBytes) {
+                rejectedCount.incrementAndGet();
+                return null;
+            }
+        } while (!allocatedBytes.compareAndSet(current, current + capacity));
+        return ByteBuffer.allocateDirect(capacity);
+    }
+
+    public void release(ByteBuffer buffer) {
+        buffer.clear();
+        free.offer(buffer);
+    }
+
+    public long getAllocatedBytes() {
+        return allocatedBytes.get();
+    }
+
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+}
@@ -0,0 +1,344 @@
+/*
+ * Copyright 2023 zoukang, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package zk.js.engine.output;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * 一个任务的输出，由任务在run方法中逐条追加，客户端按序号读取。
+ * 最新的输出保存在固定大小的堆外环形缓冲区中，缓冲区满时最早的记录被转存到磁盘文件，
+ * 因此输出再多也只占用固定的内存，并且所有记录都可以按序号读到。
+ * 缓冲区从DirectBufferPool获取，池已经用完时所有记录直接转存到磁盘；
+ * 任务结束时缓冲区中剩余的记录复制到刚好放得下的堆内存中，缓冲区立即归还
+ * <p>
+ * 每条记录在缓冲区和文件中的格式都是4字节长度加上UTF-8编码的内容，记录的序号从0开始连续递增
+ */
+@Slf4j
+public class JobOutput implements AutoCloseable {
+
+    private static final int HEADER_BYTES = Integer.BYTES;
+
+    /**
+     * 每隔多少条转存的记录保存一次文件位置，读取转存的记录时从最近的位置开始跳过
+     */
+    private static final int INDEX_INTERVAL = 256;
+
+    private final String jobId;
+
+    private final int memoryCapacity;
+
+    private final Path spillDirectory;
+
+    private final DirectBufferPool bufferPool;
+
+    private ByteBuffer memory;
+
+    /**
+     * 环形缓冲区的实际大小，任务结束后压缩到堆内存时变为剩余记录的大小
+     */
+    private int bufferCapacity;
+
+    /**
+     * 没有从池中获取到缓冲区，之后的记录都直接转存
+     */
+    private boolean spillOnly;
+
+    /**
+     * 缓冲区中最早的记录的字节位置和序号
+     */
+    private int memoryHead;
+
+    private int memoryUsed;
+
+    private long memoryFirstOffset;
+
+    @Getter
+    private long nextOffset;
+
+    private Path spillFile;
+
+    private FileChannel spillChannel;
+
+    private long spillPosition;
+
+    private long[] spillIndex = new long[0];
+
+    @Getter
+    private boolean finished;
+
+    private boolean closed;
+
+    public JobOutput(String jobId, int memoryCapacity, Path spillDirectory, DirectBufferPool bufferPool) {
+        if (memoryCapacity <= HEADER_BYTES) {
+            throw new IllegalArgumentException("memoryCapacity is too small.");
+        }
+        this.jobId = jobId;
+        this.memoryCapacity = memoryCapacity;
+        this.spillDirectory = spillDirectory;
+        this.bufferPool = bufferPool;
+        this.bufferCapacity = memoryCapacity;
+    }
+
+    /**
+     * 追加一条记录，返回记录的序号；任务结束或者输出被释放之后追加的记录被丢弃，返回-1
+     */
+    public synchronized long append(String record) {
+        Objects.requireNonNull(record);
+        if (finished) {
+            log.debug("Output of job with id = {} is already finished, discard record.", jobId);
+            return -1L;
+        }
+        byte[] bytes = record.getBytes(StandardCharsets.UTF_8);
+        int size = HEADER_BYTES + bytes.length;
+        if (Objects.isNull(memory) && !spillOnly && size <= memoryCapacity) {
+            memory = bufferPool.acquire(memoryCapacity);
+            if (Objects.isNull(memory)) {
+                log.debug("Direct memory for job output is exhausted, spill output of job with id = {} to disk.", jobId);
+                spillOnly = true;
+            }
+        }
+        if (size > memoryCapacity || spillOnly) {
+            // 放不进缓冲区的大记录直接写到文件，之前的记录先全部转存以保持顺序
+            while (memoryUsed > 0) {
+                spillOldest();
+            }
+            writeSpill(bytes);
+            memoryFirstOffset = nextOffset + 1;
+        } else {
+            while (bufferCapacity - memoryUsed < size) {
+                spillOldest();
+            }
+            int tail = (memoryHead + memoryUsed) % bufferCapacity;
+            tail = put(tail, ByteBuffer.allocate(HEADER_BYTES).putInt(0, bytes.length).array());
+            put(tail, bytes);
+            memoryUsed += size;
+        }
+        notifyAll();
+        return nextOffset++;
+    }
+
+    /**
+     * 任务结束后调用，之后追加的记录被丢弃，等待读取的客户端会立即返回，堆外缓冲区归还给池
+     */
+    public synchronized void finish() {
+        finished = true;
+        releaseMemory(true);
+        notifyAll();
+    }
+
+    /**
+     * 从fromOffset开始读取最多maxRecords条记录，如果还没有新记录并且任务还没有结束，则最多等待waitMillis毫秒
+     */
+    public synchronized Chunk read(long fromOffset, int maxRecords, long waitMillis) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Math.max(0L, waitMillis));
+        long remaining = deadline - System.nanoTime();
+        while (fromOffset >= nextOffset && !finished && !closed && remaining > 0L) {
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            remaining = deadline - System.nanoTime();
+        }
+        long offset = Math.max(0L, fromOffset);
+        List<String> records = new ArrayList<>();
+        if (closed) {
+            return new Chunk(records, offset, true);
+        }
+        try {
+            if (offset < memoryFirstOffset) {
+                readSpilled(offset, maxRecords, records);
+            }
+            readMemory(offset + records.size(), maxRecords, records);
+        } catch (IOException exception) {
+            throw new UncheckedIOException(exception);
+        }
+        long next = offset + records.size();
+        return new Chunk(records, next, finished && next >= nextOffset);
+    }
+
+    /**
+     * 释放缓冲区并删除转存文件
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        finished = true;
+        releaseMemory(false);
+        if (Objects.nonNull(spillChannel)) {
+            try {
+                spillChannel.close();
+                Files.deleteIfExists(spillFile);
+            } catch (IOException exception) {
+                log.warn("Failed to delete output spill file {} of job with id = {}", spillFile, jobId, exception);
+            }
+        }
+        notifyAll();
+    }
+
+    /**
+     * @param keep 是否把缓冲区中的记录复制到堆内存中继续保留
+     */
+    private void releaseMemory(boolean keep) {
+        ByteBuffer current = memory;
+        if (Objects.isNull(current) || !current.isDirect()) {
+            memory = keep ? current : null;
+            return;
+        }
+        memory = null;
+        if (keep && memoryUsed > 0) {
+            byte[] bytes = new byte[memoryUsed];
+            int first = Math.min(memoryUsed, bufferCapacity - memoryHead);
+            current.get(memoryHead, bytes, 0, first);
+            if (first < memoryUsed) {
+                current.get(0, bytes, first, memoryUsed - first);
+            }
+            memory = ByteBuffer.wrap(bytes);
+            memoryHead = 0;
+            bufferCapacity = memoryUsed;
+        }
+        bufferPool.release(current);
+    }
+
+    private void spillOldest() {
+        int length = readInt(memoryHead);
+        byte[] bytes = new byte[length];
+        get((memoryHead + HEADER_BYTES) % bufferCapacity, bytes);
+        writeSpill(bytes);
+        memoryHead = (memoryHead + HEADER_BYTES + length) % bufferCapacity;
+        memoryUsed -= HEADER_BYTES + length;
+        ++memoryFirstOffset;
+    }
+
+    private void writeSpill(byte[] bytes) {
+        try {
+            if (Objects.isNull(spillChannel)) {
+                Files.createDirectories(spillDirectory);
+                spillFile = Files.createTempFile(spillDirectory, "job-output-", ".spill");
+                spillChannel = FileChannel.open(spillFile, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            }
+            // 缓冲区中只保存序号在[memoryFirstOffset, nextOffset)之间的记录，因此被转存的记录的序号就是memoryFirstOffset
+            if (memoryFirstOffset % INDEX_INTERVAL == 0) {
+                int slot = (int) (memoryFirstOffset / INDEX_INTERVAL);
+                if (slot >= spillIndex.length) {
+                    spillIndex = Arrays.copyOf(spillIndex, Math.max(16, spillIndex.length * 2));
+                }
+                spillIndex[slot] = spillPosition;
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + bytes.length);
+            buffer.putInt(bytes.length).put(bytes).flip();
+            while (buffer.hasRemaining()) {
+                spillPosition += spillChannel.write(buffer, spillPosition);
+            }
+        } catch (IOException exception) {
+            throw new UncheckedIOException("Failed to spill output of job with id = " + jobId, exception);
+        }
+    }
+
+    private void readSpilled(long offset, int maxRecords, List<String> records) throws IOException {
+        int slot = (int) (offset / INDEX_INTERVAL);
+        long position = spillIndex[slot];
+        long current = (long) slot * INDEX_INTERVAL;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        while (current < memoryFirstOffset && records.size() < maxRecords) {
+            header.clear();
+            readFully(header, position);
+            int length = header.getInt(0);
+            if (current >= offset) {
+                ByteBuffer content = ByteBuffer.allocate(length);
+                readFully(content, position + HEADER_BYTES);
+                records.add(new String(content.array(), StandardCharsets.UTF_8));
+            }
+            position += HEADER_BYTES + length;
+            ++current;
+        }
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        long current = position;
+        while (buffer.hasRemaining()) {
+            int read = spillChannel.read(buffer, current);
+            if (read < 0) {
+                throw new IOException("Unexpected end of output spill file " + spillFile);
+            }
+            current += read;
+        }
+    }
+
+    private void readMemory(long offset, int maxRecords, List<String> records) {
+        if (memoryUsed == 0 || records.size() >= maxRecords || offset >= nextOffset) {
+            return;
+        }
+        int position = memoryHead;
+        for (long current = memoryFirstOffset; current < nextOffset && records.size() < maxRecords; ++current) {
+            int length = readInt(position);
+            position = (position + HEADER_BYTES) % bufferCapacity;
+            if (current >= offset) {
+                byte[] bytes = new byte[length];
+                get(position, bytes);
+                records.add(new String(bytes, StandardCharsets.UTF_8));
+            }
+            position = (position + length) % bufferCapacity;
+        }
+    }
+
+    private int readInt(int position) {
+        byte[] bytes = new byte[HEADER_BYTES];
+        get(position, bytes);
+        return ByteBuffer.wrap(bytes).getInt();
+    }
+
+    /**
+     * 从环形缓冲区的position位置开始写入，返回写入后的位置
+     */
+    private int put(int position, byte[] bytes) {
+        int first = Math.min(bytes.length, bufferCapacity - position);
+        memory.put(position, bytes, 0, first);
+        if (first < bytes.length) {
+            memory.put(0, bytes, first, bytes.length - first);
+        }
+        return (position + bytes.length) % bufferCapacity;
+    }
+
+    private void get(int position, byte[] bytes) {
+        int first = Math.min(bytes.length, bufferCapacity - position);
+        memory.get(position, bytes, 0, first);
+        if (first < bytes.length) {
+            memory.get(0, bytes, first, bytes.length - first);
+        }
+    }
+
+    /**
+     * 一次读取的结果，nextOffset是下次读取的起始序号，finished表示任务已经结束并且所有记录都已经读完
+     */
+    public record Chunk(List<String> records, long nextOffset, boolean finished) {
+    }
+
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2023 zoukang, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package zk.js.engine.output;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BooleanSupplier;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * 引擎上所有任务的输出，任务第一次输出或者客户端第一次读取时才创建，任务结束后有记录的输出还会保留一段时间供客户端读取。
+ * 堆外缓冲区从一个总大小有上限的池中获取，任务结束时归还，保留期间的输出只占用实际大小的堆内存
+ */
+public class JobOutputs {
+
+    private final Map<String, JobOutput> outputs = new ConcurrentHashMap<>(4);
+
+    @Getter
+    private final DirectBufferPool bufferPool = new DirectBufferPool(64L * 1024 * 1024);
+
+    /**
+     * 每个任务的堆外缓冲区大小，只在任务第一次输出时分配
+     */
+    @Getter
+    @Setter
+    private int memoryCapacity = 64 * 1024;
+
+    @Getter
+    @Setter
+    private Path spillDirectory = Path.of(System.getProperty("java.io.tmpdir"), "job-output");
+
+    /**
+     * 任务结束后有记录的输出的保留时间，没有记录的输出立即释放
+     */
+    @Getter
+    @Setter
+    private long retentionMillis = 10 * 60 * 1000L;
+
+    /**
+     * 返回任务的输出，还没有时只在running返回true时创建。
+     * 和finish在同一个key上互斥，因此任务结束的标记先于finish设置时，finish之后不会再为这个任务创建输出
+     *
+     * @return 任务已经结束并且没有输出时返回null
+     */
+    public JobOutput getOrCreate(String jobId, BooleanSupplier running) {
+        return outputs.computeIfAbsent(jobId, id -> running.getAsBoolean() ? new JobOutput(id, memoryCapacity, spillDirectory, bufferPool) : null);
+    }
+
+    /**
+     * 任务结束时调用，没有记录的输出立即释放
+     *
+     * @return 需要保留的输出，没有时返回null
+     */
+    public JobOutput finish(String jobId) {
+        JobOutput[] retained = new JobOutput[1];
+        outputs.computeIfPresent(jobId, (id, output) -> {
+            output.finish();
+            if (output.getNextOffset() == 0L) {
+                output.close();
+                return null;
+            }
+            retained[0] = output;
+            return output;
+        });
+        return retained[0];
+    }
+
+    /**
+     * 所有任务的堆外缓冲区总大小，超过时新任务的输出直接转存到磁盘
+     */
+    public long getMaxDirectMemory() {
+        return bufferPool.getMaxBytes();
+    }
+
+    public void setMaxDirectMemory(long maxDirectMemory) {
+        bufferPool.setMaxBytes(maxDirectMemory);
+    }
+
+    public JobOutput get(String jobId) {
+        return outputs.get(jobId);
+    }
+
+    public void release(String jobId) {
+        JobOutput output = outputs.remove(jobId);
+        if (Objects.nonNull(output)) {
+            output.close();
+        }
+    }
+
+    /**
+     * 只有jobId当前的输出还是output时才释放，保留期结束时不会释放掉同一个任务再次执行时的新输出
+     */
+    public void release(String jobId, JobOutput output) {
+        if (outputs.remove(jobId, output)) {
+            output.close();
+        }
+    }
+
+    public void releaseAll() {
+        for (String jobId : new ArrayList<>(outputs.keySet())) {
+            release(jobId);
+        }
+    }
+
+}
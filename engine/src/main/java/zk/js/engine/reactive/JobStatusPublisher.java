@@ -0,0 +1,119 @@
+/*
+ * Copyright 2023 zoukang, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package zk.js.engine.reactive;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+
+import lombok.Getter;
+
+import zk.js.engine.job.Job;
+
+/**
+ * 一个任务的状态发布者，发布任务的状态变化，发布最终状态之后结束；
+ * 新的订阅者会先收到最新的状态，任务已经结束时收到最终状态后立即结束
+ */
+public class JobStatusPublisher implements Flow.Publisher<Job.Status> {
+
+    /**
+     * 任务提交失败时为null
+     */
+    @Getter
+    private final String jobId;
+
+    private final Executor executor;
+
+    private final List<StatusSubscription> subscriptions = new CopyOnWriteArrayList<>();
+
+    private Job.Status latest;
+
+    private boolean completed;
+
+    private Throwable error;
+
+    /**
+     * 最近一次收到状态的时间，用于补偿丢失的事件
+     */
+    volatile long lastUpdateMillis = System.currentTimeMillis();
+
+    JobStatusPublisher(String jobId, Executor executor) {
+        this.jobId = jobId;
+        this.executor = executor;
+    }
+
+    static JobStatusPublisher failed(Throwable throwable, Executor executor) {
+        JobStatusPublisher publisher = new JobStatusPublisher(null, executor);
+        publisher.error = throwable;
+        publisher.completed = true;
+        return publisher;
+    }
+
+    @Override
+    public synchronized void subscribe(Flow.Subscriber<? super Job.Status> subscriber) {
+        Objects.requireNonNull(subscriber);
+        StatusSubscription subscription = new StatusSubscription(subscriber, executor);
+        subscriber.onSubscribe(subscription);
+        if (Objects.nonNull(error)) {
+            subscription.fail(error);
+            return;
+        }
+        if (Objects.nonNull(latest)) {
+            subscription.push(latest, completed);
+        }
+        if (!completed) {
+            subscriptions.add(subscription);
+        }
+    }
+
+    public synchronized boolean isCompleted() {
+        return completed;
+    }
+
+    /**
+     * @return 发布者在此之前是否还没有结束
+     */
+    synchronized boolean update(Job.Status status, boolean last) {
+        if (completed) {
+            return false;
+        }
+        lastUpdateMillis = System.currentTimeMillis();
+        latest = status;
+        completed = last;
+        for (StatusSubscription subscription : subscriptions) {
+            subscription.push(status, last);
+        }
+        if (last) {
+            subscriptions.clear();
+        }
+        return true;
+    }
+
+    synchronized void fail(Throwable throwable) {
+        if (completed) {
+            return;
+        }
+        error = throwable;
+        completed = true;
+        for (StatusSubscription subscription : subscriptions) {
+            subscription.fail(throwable);
+        }
+        subscriptions.clear();
+    }
+
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2023 zoukang, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package zk.js.engine.reactive;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import zk.js.engine.JobEngine;
+import zk.js.engine.event.JobEvent;
+import zk.js.engine.event.JobEventListener;
+import zk.js.engine.job.Job;
+import zk.js.engine.job.JobDefinition;
+
+/**
+ * JobEngine的非阻塞封装，submit立即返回任务状态的Flow.Publisher，不需要为每个任务占用一个线程调用waitJob
+ * <p>
+ * 所有任务的状态变化都通过同一个事件监听器得到，投递给订阅者在executor中进行；
+ * 事件总线在队列满时会丢弃事件，因此还会定期查询长时间没有更新的任务，保证每个发布者最终都会结束。
+ * 集群模式下只有在本节点执行的任务能及时收到状态变化，其他节点上的任务依赖定期查询
+ */
+@Slf4j
+public class ReactiveJobEngine implements JobEventListener, AutoCloseable {
+
+    @Getter
+    private final JobEngine jobEngine;
+
+    private final Executor executor;
+
+    private final Map<String, JobStatusPublisher> inFlight = new ConcurrentHashMap<>(16);
+
+    private final ScheduledExecutorService sweeper;
+
+    private final long sweepIntervalMillis;
+
+    public ReactiveJobEngine(JobEngine jobEngine) {
+        this(jobEngine, ForkJoinPool.commonPool(), 1000L);
+    }
+
+    /**
+     * @param executor            投递状态给订阅者的线程池
+     * @param sweepIntervalMillis 超过这么长时间没有收到事件的任务会主动查询一次状态
+     */
+    public ReactiveJobEngine(JobEngine jobEngine, Executor executor, long sweepIntervalMillis) {
+        this.jobEngine = jobEngine;
+        this.executor = executor;
+        this.sweepIntervalMillis = sweepIntervalMillis;
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "reactive-job-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.sweeper.scheduleWithFixedDelay(this::sweep, sweepIntervalMillis, sweepIntervalMillis, TimeUnit.MILLISECONDS);
+        jobEngine.addJobEventListener(this);
+    }
+
+    public JobStatusPublisher submit(JobDefinition jobDefinition) {
+        return submit(jobDefinition, false);
+    }
+
+    /**
+     * 提交任务，提交失败时返回的发布者直接以异常结束
+     */
+    public JobStatusPublisher submit(JobDefinition jobDefinition, boolean singleton) {
+        String jobId;
+        try {
+            jobId = jobEngine.runJob(jobDefinition, singleton);
+        } catch (Exception exception) {
+            return JobStatusPublisher.failed(exception, executor);
+        }
+        return watch(jobId);
+    }
+
+    /**
+     * 跟踪一个已经提交的任务，同一个任务只有一个发布者
+     */
+    public JobStatusPublisher watch(String jobId) {
+        JobStatusPublisher publisher = inFlight.computeIfAbsent(jobId, key -> new JobStatusPublisher(key, executor));
+        // 任务可能在登记之前就已经结束了，对应的事件已经被忽略
+        refresh(publisher);
+        return publisher;
+    }
+
+    public int getInFlightCount() {
+        return inFlight.size();
+    }
+
+    @Override
+    public void onEvent(JobEvent event) {
+        JobStatusPublisher publisher = inFlight.get(event.getJobId());
+        if (Objects.isNull(publisher)) {
+            return;
+        }
+        Job job = jobEngine.getJob(event.getJobId());
+        Job.Status status = Objects.isNull(job) ? fromEvent(event) : copyOf(job.getStatus());
+        boolean last = event.getType() == JobEvent.Type.FINISHED || event.getType() == JobEvent.Type.FAILED || event.getType() == JobEvent.Type.STOPPED;
+        if (last && Objects.isNull(status.getExitType())) {
+            status.setExitType(event.getExitType());
+        }
+        publish(publisher, status, last);
+    }
+
+    /**
+     * 停止跟踪，还没有结束的发布者以异常结束
+     */
+    @Override
+    public void close() {
+        jobEngine.removeJobEventListener(this);
+        sweeper.shutdownNow();
+        for (JobStatusPublisher publisher : inFlight.values()) {
+            publisher.fail(new IllegalStateException("Reactive job engine is closed."));
+        }
+        inFlight.clear();
+    }
+
+    private void publish(JobStatusPublisher publisher, Job.Status status, boolean last) {
+        if (last) {
+            inFlight.remove(publisher.getJobId(), publisher);
+        }
+        publisher.update(status, last);
+    }
+
+    private void refresh(JobStatusPublisher publisher) {
+        Job.Status status = jobEngine.getJobStatus(publisher.getJobId());
+        if (Objects.nonNull(status)) {
+            Job.Status snapshot = copyOf(status);
+            // 失败重试之前退出状态会被暂时设置，引擎在任务真正结束时才设置结束时间；转交给其他节点的任务还没有结束
+            boolean last = Objects.nonNull(snapshot.getExitType()) && snapshot.getExitType() != Job.ExitType.TRANSFERRED && snapshot.getStopTimestamp() > 0L;
+            publish(publisher, snapshot, last);
+        }
+    }
+
+    private void sweep() {
+        long threshold = System.currentTimeMillis() - sweepIntervalMillis;
+        for (JobStatusPublisher publisher : inFlight.values()) {
+            if (publisher.lastUpdateMillis > threshold) {
+                continue;
+            }
+            try {
+                refresh(publisher);
+            } catch (Exception exception) {
+                log.warn("Failed to refresh status of job with id = {}", publisher.getJobId(), exception);
+            }
+        }
+    }
+
+    private static Job.Status fromEvent(JobEvent event) {
+        Job.Status status = new Job.Status();
+        status.setAttempt(event.getAttempt());
+        status.setExitType(event.getExitType());
+        if (Objects.nonNull(event.getExitType())) {
+            status.setStopTimestamp(event.getTimestamp());
+        }
+        return status;
+    }
+
+    /**
+     * 状态是异步投递的，因此发布的是快照而不是任务正在修改的对象
+     */
+    private static Job.Status copyOf(Job.Status status) {
+        Job.Status copy = new Job.Status();
+        copy.setStartTimestamp(status.getStartTimestamp());
+        copy.setStopTimestamp(status.getStopTimestamp());
+        copy.setServiceState(status.getServiceState());
+        copy.setExitType(status.getExitType());
+        copy.setAttempt(status.getAttempt());
+        copy.setExtraInfo(new HashMap<>(status.getExtraInfo()));
+        return copy;
+    }
+
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2023 zoukang, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package zk.js.engine.reactive;
+
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import lombok.extern.slf4j.Slf4j;
+
+import zk.js.engine.job.Job;
+
+/**
+ * 一个订阅者的订阅，只保留最新的一个状态：订阅者没有请求时新的状态覆盖旧的状态，
+ * 因此处理慢的订阅者只会错过中间状态而不会积压，最终状态总是会在请求之后投递，然后调用onComplete
+ * <p>
+ * 投递在executor中进行，同一时刻只有一个线程在投递，保证对同一个订阅者的调用是串行的
+ */
+@Slf4j
+final class StatusSubscription implements Flow.Subscription {
+
+    private final Flow.Subscriber<? super Job.Status> subscriber;
+
+    private final Executor executor;
+
+    private final AtomicLong requested = new AtomicLong();
+
+    private final AtomicReference<Job.Status> pending = new AtomicReference<>();
+
+    private final AtomicInteger wip = new AtomicInteger();
+
+    private volatile Job.Status finalStatus;
+
+    private volatile Throwable error;
+
+    private volatile boolean cancelled;
+
+    private boolean done;
+
+    StatusSubscription(Flow.Subscriber<? super Job.Status> subscriber, Executor executor) {
+        this.subscriber = subscriber;
+        this.executor = executor;
+    }
+
+    void push(Job.Status status, boolean last) {
+        if (last) {
+            finalStatus = status;
+        }
+        pending.set(status);
+        schedule();
+    }
+
+    void fail(Throwable throwable) {
+        error = throwable;
+        schedule();
+    }
+
+    @Override
+    public void request(long n) {
+        if (n <= 0L) {
+            fail(new IllegalArgumentException("non-positive subscription request: " + n));
+            return;
+        }
+        requested.accumulateAndGet(n, (current, added) -> current + added < 0L ? Long.MAX_VALUE : current + added);
+        schedule();
+    }
+
+    @Override
+    public void cancel() {
+        cancelled = true;
+        pending.set(null);
+    }
+
+    private void schedule() {
+        if (wip.getAndIncrement() == 0) {
+            executor.execute(this::drain);
+        }
+    }
+
+    private void drain() {
+        int missed = 1;
+        while (true) {
+            if (!cancelled && !done) {
+                try {
+                    deliver();
+                } catch (Exception exception) {
+                    log.error("Subscriber {} of job status failed, cancel it.", subscriber, exception);
+                    cancelled = true;
+                }
+            }
+            missed = wip.addAndGet(-missed);
+            if (missed == 0) {
+                return;
+            }
+        }
+    }
+
+    private void deliver() {
+        Throwable failure = error;
+        if (Objects.nonNull(failure)) {
+            done = true;
+            subscriber.onError(failure);
+            return;
+        }
+        if (requested.get() <= 0L) {
+            return;
+        }
+        Job.Status status = pending.getAndSet(null);
+        if (Objects.isNull(status)) {
+            return;
+        }
+        if (requested.get() != Long.MAX_VALUE) {
+            requested.decrementAndGet();
+        }
+        subscriber.onNext(status);
+        if (status == finalStatus) {
+            done = true;
+            subscriber.onComplete();
+        }
+    }
+
+}
@@ -0,0 +1,28 @@
+/*
+ * Copyright 2023 zoukang, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package zk.js.engine.trace;
+
+import zk.js.engine.job.Job;
+
+/**
+ * 任务结束或者被转交给其他节点时，引擎调用export导出任务的span，实现不应该抛出异常或者长时间阻塞
+ */
+@FunctionalInterface
+public interface JobSpanExporter {
+
+    void export(Job job);
+
+}
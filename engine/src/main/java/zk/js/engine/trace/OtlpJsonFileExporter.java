@@ -0,0 +1,254 @@
+/*
+ * Copyright 2023 zoukang, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package zk.js.engine.trace;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+
+import zk.js.engine.common.BoundedRingBuffer;
+import zk.js.engine.job.Job;
+import zk.js.engine.job.JobTimeline;
+
+/**
+ * 把任务的span按OTLP/JSON格式追加写入本地文件，每个任务一行ExportTraceServiceRequest，
+ * 可以由OpenTelemetry Collector的otlpjsonfile receiver读取后转发到任何后端。
+ * <p>
+ * 任务本身是一个span，从SUBMITTED到最后一个记录的阶段；stageSpans为true时相邻阶段之间的耗时作为它的子span。
+ * <p>
+ * export只把任务放入有界队列，由后台线程成批序列化并写入文件，每批只flush一次，结束任务的线程不会被磁盘IO阻塞；
+ * 队列满了之后丢弃新的任务并计数。没有被采样的trace不导出
+ */
+@Slf4j
+public class OtlpJsonFileExporter implements JobSpanExporter, Closeable {
+
+    private static final String SCOPE_NAME = "zk.js.engine";
+
+    private static final int SPAN_KIND_INTERNAL = 1;
+
+    private static final int STATUS_CODE_OK = 1;
+
+    private static final int STATUS_CODE_ERROR = 2;
+
+    private static final JobTimeline.Stage[] STAGES = JobTimeline.stages();
+
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100L);
+
+    private static final int MAX_BATCH_SIZE = 256;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final String serviceName;
+
+    private final BufferedWriter writer;
+
+    private final BoundedRingBuffer<Job> buffer;
+
+    private final Thread thread;
+
+    /**
+     * 队列满了被丢弃的任务数
+     */
+    private final AtomicLong dropped = new AtomicLong();
+
+    private volatile boolean running = true;
+
+    private volatile boolean waiting;
+
+    @Getter
+    @Setter
+    private volatile boolean stageSpans = true;
+
+    public OtlpJsonFileExporter(Path file, String serviceName) throws IOException {
+        this(file, serviceName, 8192);
+    }
+
+    /**
+     * @param bufferCapacity 等待写出的任务数上限
+     */
+    public OtlpJsonFileExporter(Path file, String serviceName, int bufferCapacity) throws IOException {
+        this.serviceName = serviceName;
+        this.writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        this.buffer = new BoundedRingBuffer<>(bufferCapacity);
+        this.thread = new Thread(this::drain, "otlp-span-exporter");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    @Override
+    public void export(Job job) {
+        JobTimeline timeline = job.getStatus().getTimeline();
+        if (Objects.isNull(timeline) || Objects.isNull(timeline.getTraceId()) || !timeline.isSampled()
+                || timeline.get(JobTimeline.Stage.SUBMITTED) == 0L) {
+            return;
+        }
+        if (!running || !buffer.offer(job)) {
+            if (dropped.getAndIncrement() == 0L) {
+                log.warn("Span buffer is full or exporter is closed, spans of job with id = {} are dropped.", job.getId());
+            }
+            return;
+        }
+        if (waiting) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    /**
+     * 等待后台线程写完已经放入队列的任务后关闭文件
+     */
+    @Override
+    public void close() throws IOException {
+        running = false;
+        LockSupport.unpark(thread);
+        try {
+            thread.join();
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (writer) {
+            writer.close();
+        }
+    }
+
+    private void drain() {
+        List<Job> batch = new ArrayList<>(MAX_BATCH_SIZE);
+        while (running) {
+            if (buffer.drainTo(batch, MAX_BATCH_SIZE) == 0) {
+                waiting = true;
+                if (buffer.isEmpty() && running) {
+                    LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                }
+                waiting = false;
+                continue;
+            }
+            write(batch);
+        }
+        while (buffer.drainTo(batch, MAX_BATCH_SIZE) > 0) {
+            write(batch);
+        }
+    }
+
+    private void write(List<Job> batch) {
+        synchronized (writer) {
+            for (Job job : batch) {
+                try {
+                    writer.write(objectMapper.writeValueAsString(toRequest(job, job.getStatus().getTimeline())));
+                    writer.newLine();
+                } catch (JsonProcessingException exception) {
+                    log.error("Failed to serialize spans of job with id = {}", job.getId(), exception);
+                } catch (IOException exception) {
+                    log.error("Failed to export spans of job with id = {}", job.getId(), exception);
+                }
+            }
+            try {
+                writer.flush();
+            } catch (IOException exception) {
+                log.error("Failed to flush exported spans", exception);
+            }
+        }
+        batch.clear();
+    }
+
+    private ObjectNode toRequest(Job job, JobTimeline timeline) {
+        ObjectNode request = objectMapper.createObjectNode();
+        ObjectNode resourceSpans = request.putArray("resourceSpans").addObject();
+        addAttribute(resourceSpans.putObject("resource").putArray("attributes"), "service.name", serviceName);
+        ObjectNode scopeSpans = resourceSpans.putArray("scopeSpans").addObject();
+        scopeSpans.putObject("scope").put("name", SCOPE_NAME);
+        ArrayNode spans = scopeSpans.putArray("spans");
+
+        long start = timeline.get(JobTimeline.Stage.SUBMITTED);
+        long end = start;
+        for (JobTimeline.Stage stage : STAGES) {
+            end = Math.max(end, timeline.get(stage));
+        }
+        String type = job.jobDefinition().getType();
+        ObjectNode jobSpan = addSpan(spans, timeline.getTraceId(), timeline.getSpanId(), timeline.getParentSpanId(), "job " + type, start, end);
+        ArrayNode attributes = jobSpan.putArray("attributes");
+        addAttribute(attributes, "job.id", job.getId());
+        addAttribute(attributes, "job.type", type);
+        addAttribute(attributes, "job.definition.id", job.jobDefinition().getId());
+        attributes.addObject().put("key", "job.attempt").putObject("value").put("intValue", String.valueOf(job.getStatus().getAttempt()));
+        Job.ExitType exitType = job.getStatus().getExitType();
+        if (Objects.nonNull(exitType)) {
+            addAttribute(attributes, "job.exit_type", exitType.name());
+            ObjectNode status = jobSpan.putObject("status");
+            if (exitType == Job.ExitType.FAILED || exitType == Job.ExitType.TIMEOUT) {
+                status.put("code", STATUS_CODE_ERROR);
+                status.put("message", exitType.name());
+            } else if (exitType == Job.ExitType.FINISHED) {
+                status.put("code", STATUS_CODE_OK);
+            }
+        }
+
+        if (stageSpans) {
+            long previous = start;
+            for (int i = 1; i < STAGES.length; ++i) {
+                long timestamp = timeline.get(STAGES[i]);
+                if (timestamp == 0L || timestamp < previous) {
+                    continue;
+                }
+                addSpan(spans, timeline.getTraceId(), TraceContext.randomHex(8), timeline.getSpanId(), STAGES[i].getPhase(), previous, timestamp);
+                previous = timestamp;
+            }
+        }
+        return request;
+    }
+
+    private static ObjectNode addSpan(ArrayNode spans, String traceId, String spanId, String parentSpanId, String name, long start, long end) {
+        ObjectNode span = spans.addObject();
+        span.put("traceId", traceId);
+        span.put("spanId", spanId);
+        if (Objects.nonNull(parentSpanId)) {
+            span.put("parentSpanId", parentSpanId);
+        }
+        span.put("name", name);
+        span.put("kind", SPAN_KIND_INTERNAL);
+        // OTLP/JSON中64位整数用字符串表示
+        span.put("startTimeUnixNano", String.valueOf(start));
+        span.put("endTimeUnixNano", String.valueOf(end));
+        return span;
+    }
+
+    private static void addAttribute(ArrayNode attributes, String key, String value) {
+        if (Objects.nonNull(value)) {
+            attributes.addObject().put("key", key).putObject("value").put("stringValue", value);
+        }
+    }
+
+}
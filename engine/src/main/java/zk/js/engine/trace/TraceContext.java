@@ -0,0 +1,169 @@
+/*
+ * Copyright 2023 zoukang, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package zk.js.engine.trace;
+
+import java.util.Objects;
+import java.util.concurrent.ThreadLocalRandom;
+
+import lombok.Getter;
+
+/**
+ * W3C Trace Context中的traceparent，用于把任务的执行关联到提交它的上游调用。
+ * <p>
+ * 当前线程的上下文保存在ThreadLocal中，提交任务前通过attach设置，引擎在启动任务时把它作为任务span的父span；
+ * 集群模式下通过JobRef中的traceParent跨节点传递
+ */
+@Getter
+public final class TraceContext {
+
+    private static final ThreadLocal<TraceContext> CURRENT = new ThreadLocal<>();
+
+    private static final String VERSION = "00";
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private static final String INVALID_TRACE_ID = "00000000000000000000000000000000";
+
+    private static final String INVALID_SPAN_ID = "0000000000000000";
+
+    /**
+     * 32个小写十六进制字符
+     */
+    private final String traceId;
+
+    /**
+     * 16个小写十六进制字符
+     */
+    private final String spanId;
+
+    private final boolean sampled;
+
+    public TraceContext(String traceId, String spanId, boolean sampled) {
+        this.traceId = traceId;
+        this.spanId = spanId;
+        this.sampled = sampled;
+    }
+
+    public static TraceContext newRoot() {
+        return new TraceContext(randomHex(16), randomHex(8), true);
+    }
+
+    /**
+     * 同一个trace中的新span
+     */
+    public TraceContext newChild() {
+        return new TraceContext(traceId, randomHex(8), sampled);
+    }
+
+    /**
+     * 解析traceparent，格式不正确时返回null
+     */
+    public static TraceContext parse(String traceParent) {
+        if (Objects.isNull(traceParent) || traceParent.length() != 55) {
+            return null;
+        }
+        String[] parts = traceParent.split("-");
+        if (parts.length != 4 || !VERSION.equals(parts[0]) || !isHex(parts[1]) || !isHex(parts[2]) || !isHex(parts[3])) {
+            return null;
+        }
+        if (INVALID_TRACE_ID.equals(parts[1]) || INVALID_SPAN_ID.equals(parts[2])) {
+            return null;
+        }
+        return new TraceContext(parts[1], parts[2], (Integer.parseInt(parts[3], 16) & 1) == 1);
+    }
+
+    public String toTraceParent() {
+        return VERSION + "-" + traceId + "-" + spanId + (sampled ? "-01" : "-00");
+    }
+
+    public static TraceContext current() {
+        return CURRENT.get();
+    }
+
+    public static String currentTraceParent() {
+        TraceContext context = CURRENT.get();
+        return Objects.isNull(context) ? null : context.toTraceParent();
+    }
+
+    /**
+     * 把当前线程的上下文设置为context，关闭返回的Scope时恢复原来的上下文
+     */
+    public static Scope attach(TraceContext context) {
+        TraceContext previous = CURRENT.get();
+        if (Objects.isNull(context)) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(context);
+        }
+        return () -> {
+            if (Objects.isNull(previous)) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(previous);
+            }
+        };
+    }
+
+    public static Scope attach(String traceParent) {
+        return attach(parse(traceParent));
+    }
+
+    /**
+     * 指定字节数的随机值的十六进制表示，不会全为0
+     */
+    public static String randomHex(int bytes) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        char[] chars = new char[bytes * 2];
+        boolean zero = true;
+        for (int i = 0; i < bytes; ++i) {
+            int value = random.nextInt(256);
+            zero &= value == 0;
+            chars[i * 2] = HEX[value >>> 4];
+            chars[i * 2 + 1] = HEX[value & 0xF];
+        }
+        if (zero) {
+            chars[chars.length - 1] = '1';
+        }
+        return new String(chars);
+    }
+
+    private static boolean isHex(String text) {
+        for (int i = 0; i < text.length(); ++i) {
+            char c = text.charAt(i);
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return toTraceParent();
+    }
+
+    /**
+     * 关闭时恢复原来的上下文，不抛出检查异常
+     */
+    @FunctionalInterface
+    public interface Scope extends AutoCloseable {
+
+        @Override
+        void close();
+
+    }
+
+}
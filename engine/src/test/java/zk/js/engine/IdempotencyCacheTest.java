@@ -0,0 +1,67 @@
+/*
+ * Copyright 2023 zoukang, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package zk.js.engine;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+class IdempotencyCacheTest {
+
+    @Test
+    void testPutRemoveAndResize() {
+        IdempotencyCache cache = new IdempotencyCache(60000L, 64 * 1000);
+        for (int i = 0; i < 10000; ++i) {
+            Assertions.assertNull(cache.putIfAbsent("key-" + i, "job-" + i));
+        }
+        Assertions.assertEquals(10000, cache.size());
+        Assertions.assertEquals("job-42", cache.putIfAbsent("key-42", "other"));
+        // 删除之后同一探测序列上的其他键仍然能找到
+        for (int i = 0; i < 10000; i += 2) {
+            cache.remove("key-" + i, "job-" + i);
+        }
+        cache.remove("key-1", "other");
+        for (int i = 0; i < 10000; ++i) {
+            Assertions.assertEquals(i % 2 == 0 ? null : "job-" + i, cache.get("key-" + i));
+        }
+        Assertions.assertNull(cache.putIfAbsent("key-0", "again"));
+        Assertions.assertEquals("again", cache.get("key-0"));
+        Assertions.assertEquals(0L, cache.getEvictionCount());
+    }
+
+    @Test
+    void testEvictOldestWhenFull() {
+        // 每段只能放一条记录
+        IdempotencyCache cache = new IdempotencyCache(60000L, 64);
+        for (int i = 0; i < 1000; ++i) {
+            cache.putIfAbsent("key-" + i, "job-" + i);
+        }
+        Assertions.assertTrue(cache.size() <= 64);
+        Assertions.assertEquals(1000L - cache.size(), cache.getEvictionCount());
+        Assertions.assertEquals("job-999", cache.get("key-999"));
+    }
+
+    @Test
+    void testExpire() throws Exception {
+        IdempotencyCache cache = new IdempotencyCache(20L, 1000);
+        cache.putIfAbsent("key", "job");
+        Thread.sleep(40L);
+        Assertions.assertNull(cache.get("key"));
+        Assertions.assertNull(cache.putIfAbsent("key", "new-job"));
+        Assertions.assertEquals("new-job", cache.get("key"));
+        Assertions.assertEquals(0L, cache.getEvictionCount());
+    }
+
+}
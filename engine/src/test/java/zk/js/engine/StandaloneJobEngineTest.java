@@ -15,17 +15,50 @@
  */
 package zk.js.engine;
 
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
+import zk.js.engine.event.JobEvent;
+import zk.js.engine.event.JobEventListener;
+import zk.js.engine.job.AbstractSplitJob;
+import zk.js.engine.job.AbstractStreamingJob;
 import zk.js.engine.job.DefaultJobConverter;
+import zk.js.engine.job.DoubleStreamJob;
+import zk.js.engine.job.Job;
 import zk.js.engine.job.JobConverter;
 import zk.js.engine.job.JobDefinition;
+import zk.js.engine.job.JobTimeline;
+import zk.js.engine.job.MemoryJobStore;
+import zk.js.engine.job.MicroBatchHandler;
+import zk.js.engine.job.MicroBatchJob;
+import zk.js.engine.job.RecoveryPolicy;
+import zk.js.engine.job.RetryPolicy;
+import zk.js.engine.job.SplitSumJob;
 import zk.js.engine.job.SumNumberJob;
+import zk.js.engine.limit.AdaptiveLimit;
+import zk.js.engine.limit.RateLimit;
+import zk.js.engine.output.JobOutput;
+import zk.js.engine.reactive.JobStatusPublisher;
+import zk.js.engine.reactive.ReactiveJobEngine;
+import zk.js.engine.trace.OtlpJsonFileExporter;
+import zk.js.engine.trace.TraceContext;
 
 class StandaloneJobEngineTest {
 
@@ -51,4 +84,712 @@ class StandaloneJobEngineTest {
         jobEngine.stop();
     }
 
+    @Test
+    void testTimeout() throws Exception {
+        JobEngine jobEngine = newEngine();
+        jobEngine.start();
+
+        String cooperativeJobId = jobEngine.runJob(sleepJobDefinition(10000L, 100L, true));
+        String stubbornJobId = jobEngine.runJob(sleepJobDefinition(10000L, 100L, false));
+        long begin = System.currentTimeMillis();
+        jobEngine.waitJob(cooperativeJobId);
+        jobEngine.waitJob(stubbornJobId);
+        Assertions.assertTrue(System.currentTimeMillis() - begin < 5000L);
+        Assertions.assertEquals(Job.ExitType.TIMEOUT, jobEngine.getJob(cooperativeJobId).getStatus().getExitType());
+        Assertions.assertEquals(Job.ExitType.TIMEOUT, jobEngine.getJob(stubbornJobId).getStatus().getExitType());
+        jobEngine.stop();
+    }
+
+    @Test
+    void testStopRunningJob() throws Exception {
+        JobEngine jobEngine = newEngine();
+        jobEngine.start();
+
+        String jobId = jobEngine.runJob(sleepJobDefinition(10000L, 0L, true));
+        Thread.sleep(100);
+        jobEngine.stopJob(jobId);
+        jobEngine.waitJob(jobId);
+        Job job = jobEngine.getJob(jobId);
+        Assertions.assertEquals(Job.ExitType.MANUAL_STOP, job.getStatus().getExitType());
+        Assertions.assertTrue(job.getCancellationToken().isCancellationRequested());
+        jobEngine.stop();
+    }
+
+    @Test
+    void testRetry() throws Exception {
+        JobEngine jobEngine = newEngine();
+        jobEngine.start();
+
+        RetryPolicy retryPolicy = new RetryPolicy();
+        retryPolicy.setMaxAttempts(3);
+        retryPolicy.setInitialBackoffMillis(10L);
+        retryPolicy.setRetryOn(List.of(RuntimeException.class.getName()));
+
+        JobDefinition recoverable = new JobDefinition();
+        recoverable.setType("flaky");
+        recoverable.setJsonConf("2");
+        recoverable.setRetryPolicy(retryPolicy);
+        String recoverableJobId = jobEngine.runJob(recoverable);
+
+        JobDefinition broken = new JobDefinition();
+        broken.setType("flaky");
+        broken.setJsonConf("5");
+        broken.setRetryPolicy(retryPolicy);
+        String brokenJobId = jobEngine.runJob(broken);
+
+        jobEngine.waitJob(recoverableJobId);
+        jobEngine.waitJob(brokenJobId);
+        Job.Status status = jobEngine.getJob(recoverableJobId).getStatus();
+        Assertions.assertEquals(Job.ExitType.FINISHED, status.getExitType());
+        Assertions.assertEquals(3, status.getAttempt());
+        status = jobEngine.getJob(brokenJobId).getStatus();
+        Assertions.assertEquals(Job.ExitType.FAILED, status.getExitType());
+        Assertions.assertEquals(3, status.getAttempt());
+        jobEngine.stop();
+    }
+
+    @Test
+    void testSuspendAndResume() throws Exception {
+        JobEngine jobEngine = newEngine();
+        jobEngine.start();
+
+        String jobId = jobEngine.runJob(sleepJobDefinition(500L, 0L, true));
+        Thread.sleep(100);
+        long begin = System.currentTimeMillis();
+        Assertions.assertTrue(jobEngine.suspendJob(jobId));
+        Thread.sleep(300);
+        Job job = jobEngine.getJob(jobId);
+        Assertions.assertTrue(job.isSuspended());
+        Assertions.assertNull(job.getStatus().getExitType());
+
+        Assertions.assertTrue(jobEngine.resumeJob(jobId));
+        jobEngine.waitJob(jobId);
+        Assertions.assertEquals(Job.ExitType.FINISHED, job.getStatus().getExitType());
+        // 从checkpoint继续执行，总耗时是挂起时间加上剩余的睡眠时间
+        long elapsed = System.currentTimeMillis() - begin;
+        Assertions.assertTrue(elapsed >= 600L && elapsed < 1500L, "elapsed " + elapsed);
+        jobEngine.stop();
+    }
+
+    @Test
+    void testJobEventListener() throws Exception {
+        JobEngine jobEngine = newEngine();
+        List<JobEvent> events = new ArrayList<>();
+        JobEventListener listener = event -> {
+            synchronized (events) {
+                events.add(event);
+            }
+        };
+        jobEngine.addJobEventListener(listener);
+        jobEngine.start();
+
+        String finishedJobId = jobEngine.runJob(sleepJobDefinition(10L, 0L, true));
+        String stoppedJobId = jobEngine.runJob(sleepJobDefinition(10000L, 50L, true));
+        jobEngine.waitJob(finishedJobId);
+        jobEngine.waitJob(stoppedJobId);
+
+        List<JobEvent.Type> expected = List.of(JobEvent.Type.SUBMITTED, JobEvent.Type.STARTED, JobEvent.Type.FINISHED);
+        long deadline = System.currentTimeMillis() + 2000L;
+        while (System.currentTimeMillis() < deadline && (eventTypes(events, finishedJobId).size() < 3 || eventTypes(events, stoppedJobId).size() < 3)) {
+            Thread.sleep(10);
+        }
+        Assertions.assertEquals(expected, eventTypes(events, finishedJobId));
+        synchronized (events) {
+            JobEvent last = events.stream().filter(event -> event.getJobId().equals(stoppedJobId)).reduce((a, b) -> b).orElseThrow();
+            Assertions.assertEquals(JobEvent.Type.STOPPED, last.getType());
+            Assertions.assertEquals(Job.ExitType.TIMEOUT, last.getExitType());
+        }
+        jobEngine.removeJobEventListener(listener);
+        jobEngine.stop();
+    }
+
+    @Test
+    void testTimelineAndTracing() throws Exception {
+        AbstractJobEngine jobEngine = (AbstractJobEngine) newEngine();
+        Path file = Files.createTempFile("spans", ".json");
+        file.toFile().deleteOnExit();
+        OtlpJsonFileExporter exporter = new OtlpJsonFileExporter(file, "test");
+        jobEngine.setSpanExporter(exporter);
+        jobEngine.start();
+
+        TraceContext parent = TraceContext.newRoot();
+        Assertions.assertEquals(parent.toTraceParent(), TraceContext.parse(parent.toTraceParent()).toTraceParent());
+        Assertions.assertNull(TraceContext.parse("00-00000000000000000000000000000000-0000000000000000-01"));
+        String jobId;
+        try (TraceContext.Scope ignored = TraceContext.attach(parent)) {
+            jobId = jobEngine.runJob(sleepJobDefinition(20L, 0L, true));
+        }
+        Assertions.assertNull(TraceContext.current());
+        jobEngine.waitJob(jobId);
+        jobEngine.stop();
+        exporter.close();
+
+        JobTimeline timeline = jobEngine.getJob(jobId).getStatus().getTimeline();
+        long previous = 0L;
+        for (JobTimeline.Stage stage : JobTimeline.stages()) {
+            Assertions.assertTrue(timeline.get(stage) >= previous, stage.name());
+            previous = timeline.get(stage);
+        }
+        Assertions.assertTrue(timeline.elapsedNanos(JobTimeline.Stage.STARTED, JobTimeline.Stage.FINISHED) >= TimeUnit.MILLISECONDS.toNanos(20L));
+        Assertions.assertEquals(parent.getTraceId(), timeline.getTraceId());
+        Assertions.assertEquals(parent.getSpanId(), timeline.getParentSpanId());
+
+        List<String> lines = Files.readAllLines(file);
+        Assertions.assertEquals(1, lines.size());
+        JsonNode spans = new ObjectMapper().readTree(lines.get(0)).at("/resourceSpans/0/scopeSpans/0/spans");
+        Assertions.assertEquals(JobTimeline.stages().length, spans.size());
+        Assertions.assertEquals(timeline.getSpanId(), spans.get(0).get("spanId").asText());
+        Assertions.assertEquals(parent.getSpanId(), spans.get(0).get("parentSpanId").asText());
+        Assertions.assertEquals(timeline.getSpanId(), spans.get(1).get("parentSpanId").asText());
+        Assertions.assertEquals("convert", spans.get(1).get("name").asText());
+
+        // 没有spanExporter也没有上游trace时不生成trace，上游没有采样时任务也不采样
+        jobEngine = (AbstractJobEngine) newEngine();
+        jobEngine.start();
+        jobId = jobEngine.runJob(sleepJobDefinition(1L, 0L, true));
+        Assertions.assertNull(jobEngine.getJob(jobId).getStatus().getTimeline().getTraceId());
+        Assertions.assertNull(jobEngine.getJob(jobId).getStatus().getTimeline().traceParent());
+        TraceContext unsampled = new TraceContext(parent.getTraceId(), parent.getSpanId(), false);
+        try (TraceContext.Scope ignored = TraceContext.attach(unsampled)) {
+            jobId = jobEngine.runJob(sleepJobDefinition(1L, 0L, true));
+        }
+        timeline = jobEngine.getJob(jobId).getStatus().getTimeline();
+        Assertions.assertFalse(timeline.isSampled());
+        Assertions.assertTrue(timeline.traceParent().endsWith("-00"));
+        jobEngine.waitJob(jobId);
+        jobEngine.stop();
+    }
+
+    @Test
+    void testJobOutput() throws Exception {
+        AbstractJobEngine jobEngine = (AbstractJobEngine) newEngine();
+        // 缓冲区只能放下几十条记录，其余的记录会被转存到磁盘
+        jobEngine.getJobOutputs().setMemoryCapacity(512);
+        jobEngine.start();
+
+        JobDefinition jobDefinition = new JobDefinition();
+        jobDefinition.setType("echo");
+        jobDefinition.setJsonConf("1000");
+        String jobId = jobEngine.runJob(jobDefinition);
+
+        List<String> records = new ArrayList<>();
+        long offset = 0L;
+        JobOutput.Chunk chunk;
+        do {
+            chunk = jobEngine.readJobOutput(jobId, offset, 300, 1000L);
+            records.addAll(chunk.records());
+            offset = chunk.nextOffset();
+        } while (!chunk.finished());
+        Assertions.assertEquals(1000, records.size());
+        for (int i = 0; i < records.size(); ++i) {
+            Assertions.assertEquals("line-" + i, records.get(i));
+        }
+        Assertions.assertEquals(List.of("line-10", "line-11"), jobEngine.readJobOutput(jobId, 10L, 2, 0L).records());
+        // 任务结束后缓冲区已经归还，堆外内存用完时输出全部转存到磁盘
+        Assertions.assertEquals(512L, jobEngine.getJobOutputs().getBufferPool().getAllocatedBytes());
+        jobEngine.getJobOutputs().setMaxDirectMemory(0L);
+        jobDefinition.setJsonConf("10");
+        String spilledJobId = jobEngine.runJob(jobDefinition);
+        jobEngine.waitJob(spilledJobId);
+        Assertions.assertEquals(List.of("line-8", "line-9"), jobEngine.readJobOutput(spilledJobId, 8L, 10, 0L).records());
+        // 没有输出的任务不创建输出，结束后也不保留
+        String silentJobId = jobEngine.runJob(sleepJobDefinition(10L, 0L, true));
+        jobEngine.waitJob(silentJobId);
+        Assertions.assertNull(jobEngine.getJobOutputs().get(silentJobId));
+        Assertions.assertNull(jobEngine.readJobOutput(silentJobId, 0L, 1, 0L));
+        jobEngine.stop();
+        Assertions.assertNull(jobEngine.readJobOutput(jobId, 0L, 1, 0L));
+    }
+
+    @Test
+    void testRecoverUnfinishedJobs() throws Exception {
+        JobConverter jobConverter = newEngine().getJobConverter();
+        MemoryJobStore jobStore = new MemoryJobStore();
+        // 模拟上次崩溃时还在运行的任务
+        JobDefinition rerunDefinition = sleepJobDefinition(10L, 0L, true);
+        rerunDefinition.setRecoveryPolicy(RecoveryPolicy.RERUN);
+        Job rerunJob = jobConverter.convertJobDefinition(rerunDefinition);
+        rerunJob.setId("rerun");
+        jobStore.saveJob(rerunJob);
+        Job abandonedJob = jobConverter.convertJobDefinition(sleepJobDefinition(10L, 0L, true));
+        abandonedJob.setId("abandoned");
+        jobStore.saveJob(abandonedJob);
+
+        JobEngine jobEngine = new StandaloneJobEngine(jobConverter, Executors.newCachedThreadPool(), jobStore);
+        jobEngine.start();
+        jobEngine.waitJob("rerun");
+        Job.Status status = jobEngine.getJob("rerun").getStatus();
+        Assertions.assertEquals(Job.ExitType.FINISHED, status.getExitType());
+        Assertions.assertEquals(2, status.getAttempt());
+        Assertions.assertEquals(Job.ExitType.FAILED, jobEngine.getJob("abandoned").getStatus().getExitType());
+        jobEngine.stop();
+    }
+
+    @Test
+    void testRateLimit() throws Exception {
+        AbstractJobEngine jobEngine = (AbstractJobEngine) newEngine();
+        jobEngine.getAdmissionController().setTypeLimit("sleep", RateLimit.ofConcurrency(1));
+        jobEngine.getAdmissionController().setDefinitionLimit("limited", new RateLimit(20.0, 1, 0));
+        jobEngine.start();
+
+        // 超过限制的任务排队等待而不是被拒绝
+        long begin = System.currentTimeMillis();
+        List<String> sleepJobIds = new ArrayList<>();
+        for (int i = 0; i < 3; ++i) {
+            sleepJobIds.add(jobEngine.runJob(sleepJobDefinition(100L, 0L, true)));
+        }
+        List<String> sumJobIds = new ArrayList<>();
+        for (int i = 0; i < 5; ++i) {
+            JobDefinition jobDefinition = new JobDefinition();
+            jobDefinition.setId("limited");
+            jobDefinition.setType("sum");
+            jobDefinition.setJsonConf("{\"numberX\": 1, \"numberY\": 2}");
+            sumJobIds.add(jobEngine.runJob(jobDefinition));
+        }
+        for (String jobId : sumJobIds) {
+            jobEngine.waitJob(jobId);
+            Assertions.assertEquals(Job.ExitType.FINISHED, jobEngine.getJob(jobId).getStatus().getExitType());
+        }
+        // 每秒20个，第5个至少要等200毫秒
+        Assertions.assertTrue(System.currentTimeMillis() - begin >= 190L);
+        for (String jobId : sleepJobIds) {
+            jobEngine.waitJob(jobId);
+            Assertions.assertEquals(Job.ExitType.FINISHED, jobEngine.getJob(jobId).getStatus().getExitType());
+        }
+        // 同一时刻只有一个sleep任务在运行
+        Assertions.assertTrue(System.currentTimeMillis() - begin >= 300L);
+        Assertions.assertEquals(0, jobEngine.getAdmissionController().getRunningCount("sleep"));
+        jobEngine.stop();
+    }
+
+    @Test
+    void testReconfigureLimit() throws Exception {
+        AbstractJobEngine jobEngine = (AbstractJobEngine) newEngine();
+        jobEngine.getAdmissionController().setTypeLimit("sleep", RateLimit.ofConcurrency(2));
+        jobEngine.start();
+
+        List<String> jobIds = new ArrayList<>();
+        for (int i = 0; i < 2; ++i) {
+            jobIds.add(jobEngine.runJob(sleepJobDefinition(300L, 0L, true)));
+        }
+        Assertions.assertEquals(2, jobEngine.getAdmissionController().getRunningCount("sleep"));
+        // 修改配置保留运行计数，新的上限对已经在运行的任务同样有效
+        jobEngine.getAdmissionController().setTypeLimit("sleep", RateLimit.ofConcurrency(1));
+        AdaptiveLimit nodeLimit = new AdaptiveLimit(AdaptiveLimit.Algorithm.AIMD, 8, 1, 8);
+        jobEngine.getAdmissionController().setNodeLimit(nodeLimit);
+        Assertions.assertEquals(2, jobEngine.getAdmissionController().getRunningCount("sleep"));
+        long begin = System.currentTimeMillis();
+        String queuedJobId = jobEngine.runJob(sleepJobDefinition(10L, 0L, true));
+        jobEngine.waitJob(queuedJobId);
+        Assertions.assertTrue(System.currentTimeMillis() - begin >= 200L);
+        for (String jobId : jobIds) {
+            jobEngine.waitJob(jobId);
+        }
+        // 任务归还给准入时占用的限流器，设置之前准入的任务不会归还到新的限流器上
+        Assertions.assertEquals(0, jobEngine.getAdmissionController().getRunningCount("sleep"));
+        Assertions.assertEquals(0, nodeLimit.getInFlight());
+        jobEngine.stop();
+    }
+
+    @Test
+    void testAdaptiveLimit() throws Exception {
+        AbstractJobEngine jobEngine = (AbstractJobEngine) newEngine();
+        AdaptiveLimit sleepLimit = new AdaptiveLimit(AdaptiveLimit.Algorithm.AIMD, 4, 1, 8);
+        jobEngine.getAdmissionController().setAdaptiveTypeLimit("sleep", sleepLimit);
+        jobEngine.getAdmissionController().setNodeLimit(new AdaptiveLimit(AdaptiveLimit.Algorithm.GRADIENT, 16, 2, 64));
+        jobEngine.start();
+
+        // 超时认为出现了过载，上限乘性减小
+        String timeoutJobId = jobEngine.runJob(sleepJobDefinition(1000L, 50L, true));
+        jobEngine.waitJob(timeoutJobId);
+        Assertions.assertEquals(Job.ExitType.TIMEOUT, jobEngine.getJob(timeoutJobId).getStatus().getExitType());
+        Assertions.assertEquals(3, jobEngine.getAdmissionController().getConcurrencyLimit("sleep"));
+
+        List<String> jobIds = new ArrayList<>();
+        for (int i = 0; i < 10; ++i) {
+            jobIds.add(jobEngine.runJob(sleepJobDefinition(20L, 0L, true)));
+        }
+        for (String jobId : jobIds) {
+            jobEngine.waitJob(jobId);
+            Assertions.assertEquals(Job.ExitType.FINISHED, jobEngine.getJob(jobId).getStatus().getExitType());
+        }
+        Assertions.assertEquals(0, sleepLimit.getInFlight());
+        // 线程池没有排队，并发数接近上限时上限加性增长，和任务本身执行了20ms无关
+        Assertions.assertTrue(sleepLimit.getLimit() > 3);
+        int nodeLimit = jobEngine.getAdmissionController().getNodeConcurrencyLimit();
+        Assertions.assertTrue(nodeLimit >= 2 && nodeLimit <= 64);
+        Assertions.assertEquals(-1, jobEngine.getAdmissionController().getConcurrencyLimit("sum"));
+        jobEngine.stop();
+
+        // 只有一个线程时准入的任务在线程池中排队，排队时间变长，上限乘性减小
+        JobEngine singleThreadEngine = new StandaloneJobEngine(jobEngine.getJobConverter(), Executors.newFixedThreadPool(1), new MemoryJobStore());
+        AdaptiveLimit queueLimit = new AdaptiveLimit(AdaptiveLimit.Algorithm.AIMD, 8, 1, 8);
+        ((AbstractJobEngine) singleThreadEngine).getAdmissionController().setNodeLimit(queueLimit);
+        singleThreadEngine.start();
+        jobIds.clear();
+        for (int i = 0; i < 8; ++i) {
+            jobIds.add(singleThreadEngine.runJob(sleepJobDefinition(20L, 0L, true)));
+        }
+        for (String jobId : jobIds) {
+            singleThreadEngine.waitJob(jobId);
+        }
+        Assertions.assertTrue(queueLimit.getLimit() < 8);
+        singleThreadEngine.stop();
+    }
+
+    @Test
+    void testIdempotencyKey() throws Exception {
+        JobEngine jobEngine = newEngine();
+        jobEngine.start();
+
+        JobDefinition jobDefinition = sleepJobDefinition(10L, 0L, true);
+        jobDefinition.setIdempotencyKey("request-1");
+        String jobId = jobEngine.runJob(jobDefinition);
+        Assertions.assertEquals(jobId, jobEngine.runJob(jobDefinition));
+        jobEngine.waitJob(jobId);
+        // 任务结束后在ttl内仍然认为是重复提交
+        Assertions.assertEquals(jobId, jobEngine.runJob(jobDefinition));
+
+        jobDefinition.setIdempotencyKey("request-2");
+        Assertions.assertNotEquals(jobId, jobEngine.runJob(jobDefinition));
+        jobEngine.stop();
+    }
+
+    @Test
+    void testCoalesce() throws Exception {
+        JobEngine jobEngine = newEngine();
+        jobEngine.start();
+
+        JobDefinition jobDefinition = sleepJobDefinition(200L, 0L, true);
+        jobDefinition.setId("coalesce");
+        String firstJobId = jobEngine.runJobCoalesced(jobDefinition);
+        // 运行期间的多次提交合并为一次待执行的任务
+        String rerunJobId = jobEngine.runJobCoalesced(jobDefinition);
+        Assertions.assertNotEquals(firstJobId, rerunJobId);
+        for (int i = 0; i < 5; ++i) {
+            Assertions.assertEquals(rerunJobId, jobEngine.runJobCoalesced(jobDefinition));
+        }
+        Assertions.assertThrows(IllegalStateException.class, () -> jobEngine.runJob(jobDefinition, true));
+
+        jobEngine.waitJob(rerunJobId);
+        Job firstJob = jobEngine.getJob(firstJobId);
+        Job rerunJob = jobEngine.getJob(rerunJobId);
+        Assertions.assertEquals(Job.ExitType.FINISHED, rerunJob.getStatus().getExitType());
+        Assertions.assertTrue(rerunJob.getStatus().getStartTimestamp() >= firstJob.getStatus().getStopTimestamp());
+
+        String nextJobId = jobEngine.runJobCoalesced(jobDefinition);
+        Assertions.assertNotEquals(rerunJobId, nextJobId);
+        jobEngine.waitJob(nextJobId);
+
+        // 待执行的任务启动时被拒绝，返回的jobId记录为失败
+        String blockerJobId = jobEngine.runJob(sleepJobDefinition(400L, 0L, true));
+        String runningJobId = jobEngine.runJobCoalesced(jobDefinition);
+        String rejectedJobId = jobEngine.runJobCoalesced(jobDefinition);
+        ((AbstractJobEngine) jobEngine).setMaxRunningJobCount(1L);
+        jobEngine.waitJob(runningJobId);
+        jobEngine.waitJob(rejectedJobId);
+        Assertions.assertEquals(Job.ExitType.FAILED, jobEngine.getJob(rejectedJobId).getStatus().getExitType());
+        jobEngine.waitJob(blockerJobId);
+        jobEngine.stop();
+    }
+
+    @Test
+    void testMicroBatch() throws Exception {
+        AbstractJobEngine jobEngine = (AbstractJobEngine) newEngine();
+        AtomicInteger setups = new AtomicInteger();
+        AtomicLong total = new AtomicLong();
+        jobEngine.registerMicroBatchHandler("echo", () -> new MicroBatchHandler() {
+            @Override
+            public void setup() {
+                setups.incrementAndGet();
+            }
+
+            @Override
+            public void process(JobDefinition jobDefinition) {
+                int value = Integer.parseInt(jobDefinition.getJsonConf());
+                if (value < 0) {
+                    throw new IllegalArgumentException("negative");
+                }
+                total.addAndGet(value);
+            }
+        });
+        jobEngine.start();
+
+        List<JobDefinition> jobDefinitions = new ArrayList<>();
+        for (int i = 0; i < 2500; ++i) {
+            JobDefinition jobDefinition = new JobDefinition();
+            jobDefinition.setType("echo");
+            jobDefinition.setJsonConf(i == 7 ? "-1" : "1");
+            jobDefinitions.add(jobDefinition);
+        }
+        // 没有注册处理器的类型逐个转换成Job执行
+        JobDefinition sum = new JobDefinition();
+        sum.setType("sum");
+        sum.setJsonConf("{\"numberX\": 1, \"numberY\": 2}");
+        JobDefinition badSum = new JobDefinition();
+        badSum.setType("sum");
+        badSum.setJsonConf("not json");
+        jobDefinitions.add(1, sum);
+        jobDefinitions.add(badSum);
+
+        List<String> jobIds = jobEngine.runMicroBatch(jobDefinitions);
+        Assertions.assertEquals(jobDefinitions.size(), jobIds.size());
+        for (String jobId : jobIds) {
+            jobEngine.waitJob(jobId);
+        }
+        Assertions.assertEquals(3, setups.get());
+        Assertions.assertEquals(2499L, total.get());
+        Assertions.assertEquals(MicroBatchJob.batchIdOf(jobIds.get(0)), MicroBatchJob.batchIdOf(jobIds.get(2)));
+        Assertions.assertEquals(Job.ExitType.FINISHED, jobEngine.getJobStatus(jobIds.get(0)).getExitType());
+        Job.Status failed = jobEngine.getJobStatus(jobIds.get(8));
+        Assertions.assertEquals(Job.ExitType.FAILED, failed.getExitType());
+        Assertions.assertEquals("negative", failed.getExtraInfo().get("error"));
+        Assertions.assertEquals(Job.ExitType.FINISHED, jobEngine.getJobStatus(jobIds.get(1)).getExitType());
+        Assertions.assertEquals(3, SumNumberJob.getResult());
+        Assertions.assertEquals(Job.ExitType.FAILED, jobEngine.getJobStatus(jobIds.get(jobIds.size() - 1)).getExitType());
+        Assertions.assertNull(jobEngine.getJobStatus(MicroBatchJob.itemId(MicroBatchJob.batchIdOf(jobIds.get(0)), 5000)));
+        jobEngine.stop();
+    }
+
+    @Test
+    void testSplitJob() throws Exception {
+        JobEngine jobEngine = newEngine();
+        jobEngine.start();
+
+        JobDefinition jobDefinition = new JobDefinition();
+        jobDefinition.setType("split-sum");
+        jobDefinition.setJsonConf("1050");
+        String jobId = jobEngine.runJob(jobDefinition);
+        jobEngine.waitJob(jobId);
+        Job.Status status = jobEngine.getJobStatus(jobId);
+        Assertions.assertEquals(Job.ExitType.FINISHED, status.getExitType());
+        Assertions.assertEquals(1050L * 1051L / 2, SplitSumJob.getResult());
+        Assertions.assertEquals("FFFFFFFFFFF", status.getExtraInfo().get(AbstractSplitJob.PARTITION_STATES));
+        Assertions.assertEquals(Collections.nCopies(11, 100), status.getExtraInfo().get(AbstractSplitJob.PARTITION_PROGRESS));
+        jobEngine.stop();
+    }
+
+    @Test
+    void testStreamingJob() throws Exception {
+        AbstractJobEngine jobEngine = (AbstractJobEngine) newEngine();
+        jobEngine.start();
+        DoubleStreamJob.SUM.set(0L);
+
+        JobDefinition jobDefinition = new JobDefinition();
+        jobDefinition.setType("double-stream");
+        jobDefinition.setJsonConf("5000");
+        String jobId = jobEngine.runJob(jobDefinition);
+        DoubleStreamJob job = (DoubleStreamJob) jobEngine.getJob(jobId);
+        long expected = 4999L * 5000L;
+        while (DoubleStreamJob.SUM.get() < expected) {
+            Thread.sleep(10);
+        }
+        // 数据源没有新的数据时任务让出线程，但是还没有结束
+        Thread.sleep(100);
+        Assertions.assertNull(jobEngine.getJobStatus(jobId).getExitType());
+        for (int i = 0; i < 10; ++i) {
+            Assertions.assertTrue(job.offer(1));
+        }
+        job.closeInput();
+        Assertions.assertFalse(job.offer(1));
+        jobEngine.waitJob(jobId);
+
+        Job.Status status = jobEngine.getJobStatus(jobId);
+        Assertions.assertEquals(Job.ExitType.FINISHED, status.getExitType());
+        Assertions.assertEquals(expected + 20L, DoubleStreamJob.SUM.get());
+        // 推入的记录不计入拉取的offset
+        Assertions.assertEquals(5000L, status.getExtraInfo().get(AbstractStreamingJob.OFFSET));
+        Assertions.assertEquals(5010L, jobEngine.getStreamingMetrics().snapshot().recordsOut());
+        jobEngine.stop();
+    }
+
+    @Test
+    void testStreamingJobRewindOnFailure() throws Exception {
+        JobEngine jobEngine = newEngine();
+        jobEngine.start();
+        DoubleStreamJob.SUM.set(0L);
+        DoubleStreamJob.FAIL_AT.set(3000);
+
+        RetryPolicy retryPolicy = new RetryPolicy();
+        retryPolicy.setMaxAttempts(2);
+        retryPolicy.setInitialBackoffMillis(10L);
+        retryPolicy.setRetryOn(List.of(RuntimeException.class.getName()));
+        JobDefinition jobDefinition = new JobDefinition();
+        jobDefinition.setType("double-stream");
+        jobDefinition.setJsonConf("5000");
+        jobDefinition.setRetryPolicy(retryPolicy);
+        String jobId = jobEngine.runJob(jobDefinition);
+        DoubleStreamJob job = (DoubleStreamJob) jobEngine.getJob(jobId);
+        // 推入的记录和拉取的记录混在一起，推入的0不影响结果，但是回退时不能把它们算作拉取的记录
+        for (int i = 0; i < 10; ++i) {
+            Assertions.assertTrue(job.offer(0));
+        }
+        long expected = 4999L * 5000L;
+        long deadline = System.currentTimeMillis() + 5000L;
+        while (DoubleStreamJob.SUM.get() < expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        job.closeInput();
+        jobEngine.waitJob(jobId);
+
+        // 失败时没有写出的记录重新拉取，既不会丢失也不会重复写出
+        Job.Status status = jobEngine.getJobStatus(jobId);
+        Assertions.assertEquals(Job.ExitType.FINISHED, status.getExitType());
+        Assertions.assertEquals(2, status.getAttempt());
+        Assertions.assertEquals(expected, DoubleStreamJob.SUM.get());
+        Assertions.assertEquals(5000L, status.getExtraInfo().get(AbstractStreamingJob.OFFSET));
+        jobEngine.stop();
+    }
+
+    @Test
+    void testReactiveJobEngine() throws Exception {
+        JobEngine jobEngine = newEngine();
+        jobEngine.start();
+        ReactiveJobEngine reactiveJobEngine = new ReactiveJobEngine(jobEngine);
+
+        int count = 200;
+        CountDownLatch latch = new CountDownLatch(count);
+        List<Job.Status> finalStatuses = Collections.synchronizedList(new ArrayList<>());
+        for (int i = 0; i < count; ++i) {
+            reactiveJobEngine.submit(sleepJobDefinition(20L, 0L, true)).subscribe(new Flow.Subscriber<>() {
+                private Flow.Subscription subscription;
+
+                private Job.Status last;
+
+                @Override
+                public void onSubscribe(Flow.Subscription subscription) {
+                    this.subscription = subscription;
+                    subscription.request(1);
+                }
+
+                @Override
+                public void onNext(Job.Status status) {
+                    last = status;
+                    subscription.request(1);
+                }
+
+                @Override
+                public void onError(Throwable throwable) {
+                    latch.countDown();
+                }
+
+                @Override
+                public void onComplete() {
+                    finalStatuses.add(last);
+                    latch.countDown();
+                }
+            });
+        }
+        Assertions.assertTrue(latch.await(10, TimeUnit.SECONDS));
+        Assertions.assertEquals(count, finalStatuses.size());
+        for (Job.Status status : finalStatuses) {
+            Assertions.assertEquals(Job.ExitType.FINISHED, status.getExitType());
+        }
+        Assertions.assertEquals(0, reactiveJobEngine.getInFlightCount());
+
+        // 没有请求的订阅者只会在请求之后收到最终状态
+        JobStatusPublisher publisher = reactiveJobEngine.submit(sleepJobDefinition(10L, 0L, true));
+        jobEngine.waitJob(publisher.getJobId());
+        CompletableFuture<Job.Status> received = new CompletableFuture<>();
+        publisher.subscribe(new Flow.Subscriber<>() {
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                subscription.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext(Job.Status status) {
+                received.complete(status);
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                received.completeExceptionally(throwable);
+            }
+
+            @Override
+            public void onComplete() {
+                received.complete(null);
+            }
+        });
+        Assertions.assertEquals(Job.ExitType.FINISHED, received.get(5, TimeUnit.SECONDS).getExitType());
+
+        JobDefinition unknown = new JobDefinition();
+        unknown.setType("unknown");
+        CompletableFuture<Throwable> failure = new CompletableFuture<>();
+        reactiveJobEngine.submit(unknown).subscribe(new Flow.Subscriber<>() {
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                // 不请求也会收到异常
+            }
+
+            @Override
+            public void onNext(Job.Status status) {
+                failure.complete(null);
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                failure.complete(throwable);
+            }
+
+            @Override
+            public void onComplete() {
+                failure.complete(null);
+            }
+        });
+        Assertions.assertNotNull(failure.get(5, TimeUnit.SECONDS));
+        reactiveJobEngine.close();
+        jobEngine.stop();
+    }
+
+    @Test
+    void testGracefulStop() throws Exception {
+        MemoryJobStore jobStore = new MemoryJobStore();
+        AbstractJobEngine jobEngine = new StandaloneJobEngine(
+                new DefaultJobConverter(Map.of("sleep", "zk.js.engine.job.SleepJob")), Executors.newCachedThreadPool(), jobStore
+        );
+        jobEngine.setDrainTimeoutMillis(1000L);
+        jobEngine.start();
+
+        String shortJobId = jobEngine.runJob(sleepJobDefinition(200L, 0L, true));
+        String longJobId = jobEngine.runJob(sleepJobDefinition(10000L, 0L, true));
+        long begin = System.currentTimeMillis();
+        jobEngine.stop();
+        long elapsed = System.currentTimeMillis() - begin;
+        Assertions.assertTrue(elapsed >= 900L && elapsed < 5000L, "stopped in " + elapsed + " ms");
+        Assertions.assertThrows(IllegalStateException.class, () -> jobEngine.runJob(sleepJobDefinition(10L, 0L, true)));
+        Assertions.assertEquals(Job.ExitType.FINISHED, jobStore.getJob(shortJobId).getStatus().getExitType());
+        Assertions.assertEquals(Job.ExitType.MANUAL_STOP, jobStore.getJob(longJobId).getStatus().getExitType());
+    }
+
+    private static List<JobEvent.Type> eventTypes(List<JobEvent> events, String jobId) {
+        synchronized (events) {
+            return events.stream().filter(event -> event.getJobId().equals(jobId)).map(JobEvent::getType).toList();
+        }
+    }
+
+    private static JobEngine newEngine() {
+        Map<String, String> jobTypeClasses = Map.of(
+                "sum", "zk.js.engine.job.SumNumberJob",
+                "sleep", "zk.js.engine.job.SleepJob",
+                "flaky", "zk.js.engine.job.FlakyJob",
+                "echo", "zk.js.engine.job.EchoJob",
+                "split-sum", "zk.js.engine.job.SplitSumJob",
+                "double-stream", "zk.js.engine.job.DoubleStreamJob"
+        );
+        return new StandaloneJobEngine(new DefaultJobConverter(jobTypeClasses));
+    }
+
+    private static JobDefinition sleepJobDefinition(long millis, long timeoutMillis, boolean cooperative) throws Exception {
+        JobDefinition jobDefinition = new JobDefinition();
+        jobDefinition.setType("sleep");
+        jobDefinition.setTimeoutMillis(timeoutMillis);
+        Map<String, Object> data = new HashMap<>();
+        data.put("millis", millis);
+        data.put("cooperative", cooperative);
+        jobDefinition.setJsonConf(new ObjectMapper().writeValueAsString(data));
+        return jobDefinition;
+    }
+
 }
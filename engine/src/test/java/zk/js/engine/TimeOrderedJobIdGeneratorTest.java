@@ -0,0 +1,77 @@
+/*
+ * Copyright 2023 zoukang, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package zk.js.engine;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+class TimeOrderedJobIdGeneratorTest {
+
+    @Test
+    void testMonotonicAndSortable() {
+        TimeOrderedJobIdGenerator generator = new TimeOrderedJobIdGenerator("node-1:");
+        String previous = generator.nextId();
+        Assertions.assertTrue(previous.startsWith("node-1:"));
+        for (int i = 0; i < 100000; ++i) {
+            String id = generator.nextId();
+            Assertions.assertEquals(previous.length(), id.length());
+            Assertions.assertTrue(id.compareTo(previous) > 0, previous + " >= " + id);
+            previous = id;
+        }
+    }
+
+    @Test
+    void testUniqueAcrossThreadsAndGenerators() throws Exception {
+        Set<String> ids = ConcurrentHashMap.newKeySet();
+        // 两个生成器模拟两个节点在同一时刻生成id，每个生成器由两个线程共用
+        List<TimeOrderedJobIdGenerator> generators = List.of(new TimeOrderedJobIdGenerator("", 0L), new TimeOrderedJobIdGenerator("", 1L));
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 4; ++i) {
+            TimeOrderedJobIdGenerator generator = generators.get(i % 2);
+            threads.add(new Thread(() -> {
+                for (int j = 0; j < 50000; ++j) {
+                    ids.add(generator.nextId());
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assertions.assertEquals(200000, ids.size());
+    }
+
+    @Test
+    void testForNode() {
+        TimeOrderedJobIdGenerator node1 = TimeOrderedJobIdGenerator.forNode("node-1");
+        TimeOrderedJobIdGenerator node2 = TimeOrderedJobIdGenerator.forNode("node-2");
+        String id1 = node1.nextId();
+        String id2 = node2.nextId();
+        Assertions.assertTrue(id1.endsWith(TimeOrderedJobIdGenerator.NODE_SEPARATOR + "node-1"));
+        Assertions.assertTrue(id2.endsWith(TimeOrderedJobIdGenerator.NODE_SEPARATOR + "node-2"));
+        Assertions.assertNotEquals(id1, id2);
+        Assertions.assertTrue(node1.nextId().compareTo(id1) > 0);
+        Assertions.assertThrows(IllegalArgumentException.class, () -> TimeOrderedJobIdGenerator.forNode(""));
+    }
+
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright 2023 zoukang, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package zk.js.engine.cluster;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.BooleanSupplier;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import zk.js.engine.job.DefaultJobConverter;
+import zk.js.engine.job.Job;
+import zk.js.engine.job.JobDefinition;
+
+class ClusterJobEngineTest {
+
+    @Test
+    void testRunJobsGroupedByNode() throws Exception {
+        try (InProcessCluster cluster = newCluster(3, 4)) {
+            cluster.start();
+            InProcessClusterJobEngine submitter = cluster.getEngine(0);
+
+            List<JobDefinition> jobDefinitions = new ArrayList<>();
+            for (int i = 0; i < 6; ++i) {
+                jobDefinitions.add(sleepJobDefinition(50L));
+            }
+            List<String> jobIds = submitter.runJobs(jobDefinitions, false);
+            Assertions.assertEquals(6, jobIds.size());
+            // 每个节点分到两个任务，发给其他两个节点的任务各自合并成一次消息
+            Assertions.assertEquals(2, cluster.getDispatchCount());
+            Map<String, Integer> executions = new HashMap<>();
+            for (String jobId : jobIds) {
+                Job.Status status = awaitExit(submitter, jobId);
+                Assertions.assertEquals(Job.ExitType.FINISHED, status.getExitType());
+                executions.merge(executorOf(status), 1, Integer::sum);
+            }
+            Assertions.assertEquals(Map.of("node-0", 2, "node-1", 2, "node-2", 2), executions);
+            await(() -> cluster.getAssignmentCount() == 0);
+
+            // 有一个不能分配时撤销所有分配，不启动任何任务
+            cluster.setCapacity(1);
+            List<JobDefinition> tooMany = new ArrayList<>();
+            for (int i = 0; i < 4; ++i) {
+                tooMany.add(sleepJobDefinition(50L));
+            }
+            tooMany.get(0).setIdempotencyKey("batch-1");
+            Exception exception = Assertions.assertThrows(Exception.class, () -> submitter.runJobs(tooMany, false));
+            Assertions.assertTrue(exception.getMessage().contains("1 of them are not assigned"));
+            Assertions.assertEquals(0, cluster.getAssignmentCount());
+            Assertions.assertEquals(2, cluster.getDispatchCount());
+
+            // 撤销分配时也释放了幂等键，再次提交会启动新的任务
+            cluster.setCapacity(Integer.MAX_VALUE);
+            String jobId = submitter.runJob(tooMany.get(0));
+            Assertions.assertEquals(Job.ExitType.FINISHED, awaitExit(submitter, jobId).getExitType());
+        }
+    }
+
+    @Test
+    void testRemoteJobStatus() throws Exception {
+        try (InProcessCluster cluster = newCluster(3, 4)) {
+            cluster.start();
+            cluster.setPinnedNodeId("node-1");
+            String jobId = cluster.getEngine(0).runJob(sleepJobDefinition(300L));
+
+            // 提交节点和其他节点都能查到执行节点上正在运行的状态
+            for (int i : new int[]{0, 2}) {
+                InProcessClusterJobEngine engine = cluster.getEngine(i);
+                await(() -> {
+                    Job.Status status = engine.getJobStatus(jobId);
+                    return Objects.nonNull(status) && Objects.isNull(status.getExitType());
+                });
+                Assertions.assertEquals("node-1", executorOf(engine.getJobStatus(jobId)));
+                Assertions.assertNull(engine.getJob(jobId));
+            }
+            Job.Status status = awaitExit(cluster.getEngine(2), jobId);
+            Assertions.assertEquals(Job.ExitType.FINISHED, status.getExitType());
+            Assertions.assertEquals("node-1", executorOf(status));
+        }
+    }
+
+    @Test
+    void testFailover() throws Exception {
+        try (InProcessCluster cluster = newCluster(3, 4)) {
+            cluster.start();
+            cluster.setPinnedNodeId("node-1");
+            InProcessClusterJobEngine submitter = cluster.getEngine(0);
+            List<String> jobIds = new ArrayList<>();
+            for (int i = 0; i < 3; ++i) {
+                jobIds.add(submitter.runJob(sleepJobDefinition(500L)));
+            }
+            InProcessClusterJobEngine victim = cluster.getEngine(1);
+            await(() -> jobIds.stream().allMatch(jobId -> Objects.nonNull(victim.getJob(jobId))));
+            cluster.setPinnedNodeId(null);
+
+            // 协调者把失效节点上的任务转移给存活的节点重新执行
+            cluster.kill(1);
+            for (String jobId : jobIds) {
+                Job.Status status = awaitExit(submitter, jobId);
+                Assertions.assertEquals(Job.ExitType.FINISHED, status.getExitType());
+                Assertions.assertNotEquals("node-1", executorOf(status));
+            }
+            await(() -> cluster.getAssignmentCount() == 0);
+        }
+    }
+
+    @Test
+    void testSteal() throws Exception {
+        try (InProcessCluster cluster = newCluster(2, 1)) {
+            cluster.getEngine(1).getJobStealer().setIntervalMillis(100L);
+            cluster.start();
+            cluster.setPinnedNodeId("node-0");
+            InProcessClusterJobEngine submitter = cluster.getEngine(0);
+            List<String> jobIds = new ArrayList<>();
+            for (int i = 0; i < 6; ++i) {
+                jobIds.add(submitter.runJob(sleepJobDefinition(200L)));
+            }
+
+            // 空闲节点拿走还没有开始执行的任务，被拿走的任务只执行一次
+            Map<String, Integer> executions = new HashMap<>();
+            for (String jobId : jobIds) {
+                Job.Status status = awaitExit(submitter, jobId);
+                Assertions.assertEquals(Job.ExitType.FINISHED, status.getExitType());
+                Assertions.assertEquals(1, status.getAttempt());
+                executions.merge(executorOf(status), 1, Integer::sum);
+            }
+            Assertions.assertTrue(executions.getOrDefault("node-1", 0) > 0, "executions: " + executions);
+            Assertions.assertEquals(6, executions.values().stream().mapToInt(Integer::intValue).sum());
+            await(() -> cluster.getAssignmentCount() == 0);
+        }
+    }
+
+    @Test
+    void testHandOffOnStop() throws Exception {
+        try (InProcessCluster cluster = newCluster(2, 1)) {
+            cluster.start();
+            cluster.setPinnedNodeId("node-0");
+            InProcessClusterJobEngine leaving = cluster.getEngine(0);
+            List<String> jobIds = new ArrayList<>();
+            for (int i = 0; i < 4; ++i) {
+                jobIds.add(leaving.runJob(sleepJobDefinition(200L)));
+            }
+            await(() -> leaving.getPendingJobCount() == 3);
+
+            // 停止时等待中的任务转交给其他节点，正在运行的任务在drainTimeoutMillis内正常结束
+            leaving.setDrainTimeoutMillis(5000L);
+            cluster.stop(0);
+            Assertions.assertEquals(Job.ExitType.FINISHED, leaving.getJob(jobIds.get(0)).getStatus().getExitType());
+            Assertions.assertEquals("node-0", executorOf(leaving.getJob(jobIds.get(0)).getStatus()));
+            for (String jobId : jobIds.subList(1, jobIds.size())) {
+                Assertions.assertEquals(Job.ExitType.TRANSFERRED, leaving.getJob(jobId).getStatus().getExitType());
+                Job.Status status = awaitExit(cluster.getEngine(1), jobId);
+                Assertions.assertEquals(Job.ExitType.FINISHED, status.getExitType());
+                Assertions.assertEquals("node-1", executorOf(status));
+            }
+            await(() -> cluster.getAssignmentCount() == 0);
+        }
+    }
+
+    /**
+     * 默认关闭任务窃取，避免影响其他测试中任务的执行节点
+     */
+    private static InProcessCluster newCluster(int nodeCount, int threadsPerNode) {
+        DefaultJobConverter jobConverter = new DefaultJobConverter(Map.of("sleep", "zk.js.engine.job.SleepJob"));
+        InProcessCluster cluster = new InProcessCluster(nodeCount, threadsPerNode, jobConverter);
+        for (int i = 0; i < nodeCount; ++i) {
+            cluster.getEngine(i).getJobStealer().setIntervalMillis(0L);
+        }
+        return cluster;
+    }
+
+    private static JobDefinition sleepJobDefinition(long millis) throws Exception {
+        JobDefinition jobDefinition = new JobDefinition();
+        jobDefinition.setType("sleep");
+        jobDefinition.setJsonConf(new ObjectMapper().writeValueAsString(Map.of("millis", millis)));
+        return jobDefinition;
+    }
+
+    private static String executorOf(Job.Status status) {
+        return (String) status.getExtraInfo().get(AbstractClusterJobEngine.EXECUTOR_NODE_ID);
+    }
+
+    /**
+     * 等待任务在执行节点上结束，转交给其他节点的记录不算结束
+     */
+    private static Job.Status awaitExit(InProcessClusterJobEngine engine, String jobId) throws InterruptedException {
+        Job.Status[] result = new Job.Status[1];
+        await(() -> {
+            Job.Status status = engine.getJobStatus(jobId);
+            result[0] = status;
+            return Objects.nonNull(status) && Objects.nonNull(status.getExitType()) && status.getExitType() != Job.ExitType.TRANSFERRED;
+        });
+        return result[0];
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000L;
+        while (!condition.getAsBoolean()) {
+            Assertions.assertTrue(System.currentTimeMillis() < deadline, "Condition is not satisfied in 10 seconds.");
+            Thread.sleep(20L);
+        }
+    }
+
+}
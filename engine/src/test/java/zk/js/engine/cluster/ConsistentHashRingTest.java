@@ -0,0 +1,89 @@
+/*
+ * Copyright 2023 zoukang, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package zk.js.engine.cluster;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+class ConsistentHashRingTest {
+
+    @Test
+    void testMinimalMovementWhenNodeAdded() {
+        List<TestNode> nodes = new ArrayList<>();
+        for (int i = 0; i < 10; ++i) {
+            nodes.add(new TestNode("node-" + i));
+        }
+        ConsistentHashRing<TestNode> ring = new ConsistentHashRing<>(160);
+        ring.setNodes(nodes);
+
+        int keyCount = 10000;
+        Map<String, String> before = new HashMap<>();
+        Map<String, Integer> counts = new HashMap<>();
+        for (int i = 0; i < keyCount; ++i) {
+            String owner = ring.locate("definition-" + i).getId();
+            before.put("definition-" + i, owner);
+            counts.merge(owner, 1, Integer::sum);
+        }
+        Assertions.assertEquals(10, counts.size());
+        for (int count : counts.values()) {
+            Assertions.assertTrue(count > keyCount / 10 / 2 && count < keyCount / 10 * 2, "unbalanced: " + counts);
+        }
+
+        nodes.add(new TestNode("node-10"));
+        ring.setNodes(nodes);
+        int moved = 0;
+        for (Map.Entry<String, String> entry : before.entrySet()) {
+            String owner = ring.locate(entry.getKey()).getId();
+            if (!owner.equals(entry.getValue())) {
+                Assertions.assertEquals("node-10", owner);
+                ++moved;
+            }
+        }
+        // 理论上只有大约1/11的key会迁移到新节点
+        Assertions.assertTrue(moved < keyCount / 11 * 2, "moved " + moved);
+    }
+
+    @Test
+    void testLocateSkipsUnacceptableNodes() {
+        ConsistentHashRing<TestNode> ring = new ConsistentHashRing<>(16);
+        Assertions.assertNull(ring.locate("any"));
+        ring.setNodes(List.of(new TestNode("a"), new TestNode("b")));
+        TestNode primary = ring.locate("key");
+        TestNode other = ring.locate("key", node -> !node.getId().equals(primary.getId()));
+        Assertions.assertNotEquals(primary.getId(), other.getId());
+        Assertions.assertEquals(primary.getId(), ring.locate("key", node -> false).getId());
+    }
+
+    private record TestNode(String id) implements Node<String> {
+
+        @Override
+        public String getId() {
+            return id;
+        }
+
+        @Override
+        public String getAddress() {
+            return id;
+        }
+
+    }
+
+}
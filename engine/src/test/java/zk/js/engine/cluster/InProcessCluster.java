@@ -0,0 +1,276 @@
+/*
+ * Copyright 2023 zoukang, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package zk.js.engine.cluster;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import zk.js.engine.job.JobConverter;
+import zk.js.engine.job.MemoryJobStore;
+
+/**
+ * 同一个进程中的多节点集群，用于测试集群引擎：每个节点有自己的任务线程池和JobStore，
+ * 任务的分配信息保存在所有节点共享的表中，相当于分配信息在各节点之间保持一致的副本；
+ * 节点之间的消息通过传输线程池异步投递，发给已经失效的节点的消息直接丢弃
+ */
+class InProcessCluster implements AutoCloseable {
+
+    private final List<InProcessClusterJobEngine> engines = new ArrayList<>();
+
+    private final List<ExecutorService> jobExecutors = new ArrayList<>();
+
+    private final Set<String> aliveNodeIds = ConcurrentHashMap.newKeySet();
+
+    private final Map<String, JobRef> assignments = new ConcurrentHashMap<>(16);
+
+    @Getter
+    private final ExecutorService transport = Executors.newCachedThreadPool();
+
+    /**
+     * 发给其他节点的执行任务的消息数
+     */
+    private final AtomicInteger dispatchCount = new AtomicInteger();
+
+    /**
+     * 不为null时所有新任务都分配给这个节点，用于构造负载不均衡的集群
+     */
+    @Setter
+    private volatile String pinnedNodeId;
+
+    /**
+     * 每个节点最多分配的任务数，所有节点都满了之后不能再分配
+     */
+    @Setter
+    private volatile int capacity = Integer.MAX_VALUE;
+
+    InProcessCluster(int nodeCount, int threadsPerNode, JobConverter jobConverter) {
+        for (int i = 0; i < nodeCount; ++i) {
+            ExecutorService executorService = Executors.newFixedThreadPool(threadsPerNode);
+            jobExecutors.add(executorService);
+            engines.add(new InProcessClusterJobEngine(jobConverter, executorService, new MemoryJobStore(), new LocalNode("node-" + i), this));
+        }
+    }
+
+    void start() {
+        List<LocalNode> members = new ArrayList<>(engines.size());
+        for (InProcessClusterJobEngine engine : engines) {
+            members.add(engine.getNode());
+            aliveNodeIds.add(engine.getNode().getId());
+        }
+        for (InProcessClusterJobEngine engine : engines) {
+            engine.membershipChanged(members);
+            engine.start();
+        }
+    }
+
+    InProcessClusterJobEngine getEngine(int index) {
+        return engines.get(index);
+    }
+
+    /**
+     * 节点正常停止，先转交等待中的任务，停止之后再通知其他节点它已经离开
+     */
+    void stop(int index) {
+        InProcessClusterJobEngine engine = engines.get(index);
+        engine.stop();
+        leave(engine);
+    }
+
+    /**
+     * 节点失效：先从集群中移除，之后它不再修改分配信息也不再发出消息，再停止它正在运行的任务，
+     * 由存活节点中的协调者把它的任务转移给其他节点
+     */
+    void kill(int index) {
+        InProcessClusterJobEngine engine = engines.get(index);
+        leave(engine);
+        engine.setDrainTimeoutMillis(0L);
+        engine.stop();
+    }
+
+    private void leave(InProcessClusterJobEngine engine) {
+        aliveNodeIds.remove(engine.getNode().getId());
+        List<LocalNode> survivors = new ArrayList<>();
+        for (InProcessClusterJobEngine other : engines) {
+            if (isAlive(other.getNode())) {
+                survivors.add(other.getNode());
+            }
+        }
+        for (InProcessClusterJobEngine other : engines) {
+            if (isAlive(other.getNode())) {
+                other.membershipChanged(survivors);
+            }
+        }
+    }
+
+    boolean isAlive(LocalNode node) {
+        return aliveNodeIds.contains(node.getId());
+    }
+
+    InProcessClusterJobEngine getAliveEngine(LocalNode node) {
+        for (InProcessClusterJobEngine engine : engines) {
+            if (Objects.equals(engine.getNode().getId(), node.getId())) {
+                return isAlive(node) ? engine : null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 为任务选择执行节点并记录分配信息：优先分配给负载最低的节点，负载相同时优先分配给提交任务的节点；
+     * 单例任务在集群中已经有相同JobDefinition id的任务时，或者所有节点都已经满了时不能分配
+     *
+     * @return 执行节点，不能分配时返回null
+     */
+    synchronized LocalNode place(JobRef jobRef, LocalNode submitter, List<LocalNode> members) {
+        if (jobRef.isSingleton() && existSingleton(jobRef.getJobDefinition().getId())) {
+            return null;
+        }
+        String pinned = pinnedNodeId;
+        LocalNode target = null;
+        int targetLoad = 0;
+        for (LocalNode member : members) {
+            if (!isAlive(member) || Objects.nonNull(pinned) && !Objects.equals(pinned, member.getId())) {
+                continue;
+            }
+            int load = getJobRefs(member).size();
+            if (load >= capacity) {
+                continue;
+            }
+            boolean preferred = load == targetLoad && Objects.equals(member.getId(), submitter.getId());
+            if (Objects.isNull(target) || load < targetLoad || preferred) {
+                target = member;
+                targetLoad = load;
+            }
+        }
+        if (Objects.nonNull(target)) {
+            jobRef.setNodeId(target.getId());
+            assignments.put(jobRef.getJobId(), jobRef);
+        }
+        return target;
+    }
+
+    /**
+     * 把重新分配的任务交给除refusedNode以外负载最低的节点
+     */
+    synchronized LocalNode placeExcept(JobRef jobRef, LocalNode refusedNode, List<LocalNode> members) {
+        List<LocalNode> candidates = new ArrayList<>(members);
+        candidates.removeIf(member -> Objects.equals(member.getId(), refusedNode.getId()) || !isAlive(member));
+        candidates.sort(Comparator.comparingInt(member -> getJobRefs(member).size()));
+        if (candidates.isEmpty()) {
+            return null;
+        }
+        LocalNode target = candidates.get(0);
+        jobRef.setNodeId(target.getId());
+        assignments.put(jobRef.getJobId(), jobRef);
+        return target;
+    }
+
+    private boolean existSingleton(String jobDefinitionId) {
+        for (JobRef jobRef : assignments.values()) {
+            if (jobRef.isSingleton() && Objects.equals(jobRef.getJobDefinition().getId(), jobDefinitionId)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    JobRef getAssignment(String jobId) {
+        return assignments.get(jobId);
+    }
+
+    /**
+     * 只有任务仍然分配给node时才移除，避免已经转移给其他节点的任务被原节点的消息移除
+     */
+    JobRef unassign(String jobId, LocalNode node) {
+        JobRef jobRef = assignments.get(jobId);
+        if (Objects.nonNull(jobRef) && Objects.equals(jobRef.getNodeId(), node.getId()) && assignments.remove(jobId, jobRef)) {
+            return jobRef;
+        }
+        return null;
+    }
+
+    boolean reAssign(String jobId, LocalNode fromNode, LocalNode toNode) {
+        JobRef jobRef = assignments.get(jobId);
+        if (Objects.isNull(jobRef)) {
+            return false;
+        }
+        synchronized (jobRef) {
+            if (!Objects.equals(jobRef.getNodeId(), fromNode.getId())) {
+                return false;
+            }
+            jobRef.setNodeId(toNode.getId());
+        }
+        return true;
+    }
+
+    Collection<JobRef> getJobRefs(LocalNode node) {
+        List<JobRef> jobRefs = new ArrayList<>();
+        for (JobRef jobRef : assignments.values()) {
+            if (Objects.equals(jobRef.getNodeId(), node.getId())) {
+                jobRefs.add(jobRef);
+            }
+        }
+        return jobRefs;
+    }
+
+    int getAssignmentCount() {
+        return assignments.size();
+    }
+
+    int getDispatchCount() {
+        return dispatchCount.get();
+    }
+
+    void dispatch(Runnable message) {
+        dispatchCount.incrementAndGet();
+        send(message);
+    }
+
+    void send(Runnable message) {
+        try {
+            transport.execute(message);
+        } catch (RejectedExecutionException exception) {
+            // 集群已经关闭，消息直接丢弃
+        }
+    }
+
+    @Override
+    public void close() {
+        for (InProcessClusterJobEngine engine : engines) {
+            if (engine.isStarted()) {
+                engine.stop();
+            }
+        }
+        transport.shutdownNow();
+        for (ExecutorService executorService : jobExecutors) {
+            executorService.shutdownNow();
+        }
+    }
+
+}
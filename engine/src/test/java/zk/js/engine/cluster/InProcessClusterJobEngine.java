@@ -0,0 +1,168 @@
+/*
+ * Copyright 2023 zoukang, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package zk.js.engine.cluster;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+
+import zk.js.engine.job.Job;
+import zk.js.engine.job.JobConverter;
+import zk.js.engine.job.JobDefinition;
+import zk.js.engine.job.JobStore;
+
+/**
+ * 通过InProcessCluster直接调用其他节点的集群引擎，分配信息保存在集群共享的表中，因此所有节点都可以转移任务的归属；
+ * 已经失效的节点不再修改分配信息，也不再发出消息
+ */
+class InProcessClusterJobEngine extends AbstractClusterJobEngine<LocalNode> {
+
+    private final InProcessCluster cluster;
+
+    InProcessClusterJobEngine(JobConverter jobConverter, ExecutorService executorService, JobStore jobStore, LocalNode node, InProcessCluster cluster) {
+        super(jobConverter, executorService, jobStore, node);
+        this.cluster = cluster;
+    }
+
+    @Override
+    public NodeAndJobId<LocalNode> assign(JobDefinition jobDefinition, boolean singleton) {
+        NodeAndJobId<LocalNode> nodeAndJobId = place(jobDefinition, singleton);
+        if (Objects.nonNull(nodeAndJobId) && !nodeAndJobId.isDuplicate() && !isMe(nodeAndJobId.getNode())) {
+            runJobOnNode(cluster.getAssignment(nodeAndJobId.getJobId()), nodeAndJobId.getNode());
+        }
+        return nodeAndJobId;
+    }
+
+    @Override
+    public List<NodeAndJobId<LocalNode>> assignAll(List<JobDefinition> jobDefinitions, boolean singleton) {
+        return jobDefinitions.stream().map(jobDefinition -> place(jobDefinition, singleton)).toList();
+    }
+
+    private NodeAndJobId<LocalNode> place(JobDefinition jobDefinition, boolean singleton) {
+        String jobId = nextJobId();
+        NodeAndJobId<LocalNode> nodeAndJobId = new NodeAndJobId<>();
+        String existingJobId = registerIdempotencyKey(jobDefinition, jobId);
+        if (Objects.nonNull(existingJobId)) {
+            LocalNode assigner = getAssigner(existingJobId);
+            nodeAndJobId.setNode(Objects.isNull(assigner) ? getNode() : assigner);
+            nodeAndJobId.setJobId(existingJobId);
+            nodeAndJobId.setDuplicate(true);
+            return nodeAndJobId;
+        }
+        JobRef jobRef = new JobRef();
+        jobRef.setJobId(jobId);
+        jobRef.setJobDefinition(jobDefinition);
+        jobRef.setSingleton(singleton);
+        LocalNode target = cluster.place(jobRef, getNode(), getMembers());
+        if (Objects.isNull(target)) {
+            unregisterIdempotencyKey(jobDefinition, jobId);
+            return null;
+        }
+        nodeAndJobId.setNode(target);
+        nodeAndJobId.setJobId(jobId);
+        return nodeAndJobId;
+    }
+
+    @Override
+    public void jobFinished(String jobId, LocalNode node, boolean reAssign) {
+        if (!cluster.isAlive(getNode())) {
+            return;
+        }
+        JobRef jobRef = cluster.unassign(jobId, node);
+        if (!reAssign || Objects.isNull(jobRef)) {
+            return;
+        }
+        LocalNode target = cluster.placeExcept(jobRef, node, getMembers());
+        if (Objects.isNull(target)) {
+            return;
+        }
+        if (isMe(target)) {
+            runAssignedJob(jobRef);
+        } else {
+            runJobOnNode(jobRef, target);
+        }
+    }
+
+    @Override
+    public LocalNode getAssigner(String jobId) {
+        JobRef jobRef = cluster.getAssignment(jobId);
+        if (Objects.isNull(jobRef)) {
+            return null;
+        }
+        for (LocalNode member : getMembers()) {
+            if (Objects.equals(member.getId(), jobRef.getNodeId())) {
+                return member;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void stopJobOnNode(String jobId, LocalNode node) {
+        InProcessClusterJobEngine target = cluster.getAliveEngine(node);
+        if (cluster.isAlive(getNode()) && Objects.nonNull(target)) {
+            cluster.send(() -> target.stopLocalJob(jobId));
+        }
+    }
+
+    @Override
+    public Collection<JobRef> getJobRefs(LocalNode node) {
+        return cluster.getJobRefs(node);
+    }
+
+    @Override
+    public boolean reAssign(String jobId, LocalNode fromNode, LocalNode toNode) {
+        return cluster.isAlive(getNode()) && cluster.reAssign(jobId, fromNode, toNode);
+    }
+
+    @Override
+    public void runJobOnNode(JobRef jobRef, LocalNode node) {
+        runJobsOnNode(List.of(jobRef), node);
+    }
+
+    @Override
+    public void runJobsOnNode(List<JobRef> jobRefs, LocalNode node) {
+        if (!cluster.isAlive(getNode())) {
+            return;
+        }
+        InProcessClusterJobEngine target = cluster.getAliveEngine(node);
+        if (Objects.isNull(target)) {
+            for (JobRef jobRef : jobRefs) {
+                jobFinished(jobRef.getJobId(), node, true);
+            }
+            return;
+        }
+        cluster.dispatch(() -> target.runAssignedJobs(jobRefs));
+    }
+
+    @Override
+    public CompletableFuture<Job.Status> queryJobStatusOnNode(String jobId, LocalNode node) {
+        InProcessClusterJobEngine target = cluster.getAliveEngine(node);
+        if (Objects.isNull(target)) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return CompletableFuture.supplyAsync(() -> target.getLocalJobStatus(jobId), cluster.getTransport());
+    }
+
+    @Override
+    public List<JobRef> stealJobsFromNode(LocalNode victim, LocalNode thief, int maxCount) {
+        InProcessClusterJobEngine target = cluster.getAliveEngine(victim);
+        return Objects.isNull(target) ? List.of() : target.releaseJobsTo(thief, maxCount);
+    }
+
+}
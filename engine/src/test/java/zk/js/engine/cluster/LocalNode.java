@@ -0,0 +1,33 @@
+/*
+ * Copyright 2023 zoukang, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package zk.js.engine.cluster;
+
+/**
+ * 同一个进程中的集群节点，地址就是节点id
+ */
+record LocalNode(String id) implements Node<String> {
+
+    @Override
+    public String getId() {
+        return id;
+    }
+
+    @Override
+    public String getAddress() {
+        return id;
+    }
+
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2023 zoukang, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package zk.js.engine.job;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import zk.js.engine.JobEngine;
+import zk.js.engine.StandaloneJobEngine;
+import zk.js.engine.common.ServiceState;
+
+class CompactJobStoreTest {
+
+    @Test
+    void testSaveAndMaterialize() {
+        CompactJobStore jobStore = new CompactJobStore(true, 16);
+        int count = 10000;
+        for (int i = 0; i < count; ++i) {
+            JobDefinition jobDefinition = new JobDefinition();
+            jobDefinition.setId("definition-" + i);
+            jobDefinition.setType("sum");
+            jobDefinition.setRecoveryPolicy(RecoveryPolicy.RERUN);
+            SumNumberJob job = new SumNumberJob(jobDefinition);
+            job.setId("job-" + i);
+            job.getStatus().setStartTimestamp(i);
+            job.getStatus().setAttempt(i % 3 + 1);
+            job.getStatus().setServiceState(ServiceState.STARTED);
+            jobStore.saveJob(job);
+            jobStore.saveCheckpoint(job.getId(), "checkpoint-" + i);
+            if (i % 2 == 0) {
+                job.getStatus().setExitType(Job.ExitType.FINISHED);
+                job.getStatus().setStopTimestamp(i + 1L);
+                job.getStatus().getExtraInfo().put("result", i);
+                jobStore.saveJob(job);
+            }
+        }
+        Assertions.assertEquals(count, jobStore.getJobCount());
+        Assertions.assertNull(jobStore.getJob("job-" + count));
+
+        Job finished = jobStore.getJob("job-42");
+        Assertions.assertEquals(Job.ExitType.FINISHED, finished.getStatus().getExitType());
+        Assertions.assertEquals(42L, finished.getStatus().getStartTimestamp());
+        Assertions.assertEquals(43L, finished.getStatus().getStopTimestamp());
+        Assertions.assertEquals(1, finished.getStatus().getAttempt());
+        Assertions.assertEquals(Map.of("result", 42), finished.getStatus().getExtraInfo());
+        Assertions.assertEquals("definition-42", finished.jobDefinition().getId());
+        Assertions.assertNull(finished.jobDefinition().getRecoveryPolicy());
+        Assertions.assertNull(jobStore.getCheckpoint("job-42"));
+
+        Job unfinished = jobStore.getJob("job-43");
+        Assertions.assertNull(unfinished.getStatus().getExitType());
+        Assertions.assertEquals(ServiceState.STARTED, unfinished.getStatus().getServiceState());
+        Assertions.assertEquals(RecoveryPolicy.RERUN, unfinished.jobDefinition().getRecoveryPolicy());
+        Assertions.assertEquals("checkpoint-43", jobStore.getCheckpoint("job-43"));
+
+        List<Job> scanned = new ArrayList<>();
+        for (int partition = 0; partition < 4; ++partition) {
+            jobStore.scanUnfinishedJobs(partition, 4, scanned::add);
+        }
+        Assertions.assertEquals(count / 2, scanned.size());
+
+        // 回调在锁外进行，可以直接保存任务，结束的任务不会再被遍历到
+        for (int partition = 0; partition < 4; ++partition) {
+            jobStore.scanUnfinishedJobs(partition, 4, job -> {
+                job.getStatus().setExitType(Job.ExitType.FAILED);
+                jobStore.saveJob(job);
+            });
+        }
+        List<Job> remaining = new ArrayList<>();
+        jobStore.scanUnfinishedJobs(0, 1, remaining::add);
+        Assertions.assertTrue(remaining.isEmpty());
+    }
+
+    @Test
+    void testWithEngine() throws Exception {
+        JobConverter jobConverter = new DefaultJobConverter(Map.of("sum", "zk.js.engine.job.SumNumberJob"));
+        CompactJobStore jobStore = new CompactJobStore();
+        JobEngine jobEngine = new StandaloneJobEngine(jobConverter, Executors.newCachedThreadPool(), jobStore);
+        jobEngine.start();
+        JobDefinition jobDefinition = new JobDefinition();
+        jobDefinition.setType("sum");
+        jobDefinition.setJsonConf("{\"numberX\": 1, \"numberY\": 2}");
+        List<String> jobIds = jobEngine.runJobs(List.of(jobDefinition, jobDefinition, jobDefinition));
+        for (String jobId : jobIds) {
+            jobEngine.waitJob(jobId);
+            Assertions.assertEquals(Job.ExitType.FINISHED, jobEngine.getJobStatus(jobId).getExitType());
+        }
+        Assertions.assertEquals(3, jobStore.getJobCount());
+        jobEngine.stop();
+    }
+
+}
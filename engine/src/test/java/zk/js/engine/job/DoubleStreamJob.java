@@ -0,0 +1,66 @@
+/*
+ * Copyright 2023 zoukang, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package zk.js.engine.job;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 从0拉取到jsonConf指定的数(不包含)，每个数乘以2后累加，拉取完之后还可以通过offer推入；
+ * 处理到FAIL_AT指定的数时失败一次
+ */
+public class DoubleStreamJob extends AbstractStreamingJob<Integer, Integer> {
+
+    public static final AtomicLong SUM = new AtomicLong();
+
+    public static final AtomicInteger FAIL_AT = new AtomicInteger(-1);
+
+    private final int count;
+
+    protected DoubleStreamJob(JobDefinition jobDefinition) {
+        super(jobDefinition, 256, 64);
+        this.count = Integer.parseInt(jobDefinition.getJsonConf());
+        setMaxRecordsPerRun(1000);
+        setIdleDelayMillis(20L);
+    }
+
+    @Override
+    protected List<Integer> pull(long offset, int maxRecords) {
+        List<Integer> records = new ArrayList<>(maxRecords);
+        for (long i = offset; i < count && records.size() < maxRecords; ++i) {
+            records.add((int) i);
+        }
+        return records;
+    }
+
+    @Override
+    protected Integer process(Integer record) {
+        if (FAIL_AT.compareAndSet(record, -1)) {
+            throw new IllegalArgumentException("Fail at " + record);
+        }
+        return record * 2;
+    }
+
+    @Override
+    protected void emit(List<Integer> records) {
+        for (int record : records) {
+            SUM.addAndGet(record);
+        }
+    }
+
+}
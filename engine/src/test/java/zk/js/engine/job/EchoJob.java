@@ -0,0 +1,35 @@
+/*
+ * Copyright 2023 zoukang, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package zk.js.engine.job;
+
+/**
+ * 输出jsonConf指定条数的记录，每条记录是它的序号
+ */
+public class EchoJob extends AbstractJob {
+
+    protected EchoJob(JobDefinition jobDefinition) {
+        super(jobDefinition);
+    }
+
+    @Override
+    public void run() {
+        int count = Integer.parseInt(jobDefinition.getJsonConf());
+        for (int i = 0; i < count; ++i) {
+            output("line-" + i);
+        }
+    }
+
+}
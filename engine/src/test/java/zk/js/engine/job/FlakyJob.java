@@ -0,0 +1,43 @@
+/*
+ * Copyright 2023 zoukang, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package zk.js.engine.job;
+
+/**
+ * 前failTimes次执行都失败的任务，jsonConf就是failTimes
+ */
+public class FlakyJob extends AbstractJob {
+
+    private int failTimes;
+
+    private int runs;
+
+    protected FlakyJob(JobDefinition jobDefinition) {
+        super(jobDefinition);
+    }
+
+    @Override
+    protected void doInit() {
+        failTimes = Integer.parseInt(jobDefinition.getJsonConf());
+    }
+
+    @Override
+    public void run() {
+        if (++runs <= failTimes) {
+            throw new IllegalStateException("failed at run " + runs);
+        }
+    }
+
+}
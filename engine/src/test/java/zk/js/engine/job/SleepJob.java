@@ -0,0 +1,69 @@
+/*
+ * Copyright 2023 zoukang, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package zk.js.engine.job;
+
+import java.util.Objects;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * 睡眠指定时间的任务，cooperative为false时不检查取消标记和挂起请求，只能被中断
+ * 挂起时把剩余的睡眠时间保存为checkpoint
+ */
+public class SleepJob extends AbstractJob {
+
+    private final JobContext jobContext;
+
+    protected SleepJob(JobDefinition jobDefinition) {
+        super(jobDefinition);
+        this.jobContext = new JobContext();
+    }
+
+    @Override
+    protected void doInit() throws Exception {
+        new ObjectMapper().readerForUpdating(jobContext).readValue(jobDefinition.getJsonConf());
+    }
+
+    @Override
+    public void run() {
+        String checkpoint = lastCheckpoint();
+        long millis = Objects.isNull(checkpoint) ? jobContext.millis : Long.parseLong(checkpoint);
+        long deadline = System.currentTimeMillis() + millis;
+        try {
+            while (System.currentTimeMillis() < deadline) {
+                if (jobContext.cooperative) {
+                    cancellationToken.throwIfCancellationRequested();
+                    if (suspendIfRequested(String.valueOf(deadline - System.currentTimeMillis()))) {
+                        return;
+                    }
+                }
+                Thread.sleep(10);
+            }
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Getter
+    @Setter
+    public static class JobContext {
+        private long millis;
+        private boolean cooperative = true;
+    }
+
+}
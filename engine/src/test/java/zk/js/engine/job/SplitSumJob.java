@@ -0,0 +1,64 @@
+/*
+ * Copyright 2023 zoukang, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package zk.js.engine.job;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import lombok.Getter;
+
+/**
+ * 计算1到jsonConf指定的数之和，每100个数一个分片
+ */
+public class SplitSumJob extends AbstractSplitJob<long[], Long> {
+
+    @Getter
+    private static volatile long result;
+
+    protected SplitSumJob(JobDefinition jobDefinition) {
+        super(jobDefinition);
+    }
+
+    @Override
+    protected List<long[]> split() {
+        long n = Long.parseLong(jobDefinition.getJsonConf());
+        List<long[]> partitions = new ArrayList<>();
+        for (long from = 1; from <= n; from += 100) {
+            partitions.add(new long[]{from, Math.min(n, from + 99)});
+        }
+        return partitions;
+    }
+
+    @Override
+    protected Long process(int index, long[] partition) {
+        long sum = 0;
+        for (long i = partition[0]; i <= partition[1]; ++i) {
+            sum += i;
+            progress(index, (int) ((i - partition[0]) * 100 / (partition[1] - partition[0] + 1)));
+        }
+        return sum;
+    }
+
+    @Override
+    protected void merge(List<Long> results) {
+        long sum = 0;
+        for (long partial : results) {
+            sum += partial;
+        }
+        result = sum;
+    }
+
+}
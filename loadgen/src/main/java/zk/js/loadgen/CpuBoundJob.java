@@ -0,0 +1,57 @@
+/*
+ * Copyright 2023 zoukang, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package zk.js.loadgen;
+
+import java.util.concurrent.TimeUnit;
+
+import zk.js.engine.job.AbstractJob;
+import zk.js.engine.job.JobDefinition;
+
+/**
+ * CPU密集型任务，jsonConf是需要计算的微秒数，期间一直占用CPU并定期检查取消标记
+ */
+public class CpuBoundJob extends AbstractJob {
+
+    private long micros;
+
+    /**
+     * 计算结果，避免计算被JIT优化掉
+     */
+    private long result;
+
+    public CpuBoundJob(JobDefinition jobDefinition) {
+        super(jobDefinition);
+    }
+
+    @Override
+    protected void doInit() {
+        micros = Long.parseLong(jobDefinition.getJsonConf());
+    }
+
+    @Override
+    public void run() {
+        long deadline = System.nanoTime() + TimeUnit.MICROSECONDS.toNanos(micros);
+        long value = result;
+        while (System.nanoTime() < deadline) {
+            cancellationToken.throwIfCancellationRequested();
+            for (int i = 0; i < 1000; ++i) {
+                value = value * 6364136223846793005L + 1442695040888963407L;
+            }
+        }
+        result = value;
+    }
+
+}
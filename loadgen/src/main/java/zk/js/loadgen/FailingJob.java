@@ -0,0 +1,35 @@
+/*
+ * Copyright 2023 zoukang, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package zk.js.loadgen;
+
+import zk.js.engine.job.AbstractJob;
+import zk.js.engine.job.JobDefinition;
+
+/**
+ * 总是失败的任务，用来观察失败处理的开销；如果启用了任务类型熔断，熔断打开后这类任务的提交会被拒绝
+ */
+public class FailingJob extends AbstractJob {
+
+    public FailingJob(JobDefinition jobDefinition) {
+        super(jobDefinition);
+    }
+
+    @Override
+    public void run() {
+        throw new IllegalStateException("Job " + id + " failed on purpose.");
+    }
+
+}
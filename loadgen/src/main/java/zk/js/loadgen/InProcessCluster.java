@@ -0,0 +1,141 @@
+/*
+ * Copyright 2023 zoukang, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package zk.js.loadgen;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import zk.js.engine.job.JobConverter;
+import zk.js.engine.job.JobStore;
+
+/**
+ * 同一个进程中的多节点集群：每个节点有自己的任务线程池和JobStore，节点之间的消息通过传输线程池异步投递，
+ * 定期把每个节点的负载同步给其他节点，作为分片引擎有界负载哈希的依据
+ */
+@Slf4j
+public class InProcessCluster implements AutoCloseable {
+
+    private final Map<String, InProcessClusterJobEngine> engines = new ConcurrentHashMap<>(4);
+
+    @Getter
+    private final List<InProcessClusterJobEngine> engineList = new ArrayList<>();
+
+    private final List<ExecutorService> jobExecutors = new ArrayList<>();
+
+    /**
+     * 分配给其他节点执行的任务由哪个节点提交
+     */
+    private final Map<String, String> origins = new ConcurrentHashMap<>();
+
+    @Getter
+    private final ExecutorService transport = Executors.newCachedThreadPool(daemonThreadFactory("in-process-transport"));
+
+    private final ScheduledExecutorService loadSync = Executors.newSingleThreadScheduledExecutor(daemonThreadFactory("in-process-load-sync"));
+
+    public InProcessCluster(int nodeCount, JobConverter jobConverter, Supplier<JobStore> jobStoreFactory) {
+        for (int i = 0; i < nodeCount; ++i) {
+            LocalNode node = new LocalNode("node-" + i);
+            ExecutorService executorService = Executors.newCachedThreadPool();
+            jobExecutors.add(executorService);
+            InProcessClusterJobEngine engine = new InProcessClusterJobEngine(jobConverter, executorService, jobStoreFactory.get(), node, this);
+            engines.put(node.getId(), engine);
+            engineList.add(engine);
+        }
+    }
+
+    public void start() {
+        List<LocalNode> members = new ArrayList<>(engineList.size());
+        for (InProcessClusterJobEngine engine : engineList) {
+            members.add(engine.getNode());
+        }
+        for (InProcessClusterJobEngine engine : engineList) {
+            engine.membershipChanged(members);
+            engine.start();
+        }
+        loadSync.scheduleWithFixedDelay(this::syncLoads, 100L, 100L, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void close() {
+        loadSync.shutdownNow();
+        for (InProcessClusterJobEngine engine : engineList) {
+            engine.stop();
+        }
+        transport.shutdownNow();
+        for (ExecutorService executorService : jobExecutors) {
+            executorService.shutdownNow();
+        }
+    }
+
+    InProcessClusterJobEngine getEngine(String nodeId) {
+        return engines.get(nodeId);
+    }
+
+    /**
+     * 任务被执行节点再次转交时保留最初提交的节点
+     */
+    void putOrigin(String jobId, String nodeId) {
+        origins.putIfAbsent(jobId, nodeId);
+    }
+
+    String takeOrigin(String jobId) {
+        return origins.remove(jobId);
+    }
+
+    void send(Runnable message) {
+        try {
+            transport.execute(message);
+        } catch (RejectedExecutionException exception) {
+            log.debug("Cluster is closed, message dropped.");
+        }
+    }
+
+    private void syncLoads() {
+        try {
+            for (InProcessClusterJobEngine engine : engineList) {
+                int load = engine.getLoad();
+                for (InProcessClusterJobEngine other : engineList) {
+                    if (other != engine) {
+                        other.updateNodeLoad(engine.getNode().getId(), load);
+                    }
+                }
+            }
+        } catch (RuntimeException exception) {
+            log.error("Failed to sync node loads.", exception);
+        }
+    }
+
+    private static ThreadFactory daemonThreadFactory(String name) {
+        return runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2023 zoukang, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package zk.js.loadgen;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+
+import zk.js.engine.cluster.AbstractShardedClusterJobEngine;
+import zk.js.engine.cluster.JobRef;
+import zk.js.engine.job.Job;
+import zk.js.engine.job.JobConverter;
+import zk.js.engine.job.JobStore;
+
+/**
+ * 通过InProcessCluster直接调用其他节点的分片集群引擎，节点之间的消息在传输线程池中异步投递，
+ * 用于在一个进程中模拟多节点集群
+ */
+public class InProcessClusterJobEngine extends AbstractShardedClusterJobEngine<LocalNode> {
+
+    private final InProcessCluster cluster;
+
+    public InProcessClusterJobEngine(
+            JobConverter jobConverter, ExecutorService executorService, JobStore jobStore, LocalNode node, InProcessCluster cluster
+    ) {
+        super(jobConverter, executorService, jobStore, node, 64);
+        this.cluster = cluster;
+    }
+
+    /**
+     * 执行其他节点分配的任务时，结束消息发给提交任务的节点
+     */
+    @Override
+    public void jobFinished(String jobId, LocalNode finishedNode, boolean reAssign) {
+        String origin = isMe(finishedNode) ? cluster.takeOrigin(jobId) : null;
+        if (Objects.isNull(origin) || Objects.equals(origin, getNode().getId())) {
+            super.jobFinished(jobId, finishedNode, reAssign);
+            return;
+        }
+        InProcessClusterJobEngine assigner = cluster.getEngine(origin);
+        if (Objects.nonNull(assigner)) {
+            cluster.send(() -> assigner.jobFinished(jobId, finishedNode, reAssign));
+        }
+    }
+
+    @Override
+    public void stopJobOnNode(String jobId, LocalNode node) {
+        InProcessClusterJobEngine target = cluster.getEngine(node.getId());
+        if (Objects.nonNull(target)) {
+            cluster.send(() -> target.stopLocalJob(jobId));
+        }
+    }
+
+    @Override
+    public void runJobOnNode(JobRef jobRef, LocalNode node) {
+        runJobsOnNode(List.of(jobRef), node);
+    }
+
+    @Override
+    public void runJobsOnNode(List<JobRef> jobRefs, LocalNode node) {
+        InProcessClusterJobEngine target = cluster.getEngine(node.getId());
+        if (Objects.isNull(target)) {
+            for (JobRef jobRef : jobRefs) {
+                super.jobFinished(jobRef.getJobId(), node, true);
+            }
+            return;
+        }
+        for (JobRef jobRef : jobRefs) {
+            cluster.putOrigin(jobRef.getJobId(), getNode().getId());
+        }
+        cluster.send(() -> target.runAssignedJobs(jobRefs));
+    }
+
+    @Override
+    protected CompletableFuture<String> runSingletonJobOnNode(JobRef jobRef, LocalNode node) {
+        InProcessClusterJobEngine target = cluster.getEngine(node.getId());
+        if (Objects.isNull(target)) {
+            return CompletableFuture.completedFuture("Node " + node.getId() + " has left the cluster");
+        }
+        cluster.putOrigin(jobRef.getJobId(), getNode().getId());
+        return CompletableFuture.supplyAsync(() -> target.tryRunAssignedJob(jobRef), cluster.getTransport());
+    }
+
+    @Override
+    protected String registerIdempotencyKeyOnNode(String idempotencyKey, String jobId, LocalNode node) {
+        InProcessClusterJobEngine target = cluster.getEngine(node.getId());
+        return Objects.isNull(target) ? null : target.registerIdempotencyKey(idempotencyKey, jobId);
+    }
+
+    @Override
+    protected void unregisterIdempotencyKeyOnNode(String idempotencyKey, String jobId, LocalNode node) {
+        InProcessClusterJobEngine target = cluster.getEngine(node.getId());
+        if (Objects.nonNull(target)) {
+            target.unregisterIdempotencyKey(idempotencyKey, jobId);
+        }
+    }
+
+    @Override
+    public CompletableFuture<Job.Status> queryJobStatusOnNode(String jobId, LocalNode node) {
+        InProcessClusterJobEngine target = cluster.getEngine(node.getId());
+        if (Objects.isNull(target)) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return CompletableFuture.supplyAsync(() -> target.getLocalJobStatus(jobId), cluster.getTransport());
+    }
+
+    @Override
+    public List<JobRef> stealJobsFromNode(LocalNode victim, LocalNode thief, int maxCount) {
+        InProcessClusterJobEngine target = cluster.getEngine(victim.getId());
+        return Objects.isNull(target) ? List.of() : target.releaseJobsTo(thief, maxCount);
+    }
+
+    /**
+     * 本节点上正在运行和等待的任务数
+     */
+    public int getLoad() {
+        return getJobRefs(getNode()).size();
+    }
+
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2023 zoukang, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package zk.js.loadgen;
+
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 按报告周期分段记录延迟：多个线程在读锁内并发记录到当前直方图，swap在写锁内换上新的直方图，
+ * 返回时旧直方图上已经没有正在进行的记录，样本不会在交换时丢失或者计入错误的周期
+ */
+public class IntervalRecorder {
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private LatencyHistogram current = new LatencyHistogram();
+
+    public void record(long nanos) {
+        lock.readLock().lock();
+        try {
+            current.record(nanos);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 换上新的直方图，返回上一个周期记录的直方图
+     */
+    public LatencyHistogram swap() {
+        lock.writeLock().lock();
+        try {
+            LatencyHistogram interval = current;
+            current = new LatencyHistogram();
+            return interval;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2023 zoukang, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package zk.js.loadgen;
+
+import zk.js.engine.job.AbstractJob;
+import zk.js.engine.job.JobDefinition;
+
+/**
+ * 模拟I/O等待的任务，jsonConf是睡眠的毫秒数，期间不占用CPU但是占用线程
+ */
+public class IoBoundJob extends AbstractJob {
+
+    private long millis;
+
+    public IoBoundJob(JobDefinition jobDefinition) {
+        super(jobDefinition);
+    }
+
+    @Override
+    protected void doInit() {
+        millis = Long.parseLong(jobDefinition.getJsonConf());
+    }
+
+    @Override
+    public void run() {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
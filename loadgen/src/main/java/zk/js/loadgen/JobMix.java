@@ -0,0 +1,102 @@
+/*
+ * Copyright 2023 zoukang, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package zk.js.loadgen;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+import zk.js.engine.job.JobDefinition;
+
+/**
+ * 按权重随机选择任务类型，例如"cpu:5,io:4,fail:1"表示一半CPU密集型、四成I/O等待、一成失败的任务
+ */
+public class JobMix {
+
+    private final String[] types;
+
+    /**
+     * 累积权重，用于按权重二分查找任务类型
+     */
+    private final int[] cumulativeWeights;
+
+    private final Map<String, String> confs;
+
+    /**
+     * @param confs 每种任务类型的jsonConf
+     */
+    public JobMix(String spec, Map<String, String> confs) {
+        List<String> typeList = new ArrayList<>();
+        List<Integer> weightList = new ArrayList<>();
+        for (String part : spec.split(",")) {
+            String[] pair = part.trim().split(":");
+            if (pair.length != 2) {
+                throw new IllegalArgumentException("Illegal job mix " + spec + ", expected type:weight[,type:weight...]");
+            }
+            int weight = Integer.parseInt(pair[1].trim());
+            if (weight < 0) {
+                throw new IllegalArgumentException("Weight of job type " + pair[0] + " can not be negative");
+            }
+            if (!confs.containsKey(pair[0].trim())) {
+                throw new IllegalArgumentException("Unknown job type " + pair[0] + ", supported types are " + confs.keySet());
+            }
+            if (weight > 0) {
+                typeList.add(pair[0].trim());
+                weightList.add(weight);
+            }
+        }
+        if (typeList.isEmpty()) {
+            throw new IllegalArgumentException("Job mix " + spec + " has no job type with positive weight");
+        }
+        this.types = typeList.toArray(new String[0]);
+        this.cumulativeWeights = new int[types.length];
+        int total = 0;
+        for (int i = 0; i < types.length; ++i) {
+            total += weightList.get(i);
+            cumulativeWeights[i] = total;
+        }
+        this.confs = Map.copyOf(confs);
+    }
+
+    public String nextType() {
+        int value = ThreadLocalRandom.current().nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+        int low = 0;
+        int high = cumulativeWeights.length - 1;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (cumulativeWeights[middle] > value) {
+                high = middle;
+            } else {
+                low = middle + 1;
+            }
+        }
+        return types[low];
+    }
+
+    /**
+     * 每个任务使用不同的JobDefinition id，完成事件通过它对应到提交时间
+     */
+    public JobDefinition next(String definitionId) {
+        String type = nextType();
+        JobDefinition jobDefinition = new JobDefinition();
+        jobDefinition.setId(definitionId);
+        jobDefinition.setType(type);
+        jobDefinition.setJsonConf(confs.get(type));
+        return jobDefinition;
+    }
+
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2023 zoukang, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package zk.js.loadgen;
+
+import java.util.Map;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * 压测参数，命令行格式为--name=value
+ */
+@Getter
+@Setter
+public class LoadConfig {
+
+    public static final String USAGE = String.join(
+            System.lineSeparator(),
+            "Usage: LoadGenerator [--name=value ...]",
+            "  --mode=standalone|cluster   engine to drive, default standalone",
+            "  --nodes=3                   node count of the in-process cluster",
+            "  --rate=200                  job arrivals per second, arrivals do not wait for completions",
+            "  --duration=60               seconds to generate load",
+            "  --mix=cpu:5,io:4,fail:1     weights of job types",
+            "  --cpuMicros=500             CPU time of a cpu job in microseconds",
+            "  --ioMillis=20               sleep time of an io job in milliseconds",
+            "  --reportInterval=5          seconds between two report lines",
+            "  --drainSeconds=30           seconds to wait for running jobs after load stopped",
+            "  --store=memory|compact      job store of each engine",
+            "  --maxRunning=0              max running job count of each engine, 0 keeps the engine default"
+    );
+
+    private String mode = "standalone";
+
+    private int nodes = 3;
+
+    private double rate = 200.0;
+
+    private long duration = 60L;
+
+    private String mix = "cpu:5,io:4,fail:1";
+
+    private long cpuMicros = 500L;
+
+    private long ioMillis = 20L;
+
+    private long reportInterval = 5L;
+
+    private long drainSeconds = 30L;
+
+    private String store = "memory";
+
+    private long maxRunning;
+
+    public boolean isCluster() {
+        return "cluster".equals(mode);
+    }
+
+    /**
+     * 每种任务类型的jsonConf
+     */
+    public Map<String, String> jobConfs() {
+        return Map.of(
+                LoadJobConverter.CPU, String.valueOf(cpuMicros),
+                LoadJobConverter.IO, String.valueOf(ioMillis),
+                LoadJobConverter.FAIL, ""
+        );
+    }
+
+    public static LoadConfig parse(String[] args) {
+        LoadConfig config = new LoadConfig();
+        for (String arg : args) {
+            int index = arg.indexOf('=');
+            if (!arg.startsWith("--") || index < 0) {
+                throw new IllegalArgumentException("Illegal argument " + arg + System.lineSeparator() + USAGE);
+            }
+            String name = arg.substring(2, index);
+            String value = arg.substring(index + 1);
+            switch (name) {
+                case "mode" -> config.setMode(value);
+                case "nodes" -> config.setNodes(Integer.parseInt(value));
+                case "rate" -> config.setRate(Double.parseDouble(value));
+                case "duration" -> config.setDuration(Long.parseLong(value));
+                case "mix" -> config.setMix(value);
+                case "cpuMicros" -> config.setCpuMicros(Long.parseLong(value));
+                case "ioMillis" -> config.setIoMillis(Long.parseLong(value));
+                case "reportInterval" -> config.setReportInterval(Long.parseLong(value));
+                case "drainSeconds" -> config.setDrainSeconds(Long.parseLong(value));
+                case "store" -> config.setStore(value);
+                case "maxRunning" -> config.setMaxRunning(Long.parseLong(value));
+                default -> throw new IllegalArgumentException("Unknown argument " + name + System.lineSeparator() + USAGE);
+            }
+        }
+        if (!"standalone".equals(config.mode) && !"cluster".equals(config.mode)) {
+            throw new IllegalArgumentException("Unknown mode " + config.mode);
+        }
+        if (!"memory".equals(config.store) && !"compact".equals(config.store)) {
+            throw new IllegalArgumentException("Unknown store " + config.store);
+        }
+        if (config.rate <= 0.0 || config.duration <= 0L || config.nodes <= 0 || config.reportInterval <= 0L) {
+            throw new IllegalArgumentException("rate, duration, nodes and reportInterval must be positive");
+        }
+        return config;
+    }
+
+}
@@ -0,0 +1,287 @@
+/*
+ * Copyright 2023 zoukang, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package zk.js.loadgen;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import lombok.extern.slf4j.Slf4j;
+
+import zk.js.engine.AbstractJobEngine;
+import zk.js.engine.JobEngine;
+import zk.js.engine.StandaloneJobEngine;
+import zk.js.engine.event.JobEvent;
+import zk.js.engine.job.CompactJobStore;
+import zk.js.engine.job.JobDefinition;
+import zk.js.engine.job.JobStore;
+import zk.js.engine.job.MemoryJobStore;
+
+/**
+ * 对单机引擎或者进程内的多节点集群施加持续的负载，定期输出吞吐量、延迟分位数、线程数和堆内存。
+ * <p>
+ * 任务按固定速率到达，不等待之前的任务完成（开环），延迟从计划到达的时间算起，
+ * 因此提交被阻塞或者落后于计划时排队的时间也计入延迟，不会因为协调遗漏而低估尾延迟。
+ * 完成时间取自引擎的任务事件，包含事件投递的延迟；监听器的队列满了之后事件会被丢弃，
+ * 此时完成数和延迟都不完整，每次输出都带上丢弃的事件数，出现丢弃时给出警告
+ */
+@Slf4j
+public class LoadGenerator {
+
+    private static final double NANOS_PER_MILLI = 1_000_000.0;
+
+    private final LoadConfig config;
+
+    private final JobMix jobMix;
+
+    /**
+     * 还没有完成的任务，JobDefinition的id到计划到达时间
+     */
+    private final Map<String, Long> inFlight = new ConcurrentHashMap<>();
+
+    private final IntervalRecorder intervalRecorder = new IntervalRecorder();
+
+    private final LatencyHistogram totalHistogram = new LatencyHistogram();
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    private final LongAdder submitted = new LongAdder();
+
+    private final LongAdder completed = new LongAdder();
+
+    private final LongAdder failed = new LongAdder();
+
+    private final LongAdder rejected = new LongAdder();
+
+    private final AtomicLong peakThreads = new AtomicLong();
+
+    private final AtomicLong peakHeapBytes = new AtomicLong();
+
+    /**
+     * 发布任务事件的引擎，用于统计丢弃的事件数
+     */
+    private final List<AbstractJobEngine> eventSources = new ArrayList<>();
+
+    private long lastDroppedEvents;
+
+    private long startNanos;
+
+    private long lastReportNanos;
+
+    public LoadGenerator(LoadConfig config) {
+        this.config = config;
+        this.jobMix = new JobMix(config.getMix(), config.jobConfs());
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 1 && ("--help".equals(args[0]) || "-h".equals(args[0]))) {
+            System.out.println(LoadConfig.USAGE);
+            return;
+        }
+        new LoadGenerator(LoadConfig.parse(args)).run(System.out);
+    }
+
+    public void run(PrintStream out) throws InterruptedException {
+        List<JobEngine> engines = new ArrayList<>();
+        InProcessCluster cluster = null;
+        ExecutorService executorService = null;
+        if (config.isCluster()) {
+            cluster = new InProcessCluster(config.getNodes(), new LoadJobConverter(), this::newJobStore);
+            engines.addAll(cluster.getEngineList());
+        } else {
+            executorService = Executors.newCachedThreadPool();
+            engines.add(new StandaloneJobEngine(new LoadJobConverter(), executorService, newJobStore()));
+        }
+        for (JobEngine engine : engines) {
+            if (config.getMaxRunning() > 0L && engine instanceof AbstractJobEngine abstractJobEngine) {
+                abstractJobEngine.setMaxRunningJobCount(config.getMaxRunning());
+            }
+            engine.addJobEventListener(this::onEvent);
+            if (engine instanceof AbstractJobEngine abstractJobEngine) {
+                eventSources.add(abstractJobEngine);
+            }
+        }
+        if (Objects.nonNull(cluster)) {
+            cluster.start();
+        } else {
+            engines.get(0).start();
+        }
+
+        out.printf(
+                Locale.ROOT, "mode=%s nodes=%d rate=%.1f/s duration=%ds mix=%s store=%s%n",
+                config.getMode(), engines.size(), config.getRate(), config.getDuration(), config.getMix(), config.getStore()
+        );
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "load-reporter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        startNanos = System.nanoTime();
+        lastReportNanos = startNanos;
+        reporter.scheduleAtFixedRate(() -> report(out), config.getReportInterval(), config.getReportInterval(), TimeUnit.SECONDS);
+        try {
+            generate(engines);
+            drain();
+        } finally {
+            reporter.shutdownNow();
+            reporter.awaitTermination(1L, TimeUnit.SECONDS);
+            report(out);
+            summarize(out);
+            if (Objects.nonNull(cluster)) {
+                cluster.close();
+            } else {
+                engines.get(0).stop();
+                executorService.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * 开环地按计划时间提交任务，集群模式下轮流提交给各个节点，模拟客户端连接到不同的节点
+     */
+    private void generate(List<JobEngine> engines) {
+        long periodNanos = Math.max(1L, (long) (TimeUnit.SECONDS.toNanos(1) / config.getRate()));
+        long end = startNanos + TimeUnit.SECONDS.toNanos(config.getDuration());
+        long intended = startNanos;
+        int next = 0;
+        while (intended < end && !Thread.currentThread().isInterrupted()) {
+            long now = System.nanoTime();
+            while (now < intended) {
+                LockSupport.parkNanos(intended - now);
+                now = System.nanoTime();
+            }
+            submit(engines.get(next), intended);
+            next = (next + 1) % engines.size();
+            intended += periodNanos;
+        }
+    }
+
+    private void submit(JobEngine engine, long intendedNanos) {
+        JobDefinition jobDefinition = jobMix.next("load-" + sequence.incrementAndGet());
+        inFlight.put(jobDefinition.getId(), intendedNanos);
+        try {
+            engine.runJob(jobDefinition);
+            submitted.increment();
+        } catch (Exception exception) {
+            inFlight.remove(jobDefinition.getId());
+            rejected.increment();
+            log.debug("Job rejected: {}", exception.getMessage());
+        }
+    }
+
+    private void onEvent(JobEvent event) {
+        JobEvent.Type type = event.getType();
+        if (type != JobEvent.Type.FINISHED && type != JobEvent.Type.FAILED && type != JobEvent.Type.STOPPED) {
+            return;
+        }
+        Long intendedNanos = inFlight.remove(event.getJobDefinitionId());
+        if (Objects.isNull(intendedNanos)) {
+            return;
+        }
+        intervalRecorder.record(System.nanoTime() - intendedNanos);
+        if (type == JobEvent.Type.FINISHED) {
+            completed.increment();
+        } else {
+            failed.increment();
+        }
+    }
+
+    private void drain() throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(config.getDrainSeconds());
+        while (!inFlight.isEmpty() && System.nanoTime() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(50L);
+        }
+    }
+
+    private synchronized void report(PrintStream out) {
+        long now = System.nanoTime();
+        LatencyHistogram interval = intervalRecorder.swap();
+        totalHistogram.add(interval);
+        double seconds = Math.max(1e-9, (now - lastReportNanos) / 1e9);
+        lastReportNanos = now;
+        int threads = ManagementFactory.getThreadMXBean().getThreadCount();
+        long heapBytes = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+        peakThreads.accumulateAndGet(threads, Math::max);
+        peakHeapBytes.accumulateAndGet(heapBytes, Math::max);
+        long droppedEvents = droppedEvents();
+        out.printf(
+                Locale.ROOT,
+                "%7.1fs submitted=%d completed=%d failed=%d rejected=%d inflight=%d throughput=%.1f/s "
+                        + "p50=%.3fms p99=%.3fms p999=%.3fms max=%.3fms threads=%d heap=%dMB droppedEvents=%d%n",
+                (now - startNanos) / 1e9, submitted.sum(), completed.sum(), failed.sum(), rejected.sum(), inFlight.size(),
+                interval.getCount() / seconds,
+                millis(interval.getValueAtPercentile(50.0)), millis(interval.getValueAtPercentile(99.0)),
+                millis(interval.getValueAtPercentile(99.9)), millis(interval.getMax()),
+                threads, heapBytes >>> 20, droppedEvents
+        );
+        if (droppedEvents > lastDroppedEvents) {
+            log.warn("{} job events were dropped in the last interval, completions and latencies are undercounted.", droppedEvents - lastDroppedEvents);
+        }
+        lastDroppedEvents = droppedEvents;
+    }
+
+    private synchronized void summarize(PrintStream out) {
+        double seconds = Math.max(1e-9, (System.nanoTime() - startNanos) / 1e9);
+        long droppedEvents = droppedEvents();
+        out.printf(
+                Locale.ROOT,
+                "summary: submitted=%d completed=%d failed=%d rejected=%d unfinished=%d throughput=%.1f/s "
+                        + "mean=%.3fms p50=%.3fms p90=%.3fms p99=%.3fms p999=%.3fms max=%.3fms peakThreads=%d peakHeap=%dMB droppedEvents=%d%n",
+                submitted.sum(), completed.sum(), failed.sum(), rejected.sum(), inFlight.size(), totalHistogram.getCount() / seconds,
+                totalHistogram.getMean() / NANOS_PER_MILLI,
+                millis(totalHistogram.getValueAtPercentile(50.0)), millis(totalHistogram.getValueAtPercentile(90.0)),
+                millis(totalHistogram.getValueAtPercentile(99.0)), millis(totalHistogram.getValueAtPercentile(99.9)),
+                millis(totalHistogram.getMax()), peakThreads.get(), peakHeapBytes.get() >>> 20, droppedEvents
+        );
+        if (droppedEvents > 0L) {
+            out.printf(
+                    Locale.ROOT,
+                    "WARNING: %d job events were dropped, completed/failed counts and latencies above are incomplete "
+                            + "and unfinished includes jobs whose completion event was lost.%n",
+                    droppedEvents
+            );
+        }
+    }
+
+    private long droppedEvents() {
+        long count = 0L;
+        for (AbstractJobEngine engine : eventSources) {
+            count += engine.getEventBus().getDroppedEventCount();
+        }
+        return count;
+    }
+
+    private JobStore newJobStore() {
+        return "compact".equals(config.getStore()) ? new CompactJobStore() : new MemoryJobStore();
+    }
+
+    private static double millis(long nanos) {
+        return nanos / NANOS_PER_MILLI;
+    }
+
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2023 zoukang, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package zk.js.loadgen;
+
+import zk.js.engine.job.Job;
+import zk.js.engine.job.JobConverter;
+import zk.js.engine.job.JobConverterException;
+import zk.js.engine.job.JobDefinition;
+
+/**
+ * 直接创建压测用的任务，不通过反射
+ */
+public class LoadJobConverter implements JobConverter {
+
+    public static final String CPU = "cpu";
+
+    public static final String IO = "io";
+
+    public static final String FAIL = "fail";
+
+    @Override
+    public Job convertJobDefinition(JobDefinition jobDefinition) throws JobConverterException {
+        String type = jobDefinition.getType();
+        if (CPU.equals(type)) {
+            return new CpuBoundJob(jobDefinition);
+        }
+        if (IO.equals(type)) {
+            return new IoBoundJob(jobDefinition);
+        }
+        if (FAIL.equals(type)) {
+            return new FailingJob(jobDefinition);
+        }
+        throw new JobConverterException("Unsupported job type " + type);
+    }
+
+}
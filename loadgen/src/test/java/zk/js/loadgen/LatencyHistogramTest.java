@@ -0,0 +1,94 @@
+/*
+ * Copyright 2023 zoukang, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package zk.js.loadgen;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+class LatencyHistogramTest {
+
+    @Test
+    void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long i = 1; i <= 100_000; ++i) {
+            histogram.record(i * 1000L);
+        }
+        Assertions.assertEquals(100_000L, histogram.getCount());
+        Assertions.assertEquals(100_000_000L, histogram.getMax());
+        // 返回桶的上界，相对误差不超过1/64
+        assertClose(50_000_000L, histogram.getValueAtPercentile(50.0));
+        assertClose(99_000_000L, histogram.getValueAtPercentile(99.0));
+        assertClose(99_900_000L, histogram.getValueAtPercentile(99.9));
+        Assertions.assertEquals(100_000_000L, histogram.getValueAtPercentile(100.0));
+
+        LatencyHistogram other = new LatencyHistogram();
+        other.record(5L);
+        other.add(histogram);
+        Assertions.assertEquals(100_001L, other.getCount());
+        Assertions.assertEquals(5L, other.getValueAtPercentile(0.0));
+        for (long value : new long[]{0L, 127L, 128L, 1L << 40, Long.MAX_VALUE}) {
+            Assertions.assertTrue(LatencyHistogram.highestValueOf(LatencyHistogram.indexOf(value)) >= value);
+        }
+    }
+
+    @Test
+    void testJobMix() {
+        JobMix jobMix = new JobMix("cpu:1,io:0,fail:3", Map.of("cpu", "1", "io", "1", "fail", ""));
+        int failCount = 0;
+        for (int i = 0; i < 4000; ++i) {
+            String type = jobMix.nextType();
+            Assertions.assertNotEquals("io", type);
+            if ("fail".equals(type)) {
+                ++failCount;
+            }
+        }
+        Assertions.assertTrue(failCount > 2700 && failCount < 3300, "fail count " + failCount);
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new JobMix("unknown:1", Map.of("cpu", "1")));
+    }
+
+    @Test
+    void testIntervalRecorder() throws Exception {
+        IntervalRecorder recorder = new IntervalRecorder();
+        LatencyHistogram total = new LatencyHistogram();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 4; ++i) {
+            threads.add(new Thread(() -> {
+                for (int j = 0; j < 100_000; ++j) {
+                    recorder.record(j);
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        // 记录的同时不断交换，所有样本都应该出现在某一个周期中
+        while (threads.stream().anyMatch(Thread::isAlive)) {
+            total.add(recorder.swap());
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        total.add(recorder.swap());
+        Assertions.assertEquals(400_000L, total.getCount());
+    }
+
+    private static void assertClose(long expected, long actual) {
+        Assertions.assertTrue(actual >= expected && actual <= expected + expected / 64, "expected " + expected + " but was " + actual);
+    }
+
+}